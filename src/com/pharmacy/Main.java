@@ -4,11 +4,17 @@ import com.pharmacy.model.*;
 import com.pharmacy.service.*;
 import com.pharmacy.service.impl.*;
 import com.pharmacy.util.*;
+import com.pharmacy.util.codec.ModelCodecs;
+import com.pharmacy.util.notification.SubmissionStatus;
+import com.pharmacy.util.wal.DurableStore;
 import com.pharmacy.exception.*;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.Scanner;
 
@@ -19,15 +25,28 @@ public class Main {
     
     private static final Logger logger = Logger.getLogger(Main.class.getName());
     
+    // System property for the directory data is kept in between runs (defaults to ./data)
+    public static final String DATA_DIRECTORY_PROPERTY = "pharmacy.dataDir";
+    
     public static void main(String[] args) {
         System.out.println("========================================================");
         System.out.println("Welcome to the Online Pharmacy and Medicine Delivery System");
         System.out.println("========================================================");
         
         try {
-            // Initialize services
-            PrescriptionService prescriptionService = new PrescriptionServiceImpl();
+            // Initialize services; prescriptions are kept in a durable store under the data directory
+            Path dataDirectory = Paths.get(System.getProperty(DATA_DIRECTORY_PROPERTY, "data"));
+            DurableStore<Prescription> prescriptionStore = new DurableStore<>(
+                dataDirectory, "prescriptions", ModelCodecs.PRESCRIPTION, Prescription::getPrescriptionId,
+                10L * 60 * 1000, 1000);
+            PrescriptionServiceImpl prescriptionService = new PrescriptionServiceImpl(prescriptionStore);
             MedicineRecommendationSystem recommendationSystem = new MedicineRecommendationSystemImpl();
+            // Reminders and deferred notifications go to a log in the data directory unless configured
+            if (System.getProperty(NotificationManager.REMINDER_LOG_PROPERTY) == null
+                    && System.getProperty(NotificationManager.DATA_DIRECTORY_PROPERTY) == null) {
+                System.setProperty(NotificationManager.REMINDER_LOG_PROPERTY,
+                                   dataDirectory.resolve("reminders.log").toString());
+            }
             NotificationManager notificationManager = NotificationManager.getInstance();
             
             // Create demo data
@@ -92,6 +111,8 @@ public class Main {
             // Cleanup
             scanner.close();
             notificationManager.shutdown(true);
+            prescriptionService.close();
+            prescriptionStore.close();
             
         } catch (Exception e) {
             logger.severe("Error in main: " + e.getMessage());
@@ -361,7 +382,7 @@ public class Main {
         notificationManager.scheduleReminder(
             customer.getEmail(),
             "Remember to take your Paracetamol medication.",
-            1, // 1 second for demo purposes (would be hours in a real system)
+            1, TimeUnit.SECONDS, // 1 second for demo purposes (would be hours in a real system)
             "email"
         );
         
@@ -369,7 +390,7 @@ public class Main {
         notificationManager.scheduleReminder(
             customer.getPhoneNumber(),
             "Remember to take your Cetirizine medication.",
-            2, // 2 seconds for demo purposes
+            2, TimeUnit.SECONDS, // 2 seconds for demo purposes
             "sms"
         );
         
@@ -397,7 +418,7 @@ public class Main {
         // Create a custom notification task that counts down the latch
         for (int i = 1; i <= NUM_NOTIFICATIONS; i++) {
             final int notificationNumber = i;
-            notificationManager.notificationExecutor.submit(() -> {
+            SubmissionStatus status = notificationManager.submitCustomNotificationTask(() -> {
                 try {
                     System.out.println("Processing notification #" + notificationNumber + " on thread: " + 
                                      Thread.currentThread().getName());
@@ -410,6 +431,10 @@ public class Main {
                     latch.countDown();
                 }
             });
+            if (status != SubmissionStatus.ACCEPTED) {
+                System.out.println("Notification #" + notificationNumber + " was " + status);
+                latch.countDown();
+            }
         }
         
         // Wait for all notifications to complete
@@ -1,7 +1,10 @@
 package com.pharmacy.dao;
 
 import com.pharmacy.model.Medicine;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Data Access Object interface for Medicine entities
@@ -113,4 +116,99 @@ public interface MedicineDAO {
      * @return The total count
      */
     int getTotalCount();
+    
+    /**
+     * Save many medicines at once. Implementations should take their lock and update
+     * their indexes once for the whole batch rather than once per medicine.
+     * 
+     * @param medicines The medicines to save
+     * @return The saved medicines with potentially updated IDs, in the same order
+     */
+    default List<Medicine> saveAll(Collection<Medicine> medicines) {
+        List<Medicine> saved = new ArrayList<>(medicines.size());
+        for (Medicine medicine : medicines) {
+            saved.add(save(medicine));
+        }
+        return saved;
+    }
+    
+    /**
+     * Update many existing medicines at once, e.g. for a restock. Medicines whose IDs
+     * do not exist are skipped.
+     * 
+     * @param medicines The medicines to update
+     * @return The updated medicines, in the same order
+     */
+    default List<Medicine> updateAll(Collection<Medicine> medicines) {
+        List<Medicine> updated = new ArrayList<>(medicines.size());
+        for (Medicine medicine : medicines) {
+            if (update(medicine) != null) {
+                updated.add(medicine);
+            }
+        }
+        return updated;
+    }
+    
+    /**
+     * Find many medicines by their IDs at once, e.g. for the items of an order
+     * 
+     * @param medicineIds The IDs of the medicines to find
+     * @return The found medicines in the order of their IDs; IDs that are not found are skipped
+     */
+    default List<Medicine> findAllByIds(Collection<String> medicineIds) {
+        List<Medicine> found = new ArrayList<>(medicineIds.size());
+        for (String medicineId : medicineIds) {
+            Medicine medicine = findById(medicineId);
+            if (medicine != null) {
+                found.add(medicine);
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Delete many medicines by their IDs at once
+     * 
+     * @param medicineIds The IDs of the medicines to delete
+     * @return The number of medicines deleted
+     */
+    default int deleteAll(Collection<String> medicineIds) {
+        int deleted = 0;
+        for (String medicineId : medicineIds) {
+            if (deleteById(medicineId)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+    
+    /**
+     * Save or update many medicines at once, e.g. for a catalog import. Medicines whose
+     * IDs exist are updated and the rest are saved, in order, so a later medicine with the
+     * same ID wins. Implementations should apply the whole collection under one lock and
+     * index update rather than row by row.
+     * 
+     * @param medicines The medicines to save or update
+     * @return The number of medicines that were new
+     */
+    default int saveOrUpdateAll(Collection<Medicine> medicines) {
+        int inserted = 0;
+        for (Medicine medicine : medicines) {
+            String medicineId = medicine.getMedicineId();
+            if (medicineId == null || medicineId.isEmpty() || update(medicine) == null) {
+                save(medicine);
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+    
+    /**
+     * Visit every medicine without collecting them into a list, e.g. for a catalog export
+     * 
+     * @param action The action to run for each medicine
+     */
+    default void forEach(Consumer<? super Medicine> action) {
+        findAll().forEach(action);
+    }
 } 
\ No newline at end of file
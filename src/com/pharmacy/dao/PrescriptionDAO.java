@@ -1,6 +1,8 @@
 package com.pharmacy.dao;
 
 import com.pharmacy.model.Prescription;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -72,6 +74,71 @@ public interface PrescriptionDAO {
      */
     List<Prescription> findVerifiedPrescriptionsByCustomerId(String customerId);
     
+    /**
+     * Save many prescriptions at once. Implementations should take their lock, update
+     * their indexes and persist the batch once rather than once per prescription.
+     * 
+     * @param prescriptions The prescriptions to save
+     * @return The saved prescriptions with potentially updated IDs, in the same order
+     */
+    default List<Prescription> saveAll(Collection<Prescription> prescriptions) {
+        List<Prescription> saved = new ArrayList<>(prescriptions.size());
+        for (Prescription prescription : prescriptions) {
+            saved.add(save(prescription));
+        }
+        return saved;
+    }
+    
+    /**
+     * Update many existing prescriptions at once. Prescriptions whose IDs do not exist
+     * are skipped.
+     * 
+     * @param prescriptions The prescriptions to update
+     * @return The updated prescriptions, in the same order
+     */
+    default List<Prescription> updateAll(Collection<Prescription> prescriptions) {
+        List<Prescription> updated = new ArrayList<>(prescriptions.size());
+        for (Prescription prescription : prescriptions) {
+            if (update(prescription) != null) {
+                updated.add(prescription);
+            }
+        }
+        return updated;
+    }
+    
+    /**
+     * Find many prescriptions by their IDs at once
+     * 
+     * @param prescriptionIds The IDs of the prescriptions to find
+     * @return The found prescriptions in the order of their IDs; IDs that are not found are skipped
+     */
+    default List<Prescription> findAllByIds(Collection<String> prescriptionIds) {
+        List<Prescription> found = new ArrayList<>(prescriptionIds.size());
+        for (String prescriptionId : prescriptionIds) {
+            Prescription prescription = findById(prescriptionId);
+            if (prescription != null) {
+                found.add(prescription);
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Delete many prescriptions by their IDs at once
+     * 
+     * @param prescriptionIds The IDs of the prescriptions to delete
+     * @return The number of prescriptions deleted
+     */
+    default int deleteAll(Collection<String> prescriptionIds) {
+        int deleted = 0;
+        for (String prescriptionId : prescriptionIds) {
+            if (deleteById(prescriptionId)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+    
     /**
      * Get the total number of prescriptions in the system
      * 
@@ -0,0 +1,229 @@
+package com.pharmacy.dao.impl;
+
+import com.pharmacy.model.Medicine;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * One immutable version of the changes a {@link SnapshotMedicineDAO} keeps over its snapshot.
+ *
+ * Entries map a medicine ID to its saved or updated medicine, or to {@link #DELETED} for a
+ * deleted snapshot row. They are spread over 4,096 buckets, each a hash map that is never
+ * changed once published, held in 64 pages of 64 buckets. A new version shares every page
+ * and bucket its writer did not touch, so publishing a single change copies one bucket,
+ * one page and the page array, about 500 entries even with two million in the overlay,
+ * while a large batch copies each bucket at most once.
+ */
+final class CatalogVersion {
+
+    /**
+     * Entry marking a deleted snapshot row
+     */
+    static final Medicine DELETED = new Medicine();
+
+    private static final int PAGE_BITS = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGES = 64;
+
+    private static final Map<String, Medicine> EMPTY_BUCKET = Map.of();
+
+    private final long number;
+    // Pages of buckets; a page is an Object[] of bucket maps
+    private final Object[] pages;
+    private final int entryCount;
+    private final int totalCount;
+
+    private CatalogVersion(long number, Object[] pages, int entryCount, int totalCount) {
+        this.number = number;
+        this.pages = pages;
+        this.entryCount = entryCount;
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * Create the first version, with no changes over the snapshot
+     *
+     * @param totalCount Number of medicines in the snapshot
+     * @return The version
+     */
+    static CatalogVersion initial(int totalCount) {
+        Object[] page = new Object[PAGE_SIZE];
+        Arrays.fill(page, EMPTY_BUCKET);
+        Object[] pages = new Object[PAGES];
+        Arrays.fill(pages, page);
+        return new CatalogVersion(0, pages, 0, totalCount);
+    }
+
+    /**
+     * Get the version number, which grows by one with each published change
+     *
+     * @return The version number
+     */
+    long number() {
+        return number;
+    }
+
+    /**
+     * Get the number of medicines visible in this version
+     *
+     * @return The medicine count
+     */
+    int totalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Check whether this version has any entries, so scans can skip the lookups otherwise
+     *
+     * @return true if some ID is saved, updated or deleted
+     */
+    boolean hasEntries() {
+        return entryCount > 0;
+    }
+
+    /**
+     * Get the entry for an ID
+     *
+     * @param medicineId The medicine ID
+     * @return The medicine, {@link #DELETED}, or null if the ID has no entry
+     */
+    Medicine entry(String medicineId) {
+        return bucket(pages, medicineId).get(medicineId);
+    }
+
+    /**
+     * Visit every saved or updated medicine
+     *
+     * @param action The action to run for each medicine
+     */
+    void forEachMedicine(Consumer<? super Medicine> action) {
+        if (entryCount == 0) {
+            return;
+        }
+        for (Object page : pages) {
+            for (Object bucket : (Object[]) page) {
+                for (Medicine medicine : cast(bucket).values()) {
+                    if (medicine != DELETED) {
+                        action.accept(medicine);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Start building the next version
+     *
+     * @return A builder starting from this version
+     */
+    Builder edit() {
+        return new Builder();
+    }
+
+    private static Map<String, Medicine> bucket(Object[] pages, String medicineId) {
+        int index = index(medicineId);
+        return cast(((Object[]) pages[index >>> PAGE_BITS])[index & (PAGE_SIZE - 1)]);
+    }
+
+    private static int index(String medicineId) {
+        int hash = medicineId.hashCode();
+        return (hash ^ (hash >>> 16)) & (PAGES * PAGE_SIZE - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Medicine> cast(Object bucket) {
+        return (Map<String, Medicine>) bucket;
+    }
+
+    /**
+     * Builds the next version. Pages and buckets are copied on their first change, so the version
+     * the builder started from is never modified. Used by one writer at a time.
+     */
+    final class Builder {
+
+        private final Object[] next = pages.clone();
+        private final boolean[] pageCopied = new boolean[PAGES];
+        private final boolean[] bucketCopied = new boolean[PAGES * PAGE_SIZE];
+        private int nextEntryCount = entryCount;
+        private int nextTotalCount = totalCount;
+        private boolean changed;
+
+        private Builder() {
+        }
+
+        /**
+         * Get the entry for an ID, including changes made by this builder
+         *
+         * @param medicineId The medicine ID
+         * @return The medicine, {@link #DELETED}, or null if the ID has no entry
+         */
+        Medicine entry(String medicineId) {
+            return bucket(next, medicineId).get(medicineId);
+        }
+
+        /**
+         * Set the entry for an ID
+         *
+         * @param medicineId The medicine ID
+         * @param medicine The medicine, or {@link #DELETED}
+         */
+        void put(String medicineId, Medicine medicine) {
+            if (writable(medicineId).put(medicineId, medicine) == null) {
+                nextEntryCount++;
+            }
+            changed = true;
+        }
+
+        /**
+         * Remove the entry for an ID
+         *
+         * @param medicineId The medicine ID
+         */
+        void remove(String medicineId) {
+            if (writable(medicineId).remove(medicineId) != null) {
+                nextEntryCount--;
+            }
+            changed = true;
+        }
+
+        /**
+         * Change the number of visible medicines
+         *
+         * @param delta The change
+         */
+        void addToTotalCount(int delta) {
+            nextTotalCount += delta;
+            changed |= delta != 0;
+        }
+
+        private Map<String, Medicine> writable(String medicineId) {
+            int index = index(medicineId);
+            int pageIndex = index >>> PAGE_BITS;
+            if (!pageCopied[pageIndex]) {
+                next[pageIndex] = ((Object[]) next[pageIndex]).clone();
+                pageCopied[pageIndex] = true;
+            }
+            Object[] page = (Object[]) next[pageIndex];
+            int slot = index & (PAGE_SIZE - 1);
+            if (!bucketCopied[index]) {
+                page[slot] = new HashMap<>(cast(page[slot]));
+                bucketCopied[index] = true;
+            }
+            return cast(page[slot]);
+        }
+
+        /**
+         * Build the next version
+         *
+         * @return The new version, or the version the builder started from if nothing changed
+         */
+        CatalogVersion build() {
+            if (!changed) {
+                return CatalogVersion.this;
+            }
+            return new CatalogVersion(number + 1, next, nextEntryCount, nextTotalCount);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.pharmacy.dao.impl;
+
+import com.pharmacy.dao.PrescriptionDAO;
+import com.pharmacy.model.Prescription;
+import com.pharmacy.util.wal.DurableStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PrescriptionDAO backed by a {@link DurableStore}, so every change is durable when the
+ * call returns.
+ *
+ * Prescriptions are indexed by customer, the most common lookup. Writes hold no lock while
+ * they wait for their fsync, so concurrent writers share one through the store's group
+ * commit, and batches are logged with {@link DurableStore#putAll} and its siblings, so a
+ * batch waits for one fsync rather than one per prescription. Once the store has the
+ * change, each write re-indexes the prescriptions it touched from the store's current
+ * state under a lock held only for the index update, so the index ends up matching the
+ * store whatever order concurrent writers finish in.
+ *
+ * Failures to persist are thrown as {@link UncheckedIOException}, since the DAO interface
+ * has no checked exceptions.
+ */
+public class DurablePrescriptionDAO implements PrescriptionDAO {
+
+    private final DurableStore<Prescription> store;
+
+    // Prescription IDs by customer ID
+    private final Map<String, Set<String>> byCustomer = new ConcurrentHashMap<>();
+
+    // Customer ID each prescription is indexed under, since callers change prescriptions in place
+    private final Map<String, String> indexedCustomer = new ConcurrentHashMap<>();
+
+    // Serializes index updates; never held while waiting for the store
+    private final Object indexLock = new Object();
+
+    /**
+     * Create a DAO over a store, indexing the prescriptions it holds
+     *
+     * @param store The durable prescription store, keyed by prescription ID
+     */
+    public DurablePrescriptionDAO(DurableStore<Prescription> store) {
+        this.store = store;
+        for (Prescription prescription : store.values()) {
+            index(prescription);
+        }
+    }
+
+    @Override
+    public Prescription save(Prescription prescription) {
+        assignId(prescription);
+        try {
+            store.put(prescription);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save prescription " + prescription.getPrescriptionId(), e);
+        } finally {
+            reindex(prescription.getPrescriptionId());
+        }
+        return prescription;
+    }
+
+    @Override
+    public Prescription findById(String prescriptionId) {
+        return store.get(prescriptionId);
+    }
+
+    @Override
+    public List<Prescription> findByCustomerId(String customerId) {
+        List<Prescription> result = new ArrayList<>();
+        Set<String> ids = byCustomer.get(customerId == null ? "" : customerId);
+        if (ids != null) {
+            for (String id : ids) {
+                Prescription prescription = store.get(id);
+                if (prescription != null) {
+                    result.add(prescription);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Prescription> findByDoctorId(String doctorId) {
+        List<Prescription> result = new ArrayList<>();
+        for (Prescription prescription : store.values()) {
+            if (doctorId.equals(prescription.getDoctorId())) {
+                result.add(prescription);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Prescription update(Prescription prescription) {
+        boolean replaced;
+        try {
+            replaced = store.replace(prescription);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update prescription " + prescription.getPrescriptionId(), e);
+        } finally {
+            reindex(prescription.getPrescriptionId());
+        }
+        return replaced ? prescription : null;
+    }
+
+    @Override
+    public boolean deleteById(String prescriptionId) {
+        try {
+            return store.remove(prescriptionId) != null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete prescription " + prescriptionId, e);
+        } finally {
+            reindex(prescriptionId);
+        }
+    }
+
+    @Override
+    public List<Prescription> findValidPrescriptionsByCustomerId(String customerId) {
+        List<Prescription> result = findByCustomerId(customerId);
+        result.removeIf(prescription -> !prescription.isValid());
+        return result;
+    }
+
+    @Override
+    public List<Prescription> findVerifiedPrescriptionsByCustomerId(String customerId) {
+        List<Prescription> result = findByCustomerId(customerId);
+        result.removeIf(prescription -> !prescription.isVerified());
+        return result;
+    }
+
+    @Override
+    public int getTotalCount() {
+        return store.size();
+    }
+
+    @Override
+    public List<Prescription> saveAll(Collection<Prescription> prescriptions) {
+        for (Prescription prescription : prescriptions) {
+            assignId(prescription);
+        }
+        try {
+            store.putAll(prescriptions);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save " + prescriptions.size() + " prescriptions", e);
+        } finally {
+            reindexAll(prescriptions);
+        }
+        return new ArrayList<>(prescriptions);
+    }
+
+    @Override
+    public List<Prescription> updateAll(Collection<Prescription> prescriptions) {
+        try {
+            return store.replaceAll(prescriptions);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update " + prescriptions.size() + " prescriptions", e);
+        } finally {
+            reindexAll(prescriptions);
+        }
+    }
+
+    @Override
+    public int deleteAll(Collection<String> prescriptionIds) {
+        try {
+            return store.removeAll(prescriptionIds).size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete " + prescriptionIds.size() + " prescriptions", e);
+        } finally {
+            synchronized (indexLock) {
+                for (String prescriptionId : prescriptionIds) {
+                    reindex(prescriptionId);
+                }
+            }
+        }
+    }
+
+    private static void assignId(Prescription prescription) {
+        if (prescription.getPrescriptionId() == null || prescription.getPrescriptionId().isEmpty()) {
+            prescription.setPrescriptionId(UUID.randomUUID().toString());
+        }
+    }
+
+    /**
+     * Bring the index entry for a prescription in line with the store
+     */
+    private void reindex(String prescriptionId) {
+        synchronized (indexLock) {
+            Prescription current = store.get(prescriptionId);
+            if (current == null) {
+                unindex(prescriptionId);
+            } else {
+                index(current);
+            }
+        }
+    }
+
+    private void reindexAll(Collection<Prescription> prescriptions) {
+        synchronized (indexLock) {
+            for (Prescription prescription : prescriptions) {
+                reindex(prescription.getPrescriptionId());
+            }
+        }
+    }
+
+    private void index(Prescription prescription) {
+        String id = prescription.getPrescriptionId();
+        String customerId = prescription.getCustomerId() == null ? "" : prescription.getCustomerId();
+        String previous = indexedCustomer.put(id, customerId);
+        if (Objects.equals(previous, customerId)) {
+            return;
+        }
+        if (previous != null) {
+            removeFromCustomer(previous, id);
+        }
+        byCustomer.computeIfAbsent(customerId, key -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    private void unindex(String prescriptionId) {
+        String customerId = indexedCustomer.remove(prescriptionId);
+        if (customerId != null) {
+            removeFromCustomer(customerId, prescriptionId);
+        }
+    }
+
+    private void removeFromCustomer(String customerId, String prescriptionId) {
+        byCustomer.computeIfPresent(customerId, (key, ids) -> {
+            ids.remove(prescriptionId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+}
@@ -0,0 +1,393 @@
+package com.pharmacy.dao.impl;
+
+import com.pharmacy.dao.MedicineDAO;
+import com.pharmacy.model.Medicine;
+import com.pharmacy.util.IdGenerator;
+import com.pharmacy.util.codec.CatalogSnapshot;
+import com.pharmacy.util.codec.CatalogSnapshot.StringColumn;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * MedicineDAO backed by a memory-mapped catalog snapshot.
+ *
+ * Startup only maps the snapshot; no medicine is parsed until it is looked up. Lookups by
+ * ID binary search the snapshot's ID index, and filters on price, stock, prescription flag,
+ * category and manufacturer scan the snapshot's fixed-width columns, building
+ * {@link Medicine} objects only for matching rows.
+ *
+ * The snapshot itself is read-only. Saves, updates and deletes are kept in an overlay that
+ * shadows the snapshot until the next snapshot is written. The overlay is versioned: each
+ * write, including a whole batch, builds a new immutable {@link CatalogVersion} and
+ * publishes it with a single volatile write. Readers never lock. Every query reads one
+ * version from start to finish, so it never sees half of a restock batch, and
+ * {@link #view} hands out a version as a consistent point-in-time view without copying
+ * anything. {@link #getTotalCount} is a field read of the current version.
+ *
+ * Medicines are copied on the way in and on the way out, so every medicine a caller gets
+ * is its own. Changing one in place, e.g. stock after a sale, changes no version until it
+ * is passed to {@link #update} or {@link #updateAll}.
+ */
+public class SnapshotMedicineDAO implements MedicineDAO {
+
+    private final CatalogSnapshot snapshot;
+
+    // Saved, updated and deleted medicines as of the latest write; replaced, never changed
+    private volatile CatalogVersion current;
+
+    /**
+     * Consistent, read-only view of the catalog as of one version. Taking a view costs one
+     * volatile read, and later writes do not affect it.
+     */
+    public final class View {
+
+        private final CatalogVersion version;
+
+        private View(CatalogVersion version) {
+            this.version = version;
+        }
+
+        /**
+         * Get the version number of this view; it grows by one with each write
+         *
+         * @return The version number
+         */
+        public long getVersion() {
+            return version.number();
+        }
+
+        /**
+         * Get the number of medicines in this view
+         *
+         * @return The medicine count
+         */
+        public int getTotalCount() {
+            return version.totalCount();
+        }
+
+        /**
+         * Find a medicine by its ID
+         *
+         * @param medicineId The ID of the medicine to find
+         * @return The found medicine, or null if not found
+         */
+        public Medicine findById(String medicineId) {
+            Medicine medicine = version.entry(medicineId);
+            if (medicine != null) {
+                return medicine == CatalogVersion.DELETED ? null : copy(medicine);
+            }
+            int row = snapshot.findRow(medicineId);
+            return row < 0 ? null : snapshot.materialize(row);
+        }
+
+        /**
+         * Get every medicine in this view
+         *
+         * @return The medicines
+         */
+        public List<Medicine> findAll() {
+            return find(row -> true, medicine -> true);
+        }
+
+        /**
+         * Visit every medicine in this view
+         *
+         * @param action The action to run for each medicine
+         */
+        public void forEach(Consumer<? super Medicine> action) {
+            boolean anyEntries = version.hasEntries();
+            for (int row = 0; row < snapshot.size(); row++) {
+                if (anyEntries && version.entry(snapshot.getString(row, StringColumn.MEDICINE_ID)) != null) {
+                    continue;
+                }
+                action.accept(snapshot.materialize(row));
+            }
+            version.forEachMedicine(medicine -> action.accept(copy(medicine)));
+        }
+
+        /**
+         * Collect snapshot rows matching a column filter, skipping rows shadowed or deleted
+         * in this version, followed by overlay medicines matching the equivalent object filter
+         */
+        private List<Medicine> find(IntPredicate rowFilter, Predicate<Medicine> filter) {
+            List<Medicine> result = new ArrayList<>();
+            boolean anyEntries = version.hasEntries();
+            for (int row = 0; row < snapshot.size(); row++) {
+                if (rowFilter.test(row)
+                    && !(anyEntries && version.entry(snapshot.getString(row, StringColumn.MEDICINE_ID)) != null)) {
+                    result.add(snapshot.materialize(row));
+                }
+            }
+            version.forEachMedicine(medicine -> {
+                if (filter.test(medicine)) {
+                    result.add(copy(medicine));
+                }
+            });
+            return result;
+        }
+    }
+
+    /**
+     * Create a DAO over a snapshot
+     *
+     * @param snapshot The mapped catalog snapshot
+     */
+    public SnapshotMedicineDAO(CatalogSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.current = CatalogVersion.initial(snapshot.size());
+    }
+
+    /**
+     * Get a consistent view of the catalog as it is now, in constant time
+     *
+     * @return The view
+     */
+    public View view() {
+        return new View(current);
+    }
+
+    @Override
+    public synchronized Medicine save(Medicine medicine) {
+        CatalogVersion.Builder edit = current.edit();
+        if (upsert(edit, medicine)) {
+            edit.addToTotalCount(1);
+        }
+        current = edit.build();
+        return medicine;
+    }
+
+    @Override
+    public Medicine findById(String medicineId) {
+        return view().findById(medicineId);
+    }
+
+    @Override
+    public List<Medicine> findByName(String name) {
+        String query = name.toLowerCase(Locale.ROOT);
+        return view().find(row -> contains(snapshot.getString(row, StringColumn.NAME), query),
+                           medicine -> contains(medicine.getName(), query));
+    }
+
+    @Override
+    public List<Medicine> findByManufacturer(String manufacturer) {
+        int ref = snapshot.findString(manufacturer);
+        return view().find(row -> ref >= 0 && snapshot.getStringRef(row, StringColumn.MANUFACTURER) == ref,
+                           medicine -> manufacturer.equals(medicine.getManufacturer()));
+    }
+
+    @Override
+    public List<Medicine> findByCategory(String category) {
+        int ref = snapshot.findString(category);
+        return view().find(row -> ref >= 0 && snapshot.getStringRef(row, StringColumn.CATEGORY) == ref,
+                           medicine -> category.equals(medicine.getCategory()));
+    }
+
+    @Override
+    public List<Medicine> findPrescriptionMedicines() {
+        return view().find(snapshot::requiresPrescription, Medicine::isRequiresPrescription);
+    }
+
+    @Override
+    public List<Medicine> findOTCMedicines() {
+        return view().find(row -> !snapshot.requiresPrescription(row), medicine -> !medicine.isRequiresPrescription());
+    }
+
+    @Override
+    public List<Medicine> findInStockMedicines() {
+        return view().find(row -> snapshot.getStock(row) > 0, Medicine::isInStock);
+    }
+
+    @Override
+    public List<Medicine> findOutOfStockMedicines() {
+        return view().find(row -> snapshot.getStock(row) <= 0, medicine -> !medicine.isInStock());
+    }
+
+    @Override
+    public List<Medicine> findByPriceLessThan(double maxPrice) {
+        return view().find(row -> snapshot.getPrice(row) < maxPrice, medicine -> medicine.getPrice() < maxPrice);
+    }
+
+    @Override
+    public List<Medicine> findAll() {
+        return view().findAll();
+    }
+
+    @Override
+    public synchronized Medicine update(Medicine medicine) {
+        CatalogVersion.Builder edit = current.edit();
+        if (!replace(edit, medicine)) {
+            return null;
+        }
+        current = edit.build();
+        return medicine;
+    }
+
+    @Override
+    public synchronized boolean deleteById(String medicineId) {
+        CatalogVersion.Builder edit = current.edit();
+        if (!delete(edit, medicineId)) {
+            return false;
+        }
+        edit.addToTotalCount(-1);
+        current = edit.build();
+        return true;
+    }
+
+    @Override
+    public List<Medicine> saveAll(Collection<Medicine> medicines) {
+        saveOrUpdateAll(medicines);
+        return new ArrayList<>(medicines);
+    }
+
+    /**
+     * Save or update a batch as one version. Each medicine costs at most one snapshot
+     * lookup, and only when its ID has no overlay entry yet.
+     */
+    @Override
+    public synchronized int saveOrUpdateAll(Collection<Medicine> medicines) {
+        CatalogVersion.Builder edit = current.edit();
+        int inserted = 0;
+        for (Medicine medicine : medicines) {
+            if (upsert(edit, medicine)) {
+                inserted++;
+            }
+        }
+        edit.addToTotalCount(inserted);
+        current = edit.build();
+        return inserted;
+    }
+
+    @Override
+    public synchronized List<Medicine> updateAll(Collection<Medicine> medicines) {
+        CatalogVersion.Builder edit = current.edit();
+        List<Medicine> updated = new ArrayList<>(medicines.size());
+        for (Medicine medicine : medicines) {
+            if (replace(edit, medicine)) {
+                updated.add(medicine);
+            }
+        }
+        current = edit.build();
+        return updated;
+    }
+
+    @Override
+    public synchronized int deleteAll(Collection<String> medicineIds) {
+        CatalogVersion.Builder edit = current.edit();
+        int deleted = 0;
+        for (String medicineId : medicineIds) {
+            if (delete(edit, medicineId)) {
+                deleted++;
+            }
+        }
+        edit.addToTotalCount(-deleted);
+        current = edit.build();
+        return deleted;
+    }
+
+    @Override
+    public void forEach(Consumer<? super Medicine> action) {
+        view().forEach(action);
+    }
+
+    @Override
+    public int getTotalCount() {
+        return current.totalCount();
+    }
+
+    /**
+     * Get the snapshot this DAO reads from
+     *
+     * @return The snapshot
+     */
+    public CatalogSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Save or update one medicine in a version being built; the caller holds the lock
+     * and adjusts the count
+     *
+     * @return true if the medicine was new
+     */
+    private boolean upsert(CatalogVersion.Builder edit, Medicine medicine) {
+        if (medicine.getMedicineId() == null || medicine.getMedicineId().isEmpty()) {
+            medicine.setMedicineId(IdGenerator.getInstance().nextId("MED"));
+        }
+        String medicineId = medicine.getMedicineId();
+        Medicine previous = edit.entry(medicineId);
+        edit.put(medicineId, copy(medicine));
+        if (previous != null) {
+            // Updates an overlay medicine, or brings back a deleted snapshot row
+            return previous == CatalogVersion.DELETED;
+        }
+        // A live snapshot row is shadowed rather than added
+        return snapshot.findRow(medicineId) < 0;
+    }
+
+    /**
+     * Replace an existing medicine in a version being built; the caller holds the lock
+     *
+     * @return true if the medicine existed
+     */
+    private boolean replace(CatalogVersion.Builder edit, Medicine medicine) {
+        String medicineId = medicine.getMedicineId();
+        Medicine previous = edit.entry(medicineId);
+        if (previous == null ? snapshot.findRow(medicineId) < 0 : previous == CatalogVersion.DELETED) {
+            return false;
+        }
+        edit.put(medicineId, copy(medicine));
+        return true;
+    }
+
+    /**
+     * Delete one medicine in a version being built; the caller holds the lock and adjusts
+     * the count
+     *
+     * @return true if the medicine existed
+     */
+    private boolean delete(CatalogVersion.Builder edit, String medicineId) {
+        Medicine previous = edit.entry(medicineId);
+        if (previous == CatalogVersion.DELETED) {
+            return false;
+        }
+        int row = snapshot.findRow(medicineId);
+        if (previous == null && row < 0) {
+            return false;
+        }
+        if (row >= 0) {
+            // Keep the snapshot row hidden
+            edit.put(medicineId, CatalogVersion.DELETED);
+        } else {
+            edit.remove(medicineId);
+        }
+        return true;
+    }
+
+    /**
+     * Copy a medicine, including its dates and side effects, so neither the caller nor
+     * the versions holding the copy can change the other
+     */
+    private static Medicine copy(Medicine medicine) {
+        Date manufactureDate = medicine.getManufactureDate();
+        Date expiryDate = medicine.getExpiryDate();
+        Medicine copy = new Medicine(
+            medicine.getMedicineId(), medicine.getName(), medicine.getManufacturer(), medicine.getPrice(),
+            medicine.getStock(), medicine.getDescription(), medicine.isRequiresPrescription(),
+            manufactureDate == null ? null : new Date(manufactureDate.getTime()),
+            expiryDate == null ? null : new Date(expiryDate.getTime()),
+            medicine.getCategory(), medicine.getDosageForm());
+        List<String> sideEffects = medicine.getSideEffects();
+        copy.setSideEffects(sideEffects == null ? null : new ArrayList<>(sideEffects));
+        return copy;
+    }
+
+    private static boolean contains(String value, String lowerCaseQuery) {
+        return value != null && value.toLowerCase(Locale.ROOT).contains(lowerCaseQuery);
+    }
+}
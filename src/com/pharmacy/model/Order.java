@@ -1,5 +1,6 @@
 package com.pharmacy.model;
 
+import com.pharmacy.util.IdGenerator;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
@@ -221,7 +222,7 @@ public class Order implements Serializable {
     // Method to generate tracking information
     public void generateTrackingNumber() {
         // In a real system, this would be provided by a shipping service
-        this.trackingNumber = "TRK" + System.currentTimeMillis();
+        this.trackingNumber = IdGenerator.getInstance().nextId("TRK");
     }
     
     // Method to check if order contains prescription medicines
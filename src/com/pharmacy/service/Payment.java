@@ -18,6 +18,19 @@ public interface Payment {
      */
     boolean processPayment(Order order, String... paymentDetails) throws PaymentException;
     
+    /**
+     * Process a payment for an order at most once per idempotency key.
+     * Retries with the same key return the original result instead of charging again,
+     * and retries of a payment still in progress wait for it to finish.
+     * 
+     * @param idempotencyKey Client-supplied key identifying this payment attempt
+     * @param order The order to process payment for
+     * @param paymentDetails Payment details (card number, expiry, etc.)
+     * @return true if payment was successful, false otherwise
+     * @throws PaymentException if there's an error processing the payment
+     */
+    boolean processPayment(String idempotencyKey, Order order, String... paymentDetails) throws PaymentException;
+    
     /**
      * Refund a payment for an order
      * 
@@ -0,0 +1,57 @@
+package com.pharmacy.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * PaymentGateway interface defines asynchronous calls to a payment provider
+ */
+public interface PaymentGateway {
+    
+    // Enum for gateway request type
+    enum RequestType {
+        CHARGE,
+        REFUND
+    }
+    
+    /**
+     * A request to charge or refund an amount
+     * 
+     * @param requestId The payment or refund ID
+     * @param orderId The order ID
+     * @param amountCents The amount in cents
+     * @param type The request type
+     */
+    record Request(String requestId, String orderId, long amountCents, RequestType type) {
+    }
+    
+    /**
+     * The gateway's answer to a single request
+     * 
+     * @param requestId The payment or refund ID
+     * @param approved Whether the request was approved
+     * @param gatewayReference The provider's reference for the transaction
+     * @param declineReason Reason for a decline, or null if approved
+     */
+    record Result(String requestId, boolean approved, String gatewayReference, String declineReason) {
+    }
+    
+    /**
+     * Submit a batch of requests for settlement in a single provider call
+     * 
+     * @param requests The requests to settle
+     * @return Future completed with one result per request, in request order,
+     *         or completed exceptionally if the provider call fails
+     */
+    CompletableFuture<List<Result>> submitBatch(List<Request> requests);
+    
+    /**
+     * Submit a single request
+     * 
+     * @param request The request to settle
+     * @return Future completed with the result
+     */
+    default CompletableFuture<Result> submit(Request request) {
+        return submitBatch(List.of(request)).thenApply(results -> results.get(0));
+    }
+}
@@ -0,0 +1,216 @@
+package com.pharmacy.service.impl;
+
+import com.pharmacy.exception.PaymentException;
+import com.pharmacy.service.PaymentGateway;
+import com.pharmacy.util.CircuitBreaker;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous client for a PaymentGateway.
+ *
+ * Requests are queued and micro-batched: a batch is sent when it reaches the maximum batch size
+ * or when the linger time elapses. The number of batches in flight is limited, each batch call
+ * is subject to a timeout, and a circuit breaker fails requests fast while the provider is down.
+ */
+public class PaymentGatewayClient implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(PaymentGatewayClient.class.getName());
+
+    private final PaymentGateway gateway;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final long timeoutMillis;
+    private final Semaphore inFlightBatches;
+    private final CircuitBreaker circuitBreaker;
+
+    // Requests waiting to be batched
+    private final BlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService batcher;
+    private volatile boolean closed;
+
+    /**
+     * A queued request and the future its caller is waiting on
+     */
+    private record PendingRequest(PaymentGateway.Request request, CompletableFuture<PaymentGateway.Result> future) {
+    }
+
+    /**
+     * Create a client with default settings
+     * (batches of up to 50, 5 ms linger, 8 batches in flight, 5 s timeout,
+     * circuit opens after 5 consecutive failures for 10 s)
+     *
+     * @param gateway The gateway to call
+     */
+    public PaymentGatewayClient(PaymentGateway gateway) {
+        this(gateway, 50, 5, 8, 5000, 5, 10000);
+    }
+
+    /**
+     * Create a client
+     *
+     * @param gateway The gateway to call
+     * @param maxBatchSize Maximum requests per batch call
+     * @param lingerMillis How long to wait for a batch to fill, in milliseconds
+     * @param maxConcurrentBatches Maximum batch calls in flight
+     * @param timeoutMillis Timeout for each batch call, in milliseconds
+     * @param failureThreshold Consecutive failed batch calls before the circuit opens
+     * @param circuitOpenMillis How long the circuit stays open, in milliseconds
+     */
+    public PaymentGatewayClient(PaymentGateway gateway, int maxBatchSize, long lingerMillis,
+                                int maxConcurrentBatches, long timeoutMillis,
+                                int failureThreshold, long circuitOpenMillis) {
+        if (gateway == null) {
+            throw new IllegalArgumentException("Gateway cannot be null");
+        }
+        if (maxBatchSize <= 0 || lingerMillis < 0 || maxConcurrentBatches <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid gateway client settings");
+        }
+        this.gateway = gateway;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.inFlightBatches = new Semaphore(maxConcurrentBatches);
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, circuitOpenMillis);
+        this.batcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "payment-gateway-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submit a request for settlement
+     *
+     * @param request The request to settle
+     * @return Future completed with the gateway result, or exceptionally with a
+     *         PaymentException if the client is closed, the circuit is open or the gateway call fails
+     */
+    public CompletableFuture<PaymentGateway.Result> submit(PaymentGateway.Request request) {
+        if (closed) {
+            return CompletableFuture.failedFuture(shutDown());
+        }
+        if (!circuitBreaker.allowRequest()) {
+            return CompletableFuture.failedFuture(
+                new PaymentException("Payment gateway is unavailable", "GATEWAY_UNAVAILABLE"));
+        }
+
+        PendingRequest pending = new PendingRequest(request, new CompletableFuture<>());
+        queue.add(pending);
+
+        try {
+            if (queue.size() >= maxBatchSize) {
+                batcher.execute(this::flush);
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                batcher.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // Closed since the check above; the request is failed below
+            flushScheduled.set(false);
+        }
+        // close() may have drained the queue before this request was added
+        if (closed && queue.remove(pending)) {
+            pending.future().completeExceptionally(shutDown());
+        }
+        return pending.future();
+    }
+
+    /**
+     * Drain the queue into batches and send them, respecting the in-flight limit
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        List<PendingRequest> batch = new ArrayList<>(maxBatchSize);
+        while (queue.drainTo(batch, maxBatchSize) > 0) {
+            try {
+                inFlightBatches.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(batch, new PaymentException("Payment gateway client is shutting down", "GATEWAY_UNAVAILABLE"));
+                return;
+            }
+            send(batch);
+            batch = new ArrayList<>(maxBatchSize);
+        }
+    }
+
+    /**
+     * Send one batch to the gateway and complete its callers' futures
+     */
+    private void send(List<PendingRequest> batch) {
+        List<PaymentGateway.Request> requests = new ArrayList<>(batch.size());
+        for (PendingRequest pending : batch) {
+            requests.add(pending.request());
+        }
+
+        CompletableFuture<List<PaymentGateway.Result>> call;
+        try {
+            call = gateway.submitBatch(requests);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+
+        call.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((results, error) -> {
+            inFlightBatches.release();
+            if (error != null || results == null || results.size() != batch.size()) {
+                circuitBreaker.recordFailure();
+                logger.warning("Payment gateway batch of " + batch.size() + " failed: "
+                               + (error != null ? error : "unexpected result count"));
+                fail(batch, new PaymentException("Payment gateway call failed", "GATEWAY_ERROR", error));
+                return;
+            }
+            circuitBreaker.recordSuccess();
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(results.get(i));
+            }
+        });
+    }
+
+    private static PaymentException shutDown() {
+        return new PaymentException("Payment gateway client is shut down", "GATEWAY_UNAVAILABLE");
+    }
+
+    private static void fail(List<PendingRequest> batch, Throwable error) {
+        for (PendingRequest pending : batch) {
+            pending.future().completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Get the state of the gateway circuit breaker
+     *
+     * @return The circuit state
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * Get the number of requests waiting to be batched
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        batcher.shutdown();
+        List<PendingRequest> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        fail(remaining, shutDown());
+    }
+}
@@ -0,0 +1,335 @@
+package com.pharmacy.service.impl;
+
+import com.pharmacy.util.codec.BinaryReader;
+import com.pharmacy.util.codec.BinaryWriter;
+import com.pharmacy.util.codec.Codec;
+import com.pharmacy.util.wal.DurableStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Append-only, thread-safe ledger of payment and refund entries.
+ * Entries are stored as compact records (amounts in cents, enum status, epoch timestamps)
+ * and indexed both by entry ID and by order ID.
+ * A ledger created with a journal writes every entry to it durably and is rebuilt from it
+ * on startup.
+ */
+public class PaymentLedger {
+
+    // Enum for ledger entry type
+    public enum EntryType {
+        PAYMENT,
+        REFUND
+    }
+
+    // Enum for ledger entry status
+    public enum EntryStatus {
+        PENDING,
+        COMPLETED,
+        FAILED
+    }
+
+    /**
+     * A single immutable ledger entry
+     */
+    public record Entry(String entryId, String orderId, EntryType type, EntryStatus status,
+                        long amountCents, long timestamp) {
+
+        public double getAmount() {
+            return toAmount(amountCents);
+        }
+    }
+
+    /**
+     * Immutable per-order view of the ledger with running totals.
+     * A new instance is published for every append, so readers never see a half-applied update.
+     */
+    public record OrderAccount(String orderId, long paidCents, long refundedCents, Entry[] entries) {
+
+        public long getRefundableCents() {
+            return paidCents - refundedCents;
+        }
+
+        public List<Entry> getEntries() {
+            return Collections.unmodifiableList(Arrays.asList(entries));
+        }
+
+        private OrderAccount append(Entry entry) {
+            Entry[] appended = Arrays.copyOf(entries, entries.length + 1);
+            appended[entries.length] = entry;
+            long paid = paidCents;
+            long refunded = refundedCents;
+            if (entry.status() == EntryStatus.COMPLETED) {
+                if (entry.type() == EntryType.PAYMENT) {
+                    paid += entry.amountCents();
+                } else {
+                    refunded += entry.amountCents();
+                }
+            }
+            return new OrderAccount(orderId, paid, refunded, appended);
+        }
+
+        private OrderAccount remove(Entry entry) {
+            int index = Arrays.asList(entries).indexOf(entry);
+            if (index < 0) {
+                return this;
+            }
+            Entry[] remaining = new Entry[entries.length - 1];
+            System.arraycopy(entries, 0, remaining, 0, index);
+            System.arraycopy(entries, index + 1, remaining, index, remaining.length - index);
+            long paid = paidCents;
+            long refunded = refundedCents;
+            if (entry.status() == EntryStatus.COMPLETED) {
+                if (entry.type() == EntryType.PAYMENT) {
+                    paid -= entry.amountCents();
+                } else {
+                    refunded -= entry.amountCents();
+                }
+            }
+            return new OrderAccount(orderId, paid, refunded, remaining);
+        }
+    }
+
+    /**
+     * Binary codec for ledger entries, for use with a journal
+     */
+    public static final Codec<Entry> ENTRY_CODEC = new EntryCodec();
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    // Primary index by entry ID and secondary index by order ID
+    private final ConcurrentMap<String, Entry> entriesById = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OrderAccount> accountsByOrder = new ConcurrentHashMap<>();
+
+    // Durable copy of every entry, or null for an in-memory ledger
+    private final DurableStore<Entry> journal;
+
+    /**
+     * Create an in-memory ledger
+     */
+    public PaymentLedger() {
+        this.journal = null;
+    }
+
+    /**
+     * Create a ledger that persists its entries to a journal, restoring any entries
+     * the journal already holds
+     *
+     * @param journal The durable store of entries, keyed by entry ID
+     */
+    public PaymentLedger(DurableStore<Entry> journal) {
+        this.journal = journal;
+        List<Entry> recovered = new ArrayList<>(journal.values());
+        recovered.sort(Comparator.comparingLong(Entry::timestamp).thenComparing(Entry::entryId));
+        for (Entry entry : recovered) {
+            // Recovered refunds were already checked against the balance when first recorded
+            index(entry, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Append a payment entry for an order
+     *
+     * @param entryId The payment ID
+     * @param orderId The order ID
+     * @param amountCents The captured amount in cents
+     * @return The appended entry
+     */
+    public Entry recordPayment(String entryId, String orderId, long amountCents) {
+        Entry entry = new Entry(entryId, orderId, EntryType.PAYMENT, EntryStatus.COMPLETED,
+                                amountCents, System.currentTimeMillis());
+        append(entry, Long.MAX_VALUE);
+        return entry;
+    }
+
+    /**
+     * Append a refund entry for an order.
+     * The refund is only appended if it does not exceed the refundable balance,
+     * and the check and the append happen atomically for the order.
+     *
+     * @param entryId The refund ID
+     * @param orderId The order ID
+     * @param amountCents The refund amount in cents
+     * @param fallbackCapturedCents Amount treated as captured if the ledger has no payment for the order
+     * @return The appended entry, or null if the refund exceeds the refundable balance
+     */
+    public Entry recordRefund(String entryId, String orderId, long amountCents, long fallbackCapturedCents) {
+        Entry entry = new Entry(entryId, orderId, EntryType.REFUND, EntryStatus.COMPLETED,
+                                amountCents, System.currentTimeMillis());
+        return append(entry, fallbackCapturedCents) ? entry : null;
+    }
+
+    /**
+     * Append an entry and write it to the journal, if any.
+     * The entry is only written once the balance check accepted it, and is taken back out
+     * of the ledger if the journal fails, so a failed append never counts toward a balance.
+     *
+     * @throws UncheckedIOException if the journal cannot make the entry durable
+     */
+    private boolean append(Entry entry, long fallbackCapturedCents) {
+        if (!index(entry, fallbackCapturedCents)) {
+            return false;
+        }
+        if (journal != null) {
+            try {
+                journal.put(entry);
+            } catch (IOException e) {
+                unindex(entry);
+                throw new UncheckedIOException("Failed to journal ledger entry " + entry.entryId(), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Atomically append an entry to its order account and the ID index
+     */
+    private boolean index(Entry entry, long fallbackCapturedCents) {
+        if (entriesById.putIfAbsent(entry.entryId(), entry) != null) {
+            throw new IllegalStateException("Duplicate ledger entry ID: " + entry.entryId());
+        }
+
+        boolean[] appended = new boolean[1];
+        accountsByOrder.compute(entry.orderId(), (orderId, account) -> {
+            if (account == null) {
+                account = new OrderAccount(orderId, 0, 0, NO_ENTRIES);
+            }
+            if (entry.type() == EntryType.REFUND) {
+                long captured = account.paidCents() > 0 ? account.paidCents() : fallbackCapturedCents;
+                if (account.refundedCents() + entry.amountCents() > captured) {
+                    return account.entries().length == 0 ? null : account;
+                }
+            }
+            appended[0] = true;
+            return account.append(entry);
+        });
+
+        if (!appended[0]) {
+            entriesById.remove(entry.entryId(), entry);
+        }
+        return appended[0];
+    }
+
+    /**
+     * Take an entry back out of its order account and the ID index
+     */
+    private void unindex(Entry entry) {
+        accountsByOrder.computeIfPresent(entry.orderId(), (orderId, account) -> {
+            OrderAccount remaining = account.remove(entry);
+            return remaining.entries().length == 0 ? null : remaining;
+        });
+        entriesById.remove(entry.entryId(), entry);
+    }
+
+    /**
+     * Get a ledger entry by its ID
+     *
+     * @param entryId The entry ID
+     * @return The entry, or null if not found
+     */
+    public Entry getEntry(String entryId) {
+        return entryId == null ? null : entriesById.get(entryId);
+    }
+
+    /**
+     * Get the account for an order
+     *
+     * @param orderId The order ID
+     * @return The order account, or null if the order has no entries
+     */
+    public OrderAccount getAccount(String orderId) {
+        return orderId == null ? null : accountsByOrder.get(orderId);
+    }
+
+    /**
+     * Get all entries recorded for an order, in append order
+     *
+     * @param orderId The order ID
+     * @return List of entries for the order
+     */
+    public List<Entry> getEntriesForOrder(String orderId) {
+        OrderAccount account = getAccount(orderId);
+        return account == null ? new ArrayList<>() : account.getEntries();
+    }
+
+    /**
+     * Visit every order account in the ledger without copying
+     *
+     * @param visitor The consumer to call for each account
+     */
+    public void forEachAccount(Consumer<OrderAccount> visitor) {
+        accountsByOrder.values().forEach(visitor);
+    }
+
+    /**
+     * Get the total number of entries in the ledger
+     *
+     * @return The entry count
+     */
+    public int size() {
+        return entriesById.size();
+    }
+
+    /**
+     * Convert an amount to cents
+     *
+     * @param amount The amount in currency units
+     * @return The amount in cents
+     */
+    public static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    /**
+     * Convert cents to an amount
+     *
+     * @param cents The amount in cents
+     * @return The amount in currency units
+     */
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * Binary codec for {@link Entry}
+     */
+    private static final class EntryCodec implements Codec<Entry> {
+
+        @Override
+        public String getName() {
+            return "ledger-entry";
+        }
+
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+
+        @Override
+        public void write(BinaryWriter out, Entry entry) throws IOException {
+            out.writeUniqueString(entry.entryId());
+            out.writeString(entry.orderId());
+            out.writeEnum(entry.type());
+            out.writeEnum(entry.status());
+            out.writeSignedVarLong(entry.amountCents());
+            out.writeVarLong(entry.timestamp());
+        }
+
+        @Override
+        public Entry read(BinaryReader in, int version) throws IOException {
+            if (version < 1 || version > getVersion()) {
+                throw new IOException("Unsupported ledger entry schema version " + version);
+            }
+            return new Entry(in.readString(), in.readString(), in.readEnum(EntryType.values()),
+                             in.readEnum(EntryStatus.values()), in.readSignedVarLong(), in.readVarLong());
+        }
+    }
+}
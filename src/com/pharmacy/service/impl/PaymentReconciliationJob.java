@@ -0,0 +1,393 @@
+package com.pharmacy.service.impl;
+
+import com.pharmacy.model.Order;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+/**
+ * End-of-day reconciliation of the payment ledger against orders.
+ *
+ * Work is partitioned by order ID hash and partitions run in parallel on a fork-join pool.
+ * The ledger and the orders are split into partitions in a single pass, each partition
+ * indexes only its own slice of the orders, and mismatches are streamed to a per-partition
+ * report file.
+ * A partition writes a completion marker when it finishes, recording the run ID and the
+ * partition count. Re-running the job with the same checkpoint directory and run ID skips
+ * completed partitions and resumes with the rest; markers from another run or another
+ * partition count are ignored and their partitions reconciled again.
+ */
+public class PaymentReconciliationJob {
+
+    private static final Logger logger = Logger.getLogger(PaymentReconciliationJob.class.getName());
+
+    // Maximum mismatches kept in memory per partition as samples for the summary
+    private static final int SAMPLES_PER_PARTITION = 10;
+
+    // Enum for mismatch type
+    public enum MismatchType {
+        PAID_WITHOUT_PAYMENT,
+        PAYMENT_NOT_MARKED_PAID,
+        REFUNDED_BUT_MARKED_PAID,
+        REFUND_WITHOUT_PAYMENT,
+        REFUND_EXCEEDS_PAYMENT,
+        AMOUNT_MISMATCH,
+        UNKNOWN_ORDER
+    }
+
+    /**
+     * A single reconciliation mismatch
+     */
+    public record Mismatch(String orderId, MismatchType type, long paidCents, long refundedCents,
+                           long orderTotalCents, boolean orderPaid) {
+
+        private String toCsv() {
+            return orderId + "," + type + "," + paidCents + "," + refundedCents + ","
+                   + orderTotalCents + "," + orderPaid;
+        }
+    }
+
+    /**
+     * Summary of a reconciliation run
+     */
+    public static class ReconciliationReport {
+        private final Map<MismatchType, Long> mismatchCounts = new EnumMap<>(MismatchType.class);
+        private final List<Mismatch> samples = new ArrayList<>();
+        private long accountsChecked;
+        private int partitionsRun;
+        private int partitionsSkipped;
+
+        private void merge(PartitionResult result) {
+            accountsChecked += result.accountsChecked;
+            for (Map.Entry<MismatchType, Long> entry : result.counts.entrySet()) {
+                mismatchCounts.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+            samples.addAll(result.samples);
+        }
+
+        public long getMismatchCount(MismatchType type) {
+            return mismatchCounts.getOrDefault(type, 0L);
+        }
+
+        public long getTotalMismatches() {
+            long total = 0;
+            for (long count : mismatchCounts.values()) {
+                total += count;
+            }
+            return total;
+        }
+
+        public List<Mismatch> getSamples() {
+            return samples;
+        }
+
+        public long getAccountsChecked() {
+            return accountsChecked;
+        }
+
+        public int getPartitionsRun() {
+            return partitionsRun;
+        }
+
+        public int getPartitionsSkipped() {
+            return partitionsSkipped;
+        }
+
+        @Override
+        public String toString() {
+            return "ReconciliationReport{accountsChecked=" + accountsChecked +
+                   ", mismatches=" + mismatchCounts +
+                   ", partitionsRun=" + partitionsRun +
+                   ", partitionsSkipped=" + partitionsSkipped + '}';
+        }
+    }
+
+    /**
+     * Result of one partition
+     */
+    private static class PartitionResult {
+        private final Map<MismatchType, Long> counts = new EnumMap<>(MismatchType.class);
+        private final List<Mismatch> samples = new ArrayList<>();
+        private long accountsChecked;
+    }
+
+    private final PaymentLedger ledger;
+    private final int partitions;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a reconciliation job using the common fork-join pool
+     *
+     * @param ledger The ledger to reconcile
+     * @param partitions The number of order ID hash partitions
+     */
+    public PaymentReconciliationJob(PaymentLedger ledger, int partitions) {
+        this(ledger, partitions, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a reconciliation job
+     *
+     * @param ledger The ledger to reconcile
+     * @param partitions The number of order ID hash partitions
+     * @param pool The fork-join pool to run partitions on
+     */
+    public PaymentReconciliationJob(PaymentLedger ledger, int partitions, ForkJoinPool pool) {
+        if (ledger == null || pool == null) {
+            throw new IllegalArgumentException("Ledger and pool cannot be null");
+        }
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Partition count must be positive");
+        }
+        this.ledger = ledger;
+        this.partitions = partitions;
+        this.pool = pool;
+    }
+
+    /**
+     * Reconcile the ledger against a set of orders, identifying the run by today's date and
+     * the size of its inputs, so a resumed run picks up its own checkpoints but the next
+     * day's run, or a run over a different ledger, starts over
+     *
+     * @param orders The orders to reconcile against
+     * @param checkpointDirectory Directory for per-partition reports and completion markers
+     * @return The reconciliation summary
+     * @throws IOException if the checkpoint directory cannot be written
+     */
+    public ReconciliationReport run(Collection<Order> orders, Path checkpointDirectory) throws IOException {
+        String runId = LocalDate.now() + "-" + ledger.size() + "-" + orders.size();
+        return run(orders, checkpointDirectory, runId);
+    }
+
+    /**
+     * Reconcile the ledger against a set of orders
+     *
+     * @param orders The orders to reconcile against
+     * @param checkpointDirectory Directory for per-partition reports and completion markers
+     * @param runId Identifies the run; only completion markers written under the same ID
+     *              and partition count are reused
+     * @return The reconciliation summary
+     * @throws IOException if the checkpoint directory cannot be written
+     */
+    public ReconciliationReport run(Collection<Order> orders, Path checkpointDirectory, String runId) throws IOException {
+        if (runId == null || runId.isEmpty() || runId.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Run ID must be a non-empty single line");
+        }
+        Files.createDirectories(checkpointDirectory);
+
+        // Load the checkpoints of this run; only the other partitions need their input
+        PartitionResult[] completed = new PartitionResult[partitions];
+        for (int p = 0; p < partitions; p++) {
+            completed[p] = loadCompleted(doneMarker(checkpointDirectory, p), runId);
+        }
+
+        // Split the ledger and the orders into partitions in one pass each
+        List<List<PaymentLedger.OrderAccount>> accountSlices = new ArrayList<>(partitions);
+        List<Map<String, Order>> orderSlices = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            accountSlices.add(completed[p] == null ? new ArrayList<>() : null);
+            orderSlices.add(completed[p] == null ? new HashMap<>() : null);
+        }
+        ledger.forEachAccount(account -> {
+            List<PaymentLedger.OrderAccount> slice = accountSlices.get(partitionOf(account.orderId()));
+            if (slice != null) {
+                slice.add(account);
+            }
+        });
+        for (Order order : orders) {
+            Map<String, Order> slice = orderSlices.get(partitionOf(order.getOrderId()));
+            if (slice != null) {
+                slice.put(order.getOrderId(), order);
+            }
+        }
+
+        List<RecursiveTask<PartitionResult>> tasks = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            if (completed[p] != null) {
+                continue;
+            }
+            final int partition = p;
+            List<PaymentLedger.OrderAccount> accounts = accountSlices.get(p);
+            Map<String, Order> partitionOrders = orderSlices.get(p);
+            tasks.add(new RecursiveTask<>() {
+                @Override
+                protected PartitionResult compute() {
+                    try {
+                        return reconcilePartition(partition, accounts, partitionOrders, checkpointDirectory, runId);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+
+        ReconciliationReport report = new ReconciliationReport();
+        for (PartitionResult result : completed) {
+            if (result != null) {
+                report.partitionsSkipped++;
+                report.merge(result);
+            }
+        }
+        try {
+            for (RecursiveTask<PartitionResult> task : tasks) {
+                pool.execute(task);
+            }
+            for (RecursiveTask<PartitionResult> task : tasks) {
+                report.partitionsRun++;
+                report.merge(task.join());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        logger.info("Payment reconciliation finished: " + report);
+        return report;
+    }
+
+    /**
+     * Reconcile one partition's slice of the ledger against its slice of the orders
+     *
+     * @param partitionOrders The partition's orders by ID; matched orders are removed
+     */
+    private PartitionResult reconcilePartition(int partition, List<PaymentLedger.OrderAccount> accounts,
+                                               Map<String, Order> partitionOrders, Path directory,
+                                               String runId) throws IOException {
+        PartitionResult result = new PartitionResult();
+        Path reportFile = directory.resolve("partition-" + partition + ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+            writer.write("orderId,type,paidCents,refundedCents,orderTotalCents,orderPaid\n");
+
+            for (PaymentLedger.OrderAccount account : accounts) {
+                result.accountsChecked++;
+                checkAccount(account, partitionOrders.remove(account.orderId()), result, writer);
+            }
+
+            // Orders left over have no ledger entries at all
+            for (Order order : partitionOrders.values()) {
+                if (order.isPaid()) {
+                    report(new Mismatch(order.getOrderId(), MismatchType.PAID_WITHOUT_PAYMENT, 0, 0,
+                                        PaymentLedger.toCents(order.getTotalAmount()), true), result, writer);
+                }
+            }
+        }
+
+        writeCompleted(doneMarker(directory, partition), runId, result);
+        return result;
+    }
+
+    /**
+     * Compare one ledger account with its order
+     */
+    private void checkAccount(PaymentLedger.OrderAccount account, Order order,
+                              PartitionResult result, BufferedWriter writer) throws IOException {
+        long paid = account.paidCents();
+        long refunded = account.refundedCents();
+
+        if (order == null) {
+            report(new Mismatch(account.orderId(), MismatchType.UNKNOWN_ORDER, paid, refunded, 0, false), result, writer);
+            return;
+        }
+
+        long total = PaymentLedger.toCents(order.getTotalAmount());
+        boolean orderPaid = order.isPaid();
+        MismatchType type = null;
+
+        if (paid == 0 && refunded > 0) {
+            type = MismatchType.REFUND_WITHOUT_PAYMENT;
+        } else if (paid == 0 && orderPaid) {
+            type = MismatchType.PAID_WITHOUT_PAYMENT;
+        } else if (paid > 0 && refunded > paid) {
+            type = MismatchType.REFUND_EXCEEDS_PAYMENT;
+        } else if (paid > refunded && !orderPaid) {
+            type = MismatchType.PAYMENT_NOT_MARKED_PAID;
+        } else if (paid > 0 && paid <= refunded && orderPaid) {
+            type = MismatchType.REFUNDED_BUT_MARKED_PAID;
+        } else if (paid > 0 && paid != total) {
+            type = MismatchType.AMOUNT_MISMATCH;
+        }
+
+        if (type != null) {
+            report(new Mismatch(account.orderId(), type, paid, refunded, total, orderPaid), result, writer);
+        }
+    }
+
+    private static void report(Mismatch mismatch, PartitionResult result, BufferedWriter writer) throws IOException {
+        result.counts.merge(mismatch.type(), 1L, Long::sum);
+        if (result.samples.size() < SAMPLES_PER_PARTITION) {
+            result.samples.add(mismatch);
+        }
+        writer.write(mismatch.toCsv());
+        writer.write('\n');
+    }
+
+    /**
+     * Write the completion marker atomically so a crash never leaves a partial checkpoint
+     */
+    private void writeCompleted(Path doneMarker, String runId, PartitionResult result) throws IOException {
+        StringBuilder content = new StringBuilder();
+        content.append("runId=").append(runId).append('\n');
+        content.append("partitions=").append(partitions).append('\n');
+        content.append("accountsChecked=").append(result.accountsChecked).append('\n');
+        for (Map.Entry<MismatchType, Long> entry : result.counts.entrySet()) {
+            content.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        Path temp = doneMarker.resolveSibling(doneMarker.getFileName() + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, doneMarker, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a partition's completion marker
+     *
+     * @return The partition's counts, or null if it has no marker or the marker was written
+     *         by another run or with another partition count
+     */
+    private PartitionResult loadCompleted(Path doneMarker, String runId) throws IOException {
+        if (!Files.exists(doneMarker)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(doneMarker, StandardCharsets.UTF_8);
+        if (lines.size() < 2 || !lines.get(0).equals("runId=" + runId)
+            || !lines.get(1).equals("partitions=" + partitions)) {
+            logger.info("Ignoring checkpoint from another run: " + doneMarker);
+            return null;
+        }
+        PartitionResult result = new PartitionResult();
+        for (String line : lines.subList(2, lines.size())) {
+            int separator = line.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String key = line.substring(0, separator);
+            long value = Long.parseLong(line.substring(separator + 1));
+            if ("accountsChecked".equals(key)) {
+                result.accountsChecked = value;
+            } else {
+                result.counts.put(MismatchType.valueOf(key), value);
+            }
+        }
+        return result;
+    }
+
+    private static Path doneMarker(Path directory, int partition) {
+        return directory.resolve("partition-" + partition + ".done");
+    }
+
+    private int partitionOf(String orderId) {
+        return Math.floorMod(orderId.hashCode(), partitions);
+    }
+}
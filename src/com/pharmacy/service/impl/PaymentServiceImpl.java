@@ -2,57 +2,132 @@ package com.pharmacy.service.impl;
 
 import com.pharmacy.model.Order;
 import com.pharmacy.service.Payment;
+import com.pharmacy.service.PaymentGateway;
 import com.pharmacy.exception.PaymentException;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import com.pharmacy.util.AuthCodeStore;
+import com.pharmacy.util.IdGenerator;
+import com.pharmacy.util.IdempotencyStore;
+import com.pharmacy.util.ReceiptRenderer;
+import com.pharmacy.util.wal.DurableStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
 /**
- * Implementation of Payment interface for processing payments
+ * Implementation of Payment interface for processing payments.
+ *
+ * The service owns a timer thread that expires auth codes; close it when it is no longer
+ * needed. The gateway client, ledger and order store are not closed with it.
  */
-public class PaymentServiceImpl implements Payment, Payment.PaymentAuth {
+public class PaymentServiceImpl implements Payment, Payment.PaymentAuth, AutoCloseable {
     
     private static final Logger logger = Logger.getLogger(PaymentServiceImpl.class.getName());
     
-    // Maps to store payment and authentication data (simulated database)
-    private Map<String, Object> payments = new HashMap<>();
-    private Map<String, String> authCodes = new HashMap<>();
+    // Ledger of payments and refunds
+    private final PaymentLedger ledger;
+    
+    // Durable store of orders whose payment status changed, or null to keep orders in memory only
+    private final DurableStore<Order> orders;
+    
+    // Pending auth codes: valid for 5 minutes, 5 attempts each, at most 100,000 outstanding
+    private final AuthCodeStore authCodes = new AuthCodeStore(5L * 60 * 1000, 5, 100_000);
+    
+    // Deduplication window for idempotent payments (24 hours, up to 100,000 keys)
+    private final IdempotencyStore<Boolean> idempotentPayments =
+        new IdempotencyStore<>(24L * 60 * 60 * 1000, 100_000);
+    
+    // Optional asynchronous payment gateway; when null, payments are approved locally
+    private final PaymentGatewayClient gatewayClient;
+    
+    /**
+     * Create a payment service that approves payments locally
+     */
+    public PaymentServiceImpl() {
+        this(null);
+    }
+    
+    /**
+     * Create a payment service that settles payments through a gateway
+     * 
+     * @param gatewayClient The gateway client to settle payments with
+     */
+    public PaymentServiceImpl(PaymentGatewayClient gatewayClient) {
+        this(gatewayClient, new PaymentLedger(), null);
+    }
+    
+    /**
+     * Create a payment service whose ledger and order payment status survive restarts
+     * 
+     * @param gatewayClient The gateway client to settle payments with, or null to approve locally
+     * @param ledger The ledger to record payments and refunds in, usually backed by a journal
+     * @param orders The durable order store to save orders to when their payment status changes,
+     *               or null
+     */
+    public PaymentServiceImpl(PaymentGatewayClient gatewayClient, PaymentLedger ledger, DurableStore<Order> orders) {
+        this.gatewayClient = gatewayClient;
+        this.ledger = ledger;
+        this.orders = orders;
+    }
     
     @Override
     public boolean processPayment(Order order, String... paymentDetails) throws PaymentException {
-        if (order == null) {
-            throw new PaymentException("Order cannot be null");
+        validatePayment(order, paymentDetails);
+        
+        if (gatewayClient != null) {
+            return awaitGateway(chargeViaGateway(order));
         }
         
-        if (order.getTotalAmount() <= 0) {
-            throw new PaymentException("Order amount must be greater than zero", "INVALID_AMOUNT");
+        try {
+            return completePayment(order, generatePaymentId(), PaymentLedger.toCents(order.getTotalAmount()));
+        } catch (Exception e) {
+            logger.severe("Error processing payment: " + e.getMessage());
+            throw new PaymentException("Failed to process payment: " + e.getMessage(), 
+                                     "PAYMENT_PROCESSING_ERROR", e);
+        }
+    }
+    
+    /**
+     * Process a payment for an order without blocking the caller
+     * 
+     * @param order The order to process payment for
+     * @param paymentDetails Payment details (card number, expiry, etc.)
+     * @return Future completed with true if the payment was approved, false if it was declined,
+     *         or exceptionally with a PaymentException
+     */
+    public CompletableFuture<Boolean> processPaymentAsync(Order order, String... paymentDetails) {
+        try {
+            if (gatewayClient == null) {
+                return CompletableFuture.completedFuture(processPayment(order, paymentDetails));
+            }
+            validatePayment(order, paymentDetails);
+        } catch (PaymentException e) {
+            return CompletableFuture.failedFuture(e);
         }
         
-        if (paymentDetails.length < 2) {
-            throw new PaymentException("Insufficient payment details provided", "INSUFFICIENT_DETAILS");
+        return chargeViaGateway(order);
+    }
+    
+    @Override
+    public boolean processPayment(String idempotencyKey, Order order, String... paymentDetails) throws PaymentException {
+        if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+            throw new PaymentException("Idempotency key cannot be null or empty", "INVALID_IDEMPOTENCY_KEY");
+        }
+        
+        if (order == null) {
+            throw new PaymentException("Order cannot be null");
         }
         
         try {
-            // In a real implementation, this would connect to a payment gateway
-            String paymentId = generatePaymentId();
-            
-            // Store payment information
-            Map<String, Object> paymentInfo = new HashMap<>();
-            paymentInfo.put("orderId", order.getOrderId());
-            paymentInfo.put("amount", order.getTotalAmount());
-            paymentInfo.put("paymentDate", new Date());
-            paymentInfo.put("status", "COMPLETED");
-            
-            payments.put(paymentId, paymentInfo);
-            
-            // Update order payment status
-            order.setPaid(true);
-            
-            logger.info("Payment processed successfully for order: " + order.getOrderId());
-            return true;
+            return idempotentPayments.execute(idempotencyKey, order.getOrderId(),
+                                              () -> processPayment(order, paymentDetails));
+        } catch (IllegalStateException e) {
+            throw new PaymentException(e.getMessage(), "IDEMPOTENCY_KEY_REUSED", e);
+        } catch (PaymentException e) {
+            throw e;
         } catch (Exception e) {
-            logger.severe("Error processing payment: " + e.getMessage());
             throw new PaymentException("Failed to process payment: " + e.getMessage(), 
                                      "PAYMENT_PROCESSING_ERROR", e);
         }
@@ -74,24 +149,26 @@ public class PaymentServiceImpl implements Payment, Payment.PaymentAuth {
         
         try {
             // In a real implementation, this would connect to a payment gateway
-            String refundId = "REF" + System.currentTimeMillis();
+            String refundId = IdGenerator.getInstance().nextId("REF");
             
-            // Store refund information
-            Map<String, Object> refundInfo = new HashMap<>();
-            refundInfo.put("orderId", order.getOrderId());
-            refundInfo.put("refundAmount", amount);
-            refundInfo.put("refundDate", new Date());
-            refundInfo.put("status", "COMPLETED");
-            
-            payments.put(refundId, refundInfo);
+            // Record the refund; the ledger rejects refunds beyond the captured amount
+            long totalCents = PaymentLedger.toCents(order.getTotalAmount());
+            if (ledger.recordRefund(refundId, order.getOrderId(), PaymentLedger.toCents(amount), totalCents) == null) {
+                throw new PaymentException("Refund exceeds the refundable balance", "INVALID_AMOUNT");
+            }
             
-            // If full refund, update order payment status
-            if (amount >= order.getTotalAmount()) {
+            // If fully refunded, update order payment status
+            PaymentLedger.OrderAccount account = ledger.getAccount(order.getOrderId());
+            long capturedCents = account.paidCents() > 0 ? account.paidCents() : totalCents;
+            if (account.refundedCents() >= capturedCents) {
                 order.setPaid(false);
+                saveOrder(order);
             }
             
             logger.info("Refund processed successfully for order: " + order.getOrderId());
             return true;
+        } catch (PaymentException e) {
+            throw e;
         } catch (Exception e) {
             logger.severe("Error processing refund: " + e.getMessage());
             throw new PaymentException("Failed to process refund: " + e.getMessage(), 
@@ -119,17 +196,19 @@ public class PaymentServiceImpl implements Payment, Payment.PaymentAuth {
             return "Order is not paid";
         }
         
-        StringBuilder receipt = new StringBuilder();
-        receipt.append("=== PAYMENT RECEIPT ===\n");
-        receipt.append("Order ID: ").append(order.getOrderId()).append("\n");
-        receipt.append("Date: ").append(new Date()).append("\n");
-        receipt.append("Amount: $").append(String.format("%.2f", order.getTotalAmount())).append("\n");
-        receipt.append("Payment Method: ").append(order.getPaymentMethod()).append("\n");
-        receipt.append("Customer ID: ").append(order.getCustomerId()).append("\n");
-        receipt.append("Status: PAID\n");
-        receipt.append("=====================");
-        
-        return receipt.toString();
+        return ReceiptRenderer.getDefault().render(order);
+    }
+    
+    /**
+     * Stream payment receipts for many orders to an output, skipping unpaid orders
+     * 
+     * @param orders The orders to render receipts for
+     * @param out The output to write to (e.g. a Writer over a file or channel)
+     * @return The number of receipts written
+     * @throws IOException if writing fails
+     */
+    public long renderReceipts(Iterable<Order> orders, Appendable out) throws IOException {
+        return ReceiptRenderer.getDefault().renderReceipts(orders, out);
     }
     
     @Override
@@ -138,15 +217,9 @@ public class PaymentServiceImpl implements Payment, Payment.PaymentAuth {
             return false;
         }
         
-        // Check if the auth code matches what was sent
-        String savedAuthCode = authCodes.get(transactionId);
-        if (savedAuthCode != null && savedAuthCode.equals(authCode)) {
-            // Remove the auth code after successful authentication
-            authCodes.remove(transactionId);
-            return true;
-        }
-        
-        return false;
+        // Check if the auth code matches what was sent; the store discards it after
+        // successful authentication, expiry or too many failed attempts
+        return authCodes.verify(transactionId, authCode);
     }
     
     @Override
@@ -155,34 +228,123 @@ public class PaymentServiceImpl implements Payment, Payment.PaymentAuth {
             return null;
         }
         
-        // Generate a transaction ID and auth code
-        String transactionId = "TXN" + System.currentTimeMillis();
-        String authCode = generateAuthCode();
+        // Generate a transaction ID and store a new auth code for later verification
+        String transactionId = IdGenerator.getInstance().nextId("TXN");
+        String authCode = authCodes.issue(transactionId);
+        if (authCode == null) {
+            logger.warning("Too many pending auth codes, not sending code to customer " + customerId);
+            return null;
+        }
         
         // In a real implementation, this would send the auth code via SMS or email
         logger.info("Sending auth code " + authCode + " to customer " + customerId + " via " + contactMethod);
         
-        // Store the auth code for later verification
-        authCodes.put(transactionId, authCode);
-        
         return transactionId;
     }
     
     /**
-     * Generate a unique payment ID
+     * Validate an order and payment details before charging
+     */
+    private void validatePayment(Order order, String... paymentDetails) throws PaymentException {
+        if (order == null) {
+            throw new PaymentException("Order cannot be null");
+        }
+        
+        if (order.getTotalAmount() <= 0) {
+            throw new PaymentException("Order amount must be greater than zero", "INVALID_AMOUNT");
+        }
+        
+        if (paymentDetails.length < 2) {
+            throw new PaymentException("Insufficient payment details provided", "INSUFFICIENT_DETAILS");
+        }
+    }
+    
+    /**
+     * Send a charge for an order to the gateway and record it once approved
+     */
+    private CompletableFuture<Boolean> chargeViaGateway(Order order) {
+        String paymentId = generatePaymentId();
+        long amountCents = PaymentLedger.toCents(order.getTotalAmount());
+        PaymentGateway.Request request = new PaymentGateway.Request(
+            paymentId, order.getOrderId(), amountCents, PaymentGateway.RequestType.CHARGE);
+        
+        return gatewayClient.submit(request).thenApply(result -> {
+            if (!result.approved()) {
+                logger.warning("Payment declined for order " + order.getOrderId() + ": " + result.declineReason());
+                return false;
+            }
+            return completePayment(order, paymentId, amountCents);
+        });
+    }
+    
+    /**
+     * Record an approved payment and mark the order as paid
+     */
+    private boolean completePayment(Order order, String paymentId, long amountCents) {
+        // Record the payment in the ledger
+        ledger.recordPayment(paymentId, order.getOrderId(), amountCents);
+        
+        // Update order payment status
+        order.setPaid(true);
+        saveOrder(order);
+        
+        logger.info("Payment processed successfully for order: " + order.getOrderId());
+        return true;
+    }
+    
+    /**
+     * Persist an order to the durable order store, if any
+     */
+    private void saveOrder(Order order) {
+        if (orders == null) {
+            return;
+        }
+        try {
+            orders.put(order);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to persist order " + order.getOrderId(), e);
+        }
+    }
+    
+    /**
+     * Wait for an asynchronous payment and unwrap its failure
+     */
+    private static boolean awaitGateway(CompletableFuture<Boolean> future) throws PaymentException {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof PaymentException) {
+                throw (PaymentException) cause;
+            }
+            throw new PaymentException("Failed to process payment: " + cause.getMessage(), 
+                                     "PAYMENT_PROCESSING_ERROR", cause);
+        }
+    }
+    
+    /**
+     * Get the payment ledger
      * 
-     * @return The generated payment ID
+     * @return The ledger of payments and refunds
      */
-    private String generatePaymentId() {
-        return "PAY" + System.currentTimeMillis();
+    public PaymentLedger getLedger() {
+        return ledger;
+    }
+    
+    /**
+     * Stop the auth code expiry timer and discard pending auth codes
+     */
+    @Override
+    public void close() {
+        authCodes.close();
     }
     
     /**
-     * Generate a random 6-digit authentication code
+     * Generate a unique payment ID
      * 
-     * @return The generated auth code
+     * @return The generated payment ID
      */
-    private String generateAuthCode() {
-        return String.format("%06d", (int)(Math.random() * 1000000));
+    private String generatePaymentId() {
+        return IdGenerator.getInstance().nextId("PAY");
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
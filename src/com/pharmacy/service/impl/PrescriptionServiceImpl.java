@@ -6,22 +6,26 @@ import com.pharmacy.service.PrescriptionService;
 import com.pharmacy.exception.PrescriptionException;
 import com.pharmacy.dao.PrescriptionDAO;
 import com.pharmacy.dao.MedicineDAO;
+import com.pharmacy.util.AsyncFileHandler;
+import com.pharmacy.util.wal.DurableStore;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
  * Implementation of PrescriptionService interface
  */
-public class PrescriptionServiceImpl implements PrescriptionService {
+public class PrescriptionServiceImpl implements PrescriptionService, AutoCloseable {
     
     private static final Logger logger = Logger.getLogger(PrescriptionServiceImpl.class.getName());
     
@@ -29,25 +33,84 @@ public class PrescriptionServiceImpl implements PrescriptionService {
     private PrescriptionDAO prescriptionDAO;
     private MedicineDAO medicineDAO;
     
-    // In-memory storage for prescriptions (simulated database)
-    private Map<String, Prescription> prescriptions = new HashMap<>();
+    // In-memory storage for prescriptions (simulated database); uploads complete on file I/O threads
+    private Map<String, Prescription> prescriptions = new ConcurrentHashMap<>();
+    
+    // Durable copy of the prescriptions, or null to keep them in memory only
+    private final DurableStore<Prescription> store;
+    
+    // Reads uploaded prescription images off the request thread, with bounded disk concurrency
+    private final AsyncFileHandler files = new AsyncFileHandler();
     
     public PrescriptionServiceImpl() {
+        this.store = null;
         // Initialize demo data
         initializeDemoData();
     }
     
+    /**
+     * Create a prescription service whose prescriptions survive restarts.
+     * Prescriptions are loaded from the store; an empty store is seeded with the demo data.
+     * 
+     * @param store The durable prescription store, keyed by prescription ID
+     * @throws PrescriptionException if the demo data cannot be persisted
+     */
+    public PrescriptionServiceImpl(DurableStore<Prescription> store) throws PrescriptionException {
+        this.store = store;
+        if (store.size() == 0) {
+            initializeDemoData();
+            for (Prescription prescription : prescriptions.values()) {
+                persist(prescription);
+            }
+        } else {
+            for (Prescription prescription : store.values()) {
+                prescriptions.put(prescription.getPrescriptionId(), prescription);
+            }
+        }
+    }
+    
     @Override
     public Prescription uploadPrescription(String customerId, File prescriptionFile) throws PrescriptionException {
+        try {
+            return uploadPrescriptionAsync(customerId, prescriptionFile).join();
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof PrescriptionException) {
+                throw (PrescriptionException) cause;
+            }
+            logger.severe("Error uploading prescription: " + cause.getMessage());
+            throw new PrescriptionException("Failed to process prescription file: " + cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * Upload a prescription image without blocking the caller.
+     * The image is read on the asynchronous file handler, which limits how many uploads
+     * use the disk at once.
+     * 
+     * @param customerId The ID of the customer uploading the prescription
+     * @param prescriptionFile The prescription image file
+     * @return Future completed with the uploaded prescription, or exceptionally with a
+     *         PrescriptionException, an IOException if the file cannot be read, or a
+     *         RejectedExecutionException if too many uploads are pending
+     */
+    public CompletableFuture<Prescription> uploadPrescriptionAsync(String customerId, File prescriptionFile) {
         if (customerId == null || customerId.isEmpty()) {
-            throw new PrescriptionException("Customer ID cannot be null or empty");
+            return CompletableFuture.failedFuture(new PrescriptionException("Customer ID cannot be null or empty"));
         }
         
         if (prescriptionFile == null || !prescriptionFile.exists()) {
-            throw new PrescriptionException("Prescription file is invalid or does not exist");
+            return CompletableFuture.failedFuture(
+                new PrescriptionException("Prescription file is invalid or does not exist"));
         }
         
-        try {
+        // In a real application, this would:
+        // 1. Upload the image to a storage service
+        // 2. Process the image with OCR to extract prescription details
+        // 3. Store the path to the uploaded image
+        
+        // Simulate file processing
+        return files.loadImage(prescriptionFile.toPath()).thenApply(image -> {
             // Create a new prescription
             Prescription prescription = new Prescription();
             prescription.setPrescriptionId(UUID.randomUUID().toString());
@@ -59,30 +122,20 @@ public class PrescriptionServiceImpl implements PrescriptionService {
             expiryDate.setTime(expiryDate.getTime() + 30L * 24 * 60 * 60 * 1000);
             prescription.setExpiryDate(expiryDate);
             
-            // In a real application, this would:
-            // 1. Upload the image to a storage service
-            // 2. Process the image with OCR to extract prescription details
-            // 3. Store the path to the uploaded image
-            
-            // Simulate file processing
-            FileInputStream fis = new FileInputStream(prescriptionFile);
-            byte[] fileBytes = new byte[(int) prescriptionFile.length()];
-            fis.read(fileBytes);
-            fis.close();
-            
             // Store the file path (in a real app, this would be a URL to the stored image)
             prescription.setPrescriptionImagePath(prescriptionFile.getAbsolutePath());
             
             // Add the prescription to our storage
+            try {
+                persist(prescription);
+            } catch (PrescriptionException e) {
+                throw new CompletionException(e);
+            }
             prescriptions.put(prescription.getPrescriptionId(), prescription);
             
             logger.info("Prescription uploaded successfully: " + prescription.getPrescriptionId());
             return prescription;
-            
-        } catch (IOException e) {
-            logger.severe("Error uploading prescription: " + e.getMessage());
-            throw new PrescriptionException("Failed to process prescription file: " + e.getMessage(), e);
-        }
+        });
     }
     
     @Override
@@ -96,9 +149,19 @@ public class PrescriptionServiceImpl implements PrescriptionService {
             throw new PrescriptionException("Prescription not found", prescriptionId);
         }
         
-        // Update verification status
+        // Update verification status, undoing it if it cannot be persisted so the
+        // prescription never reads as verified without a durable record of it
+        boolean wasVerified = prescription.isVerified();
+        String previousComments = prescription.getVerificationComments();
         prescription.setVerified(true);
         prescription.setVerificationComments(comments);
+        try {
+            persist(prescription);
+        } catch (PrescriptionException e) {
+            prescription.setVerified(wasVerified);
+            prescription.setVerificationComments(previousComments);
+            throw e;
+        }
         
         logger.info("Prescription verified: " + prescriptionId + " by user: " + verifiedByUserId);
         return prescription;
@@ -189,6 +252,12 @@ public class PrescriptionServiceImpl implements PrescriptionService {
             throw new PrescriptionException("Customer ID cannot be null or empty");
         }
         
+        // Fields filled in below, restored if the prescription cannot be persisted
+        String originalId = prescription.getPrescriptionId();
+        Date originalIssueDate = prescription.getIssueDate();
+        Date originalExpiryDate = prescription.getExpiryDate();
+        boolean originalVerified = prescription.isVerified();
+        
         // Generate a new ID if not provided
         if (prescription.getPrescriptionId() == null || prescription.getPrescriptionId().isEmpty()) {
             prescription.setPrescriptionId(UUID.randomUUID().toString());
@@ -210,6 +279,15 @@ public class PrescriptionServiceImpl implements PrescriptionService {
         prescription.setVerified(true);
         
         // Store the prescription
+        try {
+            persist(prescription);
+        } catch (PrescriptionException e) {
+            prescription.setPrescriptionId(originalId);
+            prescription.setIssueDate(originalIssueDate);
+            prescription.setExpiryDate(originalExpiryDate);
+            prescription.setVerified(originalVerified);
+            throw e;
+        }
         prescriptions.put(prescription.getPrescriptionId(), prescription);
         
         logger.info("Digital prescription created: " + prescription.getPrescriptionId());
@@ -227,12 +305,43 @@ public class PrescriptionServiceImpl implements PrescriptionService {
         }
         
         // Remove the prescription
+        if (store != null) {
+            try {
+                store.remove(prescriptionId);
+            } catch (IOException e) {
+                logger.severe("Error deleting prescription: " + e.getMessage());
+                throw new PrescriptionException("Failed to persist prescription deletion", prescriptionId, e);
+            }
+        }
         prescriptions.remove(prescriptionId);
         logger.info("Prescription deleted: " + prescriptionId);
         
         return true;
     }
     
+    /**
+     * Stop the file handler; uploads already reading their image finish in the background
+     */
+    @Override
+    public void close() {
+        files.close();
+    }
+    
+    /**
+     * Save a prescription to the durable store, if any, before it is published
+     */
+    private void persist(Prescription prescription) throws PrescriptionException {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.put(prescription);
+        } catch (IOException e) {
+            logger.severe("Error persisting prescription: " + e.getMessage());
+            throw new PrescriptionException("Failed to persist prescription", prescription.getPrescriptionId(), e);
+        }
+    }
+    
     /**
      * Initialize demo data for testing
      */
@@ -0,0 +1,117 @@
+package com.pharmacy.service.impl;
+
+import com.pharmacy.service.PaymentGateway;
+import com.pharmacy.util.IdGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process payment gateway simulator for local development and load testing.
+ * Each batch call completes after a random latency and may fail or decline
+ * individual requests at configurable rates.
+ */
+public class SimulatedPaymentGateway implements PaymentGateway, AutoCloseable {
+    
+    private final long minLatencyMillis;
+    private final long maxLatencyMillis;
+    private final double failureRate;
+    private final double declineRate;
+    
+    // Timer used to complete calls after the simulated latency
+    private final ScheduledExecutorService timer;
+    
+    // Counters for load-test reporting
+    private final AtomicLong batchCalls = new AtomicLong();
+    private final AtomicLong settledRequests = new AtomicLong();
+    
+    /**
+     * Create a simulator that always approves after a short latency
+     */
+    public SimulatedPaymentGateway() {
+        this(20, 80, 0.0, 0.0);
+    }
+    
+    /**
+     * Create a simulator with configurable latency and failure injection
+     * 
+     * @param minLatencyMillis Minimum latency per batch call, in milliseconds
+     * @param maxLatencyMillis Maximum latency per batch call, in milliseconds
+     * @param failureRate Probability (0-1) that a whole batch call fails
+     * @param declineRate Probability (0-1) that an individual request is declined
+     */
+    public SimulatedPaymentGateway(long minLatencyMillis, long maxLatencyMillis, double failureRate, double declineRate) {
+        if (minLatencyMillis < 0 || maxLatencyMillis < minLatencyMillis) {
+            throw new IllegalArgumentException("Invalid latency range");
+        }
+        if (failureRate < 0 || failureRate > 1 || declineRate < 0 || declineRate > 1) {
+            throw new IllegalArgumentException("Rates must be between 0 and 1");
+        }
+        this.minLatencyMillis = minLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.failureRate = failureRate;
+        this.declineRate = declineRate;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "payment-gateway-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @Override
+    public CompletableFuture<List<Result>> submitBatch(List<Request> requests) {
+        batchCalls.incrementAndGet();
+        CompletableFuture<List<Result>> future = new CompletableFuture<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = minLatencyMillis + (maxLatencyMillis > minLatencyMillis
+                ? random.nextLong(maxLatencyMillis - minLatencyMillis + 1) : 0);
+        boolean fail = random.nextDouble() < failureRate;
+        
+        timer.schedule(() -> {
+            if (fail) {
+                future.completeExceptionally(new IllegalStateException("Simulated gateway failure"));
+                return;
+            }
+            List<Result> results = new ArrayList<>(requests.size());
+            for (Request request : requests) {
+                if (ThreadLocalRandom.current().nextDouble() < declineRate) {
+                    results.add(new Result(request.requestId(), false, null, "Simulated decline"));
+                } else {
+                    results.add(new Result(request.requestId(), true, IdGenerator.getInstance().nextId("GW"), null));
+                }
+            }
+            settledRequests.addAndGet(requests.size());
+            future.complete(results);
+        }, latency, TimeUnit.MILLISECONDS);
+        
+        return future;
+    }
+    
+    /**
+     * Get the number of batch calls received
+     * 
+     * @return The batch call count
+     */
+    public long getBatchCalls() {
+        return batchCalls.get();
+    }
+    
+    /**
+     * Get the number of requests settled successfully or declined
+     * 
+     * @return The settled request count
+     */
+    public long getSettledRequests() {
+        return settledRequests.get();
+    }
+    
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
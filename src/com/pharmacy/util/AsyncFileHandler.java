@@ -0,0 +1,290 @@
+package com.pharmacy.util;
+
+import com.pharmacy.util.FileHandler.WriteMode;
+import com.pharmacy.util.codec.Codec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous facade over {@link FileHandler}, so request threads never block on disk.
+ *
+ * Every operation runs on its own virtual thread and returns a {@link CompletableFuture}
+ * that completes with the result, or exceptionally with the underlying {@link IOException}.
+ * A concurrency semaphore caps how many operations touch the disk at once, so a burst of
+ * uploads queues up cheaply instead of saturating the disk, and a backlog semaphore caps
+ * queued plus running operations; beyond it new operations fail straight away with a
+ * {@link RejectedExecutionException} rather than growing an unbounded queue.
+ *
+ * Successful operations log at FINE only; failures are left to the caller's future.
+ */
+public class AsyncFileHandler implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(AsyncFileHandler.class.getName());
+
+    /**
+     * A blocking file operation run on an I/O thread
+     *
+     * @param <T> The result type
+     */
+    @FunctionalInterface
+    public interface FileTask<T> {
+        /**
+         * Run the operation
+         *
+         * @return The result
+         * @throws IOException if the operation fails
+         */
+        T run() throws IOException;
+    }
+
+    /**
+     * Snapshot of the handler's load
+     */
+    public record Metrics(int inFlight, int queued, long completed, long failed, long rejected) {
+    }
+
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final int maxBacklog;
+    private final Semaphore inFlight;
+    private final Semaphore backlog;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Create a handler with default limits (16 operations in flight, 1,024 queued or running)
+     */
+    public AsyncFileHandler() {
+        this(16, 1024);
+    }
+
+    /**
+     * Create a handler
+     *
+     * @param maxInFlight Maximum operations using the disk at once
+     * @param maxBacklog Maximum operations queued or running
+     */
+    public AsyncFileHandler(int maxInFlight, int maxBacklog) {
+        if (maxInFlight <= 0 || maxBacklog < maxInFlight) {
+            throw new IllegalArgumentException("Invalid async file handler limits");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxBacklog = maxBacklog;
+        this.inFlight = new Semaphore(maxInFlight, true);
+        this.backlog = new Semaphore(maxBacklog);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("file-io-", 0).factory());
+    }
+
+    /**
+     * Run a blocking file operation asynchronously, subject to the handler's limits
+     *
+     * @param <T> The result type
+     * @param task The operation
+     * @return Future completed with the operation's result, or exceptionally with its
+     *         failure or a RejectedExecutionException if the backlog is full or the handler is closed
+     */
+    public <T> CompletableFuture<T> submit(FileTask<T> task) {
+        if (closed) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Async file handler is closed"));
+        }
+        if (!backlog.tryAcquire()) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("File I/O backlog is full"));
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> run(task, future));
+        } catch (RejectedExecutionException e) {
+            backlog.release();
+            rejected.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> void run(FileTask<T> task, CompletableFuture<T> future) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            backlog.release();
+            failed.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("Async file handler is shutting down", e));
+            return;
+        }
+        T result = null;
+        Exception failure = null;
+        try {
+            result = task.run();
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            failure = e;
+        } finally {
+            inFlight.release();
+            backlog.release();
+        }
+        // Complete only after releasing the permits: callbacks chained onto the future run on
+        // this thread, and one that submits and waits for another task must not hold a permit
+        if (failure == null) {
+            future.complete(result);
+        } else {
+            future.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Read a text file
+     *
+     * @param path The file
+     * @return Future completed with the text
+     */
+    public CompletableFuture<String> loadText(Path path) {
+        return submit(() -> Files.readString(path));
+    }
+
+    /**
+     * Save text to a file as UTF-8, replacing it atomically
+     *
+     * @param path The file
+     * @param text The text
+     * @return Future completed when the text is saved
+     */
+    public CompletableFuture<Void> saveText(Path path, String text) {
+        return submit(() -> {
+            FileHandler.writeText(path, text, WriteMode.ATOMIC);
+            logger.fine("Text saved to file: " + path);
+            return null;
+        });
+    }
+
+    /**
+     * Save records to a checksummed file
+     *
+     * @param <T> The record type
+     * @param path The file
+     * @param records The records; must not be changed until the future completes
+     * @param codec The codec for the records
+     * @param mode How to replace an existing file
+     * @return Future completed when the records are saved
+     */
+    public <T> CompletableFuture<Void> saveRecords(Path path, Collection<T> records, Codec<T> codec, WriteMode mode) {
+        return submit(() -> {
+            FileHandler.writeRecords(path, records, codec, mode);
+            logger.fine(records.size() + " records saved to file: " + path);
+            return null;
+        });
+    }
+
+    /**
+     * Load every record in a file, verifying its checksums
+     *
+     * @param <T> The record type
+     * @param path The file
+     * @param codec The codec for the records
+     * @return Future completed with the records
+     */
+    public <T> CompletableFuture<List<T>> loadRecords(Path path, Codec<T> codec) {
+        return submit(() -> FileHandler.readRecordList(path, codec));
+    }
+
+    /**
+     * Copy an image file, e.g. an uploaded prescription, to its destination
+     *
+     * @param source The image file
+     * @param destination The destination path
+     * @return Future completed with the destination path
+     */
+    public CompletableFuture<Path> saveImage(Path source, Path destination) {
+        return submit(() -> {
+            FileHandler.copyFile(source, destination);
+            logger.fine("Image saved to: " + destination);
+            return destination;
+        });
+    }
+
+    /**
+     * Write uploaded image bytes to a file, replacing it atomically
+     *
+     * @param data The image bytes; must not be changed until the future completes
+     * @param destination The destination path
+     * @return Future completed with the destination path
+     */
+    public CompletableFuture<Path> saveImage(byte[] data, Path destination) {
+        return submit(() -> {
+            FileHandler.writeBytes(destination, data, WriteMode.ATOMIC);
+            logger.fine("Image saved to: " + destination);
+            return destination;
+        });
+    }
+
+    /**
+     * Read an image file
+     *
+     * @param path The image file
+     * @return Future completed with the image bytes
+     */
+    public CompletableFuture<byte[]> loadImage(Path path) {
+        return submit(() -> Files.readAllBytes(path));
+    }
+
+    /**
+     * Delete a file if it exists
+     *
+     * @param path The file
+     * @return Future completed with true if the file was deleted, false if it did not exist
+     */
+    public CompletableFuture<Boolean> delete(Path path) {
+        return submit(() -> Files.deleteIfExists(path));
+    }
+
+    /**
+     * Get a snapshot of the handler's load
+     *
+     * @return The metrics
+     */
+    public Metrics getMetrics() {
+        int running = maxInFlight - inFlight.availablePermits();
+        int pending = maxBacklog - backlog.availablePermits();
+        return new Metrics(running, Math.max(0, pending - running), completed.get(), failed.get(), rejected.get());
+    }
+
+    /**
+     * Stop accepting operations and wait for queued and running ones to finish
+     *
+     * @param timeout How long to wait
+     * @param unit The unit of the timeout
+     * @return true if every operation finished in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Stop accepting operations and let queued ones finish in the background
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,209 @@
+package com.pharmacy.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded store of one-time authentication codes with TTL expiry.
+ *
+ * Codes are generated with SecureRandom, limited to a number of verification attempts
+ * and expired by a timer wheel: each code is placed in the wheel slot of its expiry tick,
+ * and a background tick clears one slot at a time, so expiry costs O(1) per code
+ * and abandoned codes never accumulate.
+ */
+public class AuthCodeStore implements AutoCloseable {
+
+    private static final int CODE_DIGITS = 6;
+    private static final int CODE_BOUND = 1_000_000;
+
+    private final long ttlMillis;
+    private final int maxAttempts;
+    private final int maxSize;
+    private final long tickMillis;
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<String, PendingCode> codes = new ConcurrentHashMap<>();
+
+    // Timer wheel of transaction IDs, indexed by expiry tick
+    private final Queue<String>[] wheel;
+    private long currentTick;
+    private final ScheduledExecutorService ticker;
+
+    /**
+     * A code waiting to be verified
+     */
+    private static final class PendingCode {
+        private final byte[] code;
+        private final long expiresAt;
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        private PendingCode(String code, long expiresAt) {
+            this.code = code.getBytes(StandardCharsets.US_ASCII);
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Create an auth code store with a one-second timer wheel
+     *
+     * @param ttlMillis How long a code stays valid, in milliseconds
+     * @param maxAttempts Maximum verification attempts per code
+     * @param maxSize Maximum number of pending codes
+     */
+    public AuthCodeStore(long ttlMillis, int maxAttempts, int maxSize) {
+        this(ttlMillis, maxAttempts, maxSize, 1000);
+    }
+
+    /**
+     * Create an auth code store
+     *
+     * @param ttlMillis How long a code stays valid, in milliseconds
+     * @param maxAttempts Maximum verification attempts per code
+     * @param maxSize Maximum number of pending codes
+     * @param tickMillis Resolution of the expiry timer wheel, in milliseconds
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public AuthCodeStore(long ttlMillis, int maxAttempts, int maxSize, long tickMillis) {
+        if (ttlMillis <= 0 || maxAttempts <= 0 || maxSize <= 0 || tickMillis <= 0) {
+            throw new IllegalArgumentException("Auth code store settings must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxAttempts = maxAttempts;
+        this.maxSize = maxSize;
+        this.tickMillis = tickMillis;
+
+        // One slot per tick of the TTL plus one, so a slot is never reused before its codes expire
+        int slots = (int) Math.min(Integer.MAX_VALUE, ttlMillis / tickMillis + 2);
+        this.wheel = new Queue[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "auth-code-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Generate and store a new code for a transaction
+     *
+     * @param transactionId The transaction ID
+     * @return The generated code, or null if the store is full
+     */
+    public String issue(String transactionId) {
+        if (codes.size() >= maxSize) {
+            return null;
+        }
+
+        String code = generateCode();
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        codes.put(transactionId, new PendingCode(code, expiresAt));
+        wheel[slotFor(expiresAt)].add(transactionId);
+        return code;
+    }
+
+    /**
+     * Verify a code for a transaction.
+     * A code can be verified successfully only once, and is discarded once it
+     * expires or its attempts are used up.
+     *
+     * @param transactionId The transaction ID
+     * @param code The code to verify
+     * @return true if the code matches, false otherwise
+     */
+    public boolean verify(String transactionId, String code) {
+        PendingCode pending = codes.get(transactionId);
+        if (pending == null) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() >= pending.expiresAt
+                || pending.attempts.incrementAndGet() > maxAttempts) {
+            codes.remove(transactionId, pending);
+            return false;
+        }
+
+        if (MessageDigest.isEqual(pending.code, code.getBytes(StandardCharsets.US_ASCII))) {
+            // Only the caller that removes the code wins
+            return codes.remove(transactionId, pending);
+        }
+
+        if (pending.attempts.get() >= maxAttempts) {
+            codes.remove(transactionId, pending);
+        }
+        return false;
+    }
+
+    /**
+     * Generate a random numeric code
+     *
+     * @return A zero-padded 6-digit code
+     */
+    public String generateCode() {
+        int value = random.nextInt(CODE_BOUND);
+        char[] digits = new char[CODE_DIGITS];
+        for (int i = CODE_DIGITS - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * Get the number of pending codes
+     *
+     * @return The number of pending codes
+     */
+    public int size() {
+        return codes.size();
+    }
+
+    /**
+     * Clear the wheel slots for every tick that has elapsed
+     */
+    private void advance() {
+        long nowTick = System.currentTimeMillis() / tickMillis;
+        long now = System.currentTimeMillis();
+        while (currentTick <= nowTick) {
+            Queue<String> slot = wheel[(int) (currentTick % wheel.length)];
+            String transactionId;
+            int remaining = slot.size();
+            while (remaining-- > 0 && (transactionId = slot.poll()) != null) {
+                PendingCode pending = codes.get(transactionId);
+                if (pending == null) {
+                    continue;
+                }
+                if (now >= pending.expiresAt) {
+                    codes.remove(transactionId, pending);
+                } else {
+                    // The ID was re-issued with a later expiry
+                    wheel[slotFor(pending.expiresAt)].add(transactionId);
+                }
+            }
+            currentTick++;
+        }
+    }
+
+    private int slotFor(long expiresAt) {
+        return (int) (((expiresAt + tickMillis - 1) / tickMillis) % wheel.length);
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+        codes.clear();
+    }
+}
@@ -0,0 +1,87 @@
+package com.pharmacy.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free circuit breaker for calls to external providers.
+ *
+ * After a number of consecutive failures the circuit opens and calls fail fast.
+ * Once the open period has elapsed a single trial call is let through (half-open);
+ * its outcome closes the circuit again or re-opens it.
+ */
+public class CircuitBreaker {
+    
+    // Enum for circuit state
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+    
+    private final int failureThreshold;
+    private final long openMillis;
+    
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+    
+    /**
+     * Create a circuit breaker
+     * 
+     * @param failureThreshold Consecutive failures before the circuit opens
+     * @param openMillis How long the circuit stays open before a trial call, in milliseconds
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0 || openMillis <= 0) {
+            throw new IllegalArgumentException("Failure threshold and open time must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+    
+    /**
+     * Check whether a call may proceed
+     * 
+     * @return true if the call is allowed, false if it should fail fast
+     */
+    public boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            // Let exactly one trial call through
+            return state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        }
+        return false;
+    }
+    
+    /**
+     * Record a successful call
+     */
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+        state.set(State.CLOSED);
+    }
+    
+    /**
+     * Record a failed call
+     */
+    public void recordFailure() {
+        if (state.get() == State.HALF_OPEN
+                || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.currentTimeMillis();
+            state.set(State.OPEN);
+        }
+    }
+    
+    /**
+     * Get the current state of the circuit
+     * 
+     * @return The circuit state
+     */
+    public State getState() {
+        return state.get();
+    }
+}
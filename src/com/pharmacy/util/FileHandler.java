@@ -1,21 +1,66 @@
 package com.pharmacy.util;
 
+import com.pharmacy.dao.MedicineDAO;
+import com.pharmacy.model.Medicine;
+import com.pharmacy.model.Order;
+import com.pharmacy.util.catalog.CatalogFormat;
+import com.pharmacy.util.catalog.CatalogImporter;
+import com.pharmacy.util.catalog.CatalogWriter;
+import com.pharmacy.util.codec.CatalogSnapshot;
+import com.pharmacy.util.codec.Codec;
+import com.pharmacy.util.codec.OrderArchive;
+import com.pharmacy.util.codec.OrderArchiveWriter;
+import com.pharmacy.util.codec.RecordReader;
+import com.pharmacy.util.codec.RecordWriter;
+import com.pharmacy.util.io.AtomicFile;
+import com.pharmacy.util.io.ChecksummedInputStream;
+import com.pharmacy.util.io.ChecksummedOutputStream;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Utility class for file operations
+ * Utility class for file operations.
+ * 
+ * Binary files are written in checksummed blocks and verified when loaded, so a torn
+ * write or bit rot is reported as a failed load rather than as a decoding error later.
+ * Files written before checksums were added still load. By default saves replace files
+ * atomically; see {@link WriteMode}.
  */
 public class FileHandler {
     
     private static final Logger logger = Logger.getLogger(FileHandler.class.getName());
     
+    // Enum for how a save replaces an existing file
+    public enum WriteMode {
+        // Write to a temporary file, sync it and rename it over the target, so a crash
+        // leaves either the old or the new file
+        ATOMIC,
+        // Overwrite the file directly; cheaper, but a crash can leave a partial file
+        IN_PLACE
+    }
+    
     /**
-     * Save an object to a file using serialization
+     * Writes a file's contents to a stream. Implementations must flush but not close
+     * the stream, so a failed write is never completed with a valid trailer.
+     */
+    @FunctionalInterface
+    private interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+    
+    /**
+     * Save an object to a file using serialization, replacing it atomically
      * 
      * @param <T> Type of object to save
      * @param object The object to save
@@ -23,9 +68,26 @@ public class FileHandler {
      * @return true if saved successfully, false otherwise
      */
     public static <T extends Serializable> boolean saveObjectToFile(T object, String filePath) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            oos.writeObject(object);
-            logger.info("Object saved to file: " + filePath);
+        return saveObjectToFile(object, filePath, WriteMode.ATOMIC);
+    }
+    
+    /**
+     * Save an object to a file using serialization
+     * 
+     * @param <T> Type of object to save
+     * @param object The object to save
+     * @param filePath The path to save the file to
+     * @param mode How to replace an existing file
+     * @return true if saved successfully, false otherwise
+     */
+    public static <T extends Serializable> boolean saveObjectToFile(T object, String filePath, WriteMode mode) {
+        try {
+            writeFile(Paths.get(filePath), mode, true, out -> {
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(object);
+                oos.flush();
+            });
+            logger.fine("Object saved to file: " + filePath);
             return true;
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error saving object to file: " + e.getMessage(), e);
@@ -42,9 +104,9 @@ public class FileHandler {
      */
     @SuppressWarnings("unchecked")
     public static <T extends Serializable> T loadObjectFromFile(String filePath) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
+        try (ObjectInputStream ois = new ObjectInputStream(ChecksummedInputStream.open(Paths.get(filePath)))) {
             T object = (T) ois.readObject();
-            logger.info("Object loaded from file: " + filePath);
+            logger.fine("Object loaded from file: " + filePath);
             return object;
         } catch (IOException | ClassNotFoundException e) {
             logger.log(Level.SEVERE, "Error loading object from file: " + e.getMessage(), e);
@@ -59,11 +121,18 @@ public class FileHandler {
      * @param objects The list of objects to save
      * @param filePath The path to save the file to
      * @return true if saved successfully, false otherwise
+     * @deprecated Java serialization is slow and cannot write lists holding medicines;
+     *             use {@link #saveListToFile(List, String, Codec)}
      */
+    @Deprecated
     public static <T extends Serializable> boolean saveListToFile(List<T> objects, String filePath) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            oos.writeObject(objects);
-            logger.info("List saved to file: " + filePath);
+        try {
+            writeFile(Paths.get(filePath), WriteMode.ATOMIC, true, out -> {
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(objects);
+                oos.flush();
+            });
+            logger.fine("List saved to file: " + filePath);
             return true;
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error saving list to file: " + e.getMessage(), e);
@@ -77,12 +146,14 @@ public class FileHandler {
      * @param <T> Type of objects in the list
      * @param filePath The path to load the file from
      * @return The loaded list, or an empty list if loading failed
+     * @deprecated Use {@link #loadListFromFile(String, Codec)}
      */
+    @Deprecated
     @SuppressWarnings("unchecked")
     public static <T extends Serializable> List<T> loadListFromFile(String filePath) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
+        try (ObjectInputStream ois = new ObjectInputStream(ChecksummedInputStream.open(Paths.get(filePath)))) {
             List<T> objects = (List<T>) ois.readObject();
-            logger.info("List loaded from file: " + filePath);
+            logger.fine("List loaded from file: " + filePath);
             return objects;
         } catch (IOException | ClassNotFoundException e) {
             logger.log(Level.SEVERE, "Error loading list from file: " + e.getMessage(), e);
@@ -91,7 +162,261 @@ public class FileHandler {
     }
     
     /**
-     * Save text to a file
+     * Save a list of objects to a file in the compact binary record format, replacing it atomically.
+     * The file header records the codec's schema version so later versions can still read it.
+     * 
+     * @param <T> Type of objects in the list
+     * @param objects The list of objects to save
+     * @param filePath The path to save the file to
+     * @param codec The codec for the objects, e.g. from {@link com.pharmacy.util.codec.ModelCodecs}
+     * @return true if saved successfully, false otherwise
+     */
+    public static <T> boolean saveListToFile(List<T> objects, String filePath, Codec<T> codec) {
+        return saveListToFile(objects, filePath, codec, WriteMode.ATOMIC);
+    }
+    
+    /**
+     * Save a list of objects to a file in the compact binary record format
+     * 
+     * @param <T> Type of objects in the list
+     * @param objects The list of objects to save
+     * @param filePath The path to save the file to
+     * @param codec The codec for the objects
+     * @param mode How to replace an existing file
+     * @return true if saved successfully, false otherwise
+     */
+    public static <T> boolean saveListToFile(List<T> objects, String filePath, Codec<T> codec, WriteMode mode) {
+        try {
+            writeRecords(Paths.get(filePath), objects, codec, mode);
+            logger.fine("List saved to file: " + filePath);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error saving list to file: " + e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Load a list of objects saved with {@link #saveListToFile(List, String, Codec)}
+     * 
+     * @param <T> Type of objects in the list
+     * @param filePath The path to load the file from
+     * @param codec The codec for the objects
+     * @return The loaded list, or an empty list if loading failed
+     */
+    public static <T> List<T> loadListFromFile(String filePath, Codec<T> codec) {
+        try {
+            List<T> objects = readRecordList(Paths.get(filePath), codec);
+            logger.fine("List loaded from file: " + filePath);
+            return objects;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error loading list from file: " + e.getMessage(), e);
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Open a writer that appends records to a new file one at a time, so a large
+     * collection never has to be held in memory. The file is replaced atomically when
+     * the writer is closed; until then, or if a write fails, an existing file is untouched.
+     * 
+     * @param <T> Type of the records
+     * @param path The path of the file to write
+     * @param codec The codec for the records
+     * @return The writer; the caller must close it
+     * @throws IOException if the file cannot be created
+     */
+    public static <T> RecordWriter<T> openRecordWriter(Path path, Codec<T> codec) throws IOException {
+        AtomicFile file = new AtomicFile(path);
+        try {
+            return new RecordWriter<>(new ChecksummedOutputStream(file.openOutputStream()), codec, file);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Stream the records in a file one at a time, with constant memory however large the file.
+     * The stream is lazy, so a caller that stops early (e.g. with {@code limit} or
+     * {@code findFirst}) reads only as far as it needs. Decoding and checksum errors are
+     * thrown as {@link UncheckedIOException}.
+     * 
+     * @param <T> Type of the records
+     * @param path The path of the file to read
+     * @param codec The codec for the records
+     * @return A sequential stream of the records; the caller must close it to release the file
+     * @throws IOException if the file cannot be opened or its header does not match the codec
+     */
+    public static <T> Stream<T> readRecords(Path path, Codec<T> codec) throws IOException {
+        RecordReader<T> reader = new RecordReader<>(ChecksummedInputStream.open(path), codec);
+        Spliterator<T> records = new Spliterators.AbstractSpliterator<T>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                T record;
+                try {
+                    record = reader.read();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error reading records from " + path, e);
+                }
+                if (record == null) {
+                    return false;
+                }
+                action.accept(record);
+                return true;
+            }
+        };
+        return StreamSupport.stream(records, false).onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+    
+    /**
+     * Save a medicine catalog as a snapshot that can be memory-mapped at startup
+     * 
+     * @param medicines The medicines; IDs must be unique
+     * @param filePath The path to save the snapshot to
+     * @return true if saved successfully, false otherwise
+     */
+    public static boolean saveCatalogSnapshot(Collection<Medicine> medicines, String filePath) {
+        try {
+            CatalogSnapshot.write(Paths.get(filePath), medicines);
+            logger.info("Catalog snapshot of " + medicines.size() + " medicines saved to file: " + filePath);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.log(Level.SEVERE, "Error saving catalog snapshot: " + e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Memory-map a catalog snapshot saved with {@link #saveCatalogSnapshot} and verify its
+     * checksums. Nothing is parsed until a medicine is looked up.
+     * 
+     * @param filePath The path of the snapshot
+     * @return The snapshot, or null if it cannot be mapped, is not a valid snapshot or is corrupt
+     */
+    public static CatalogSnapshot loadCatalogSnapshot(String filePath) {
+        return loadCatalogSnapshot(filePath, true);
+    }
+    
+    /**
+     * Memory-map a catalog snapshot saved with {@link #saveCatalogSnapshot}
+     * 
+     * @param filePath The path of the snapshot
+     * @param verifyChecksums Whether to verify the checksums, which reads the whole file;
+     *                        pass false only for a trusted snapshot to keep startup to a mapping
+     * @return The snapshot, or null if it cannot be mapped, is not a valid snapshot or is corrupt
+     */
+    public static CatalogSnapshot loadCatalogSnapshot(String filePath, boolean verifyChecksums) {
+        try {
+            CatalogSnapshot snapshot = CatalogSnapshot.open(Paths.get(filePath), verifyChecksums);
+            logger.info("Catalog snapshot of " + snapshot.size() + " medicines mapped from file: " + filePath);
+            return snapshot;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error loading catalog snapshot: " + e.getMessage(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Archive orders in the columnar format read by {@link OrderArchive}, for analytics
+     * scans that only need a few columns. The orders are streamed, so they can come from
+     * e.g. {@link #readRecords} without all being held in memory.
+     * 
+     * @param orders The orders
+     * @param filePath The path to save the archive to
+     * @return true if saved successfully, false otherwise
+     */
+    public static boolean saveOrderArchive(Iterable<Order> orders, String filePath) {
+        try {
+            long count;
+            // Closing the writer completes the archive and replaces the file
+            try (OrderArchiveWriter writer = new OrderArchiveWriter(Paths.get(filePath))) {
+                writer.writeAll(orders);
+                count = writer.getCount();
+            }
+            logger.info("Order archive of " + count + " orders saved to file: " + filePath);
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            logger.log(Level.SEVERE, "Error saving order archive: " + e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Open an order archive saved with {@link #saveOrderArchive}. Only its footer is read.
+     * 
+     * @param filePath The path of the archive
+     * @return The archive, which the caller must close, or null if it is missing or invalid
+     */
+    public static OrderArchive openOrderArchive(String filePath) {
+        try {
+            return OrderArchive.open(Paths.get(filePath));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error opening order archive: " + e.getMessage(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Import a CSV or JSON lines catalog file into a DAO, choosing the format from the
+     * file's extension. Invalid records are skipped and reported in the result.
+     * 
+     * @param dao The DAO to import into
+     * @param filePath The path of the catalog file
+     * @return The outcome of the import, or null if the file could not be read
+     */
+    public static CatalogImporter.Result importCatalog(MedicineDAO dao, String filePath) {
+        try {
+            return new CatalogImporter(dao).importFile(Paths.get(filePath));
+        } catch (IOException | IllegalArgumentException e) {
+            logger.log(Level.SEVERE, "Error importing catalog: " + e.getMessage(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Export every medicine in a DAO to a CSV or JSON lines catalog file, choosing the
+     * format from the file's extension. Medicines are streamed to the file as they are
+     * visited, and the file is replaced atomically once complete.
+     * 
+     * @param dao The DAO to export
+     * @param filePath The path to save the catalog to
+     * @return true if saved successfully, false otherwise
+     */
+    public static boolean exportCatalog(MedicineDAO dao, String filePath) {
+        try {
+            Path path = Paths.get(filePath);
+            long count;
+            // Closing the writer replaces the file
+            try (CatalogWriter writer = new CatalogWriter(path, CatalogFormat.forPath(path))) {
+                dao.forEach(medicine -> {
+                    try {
+                        writer.write(medicine);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                count = writer.getCount();
+            }
+            logger.info("Catalog of " + count + " medicines exported to file: " + filePath);
+            return true;
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            logger.log(Level.SEVERE, "Error exporting catalog: " + e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Save text to a file. Overwriting replaces the file atomically, as
+     * {@link #saveTextToFile(String, String, WriteMode)} does; appending writes to the
+     * file in place, so a crash can leave part of the appended text.
      * 
      * @param text The text to save
      * @param filePath The path to save the file to
@@ -99,9 +424,31 @@ public class FileHandler {
      * @return true if saved successfully, false otherwise
      */
     public static boolean saveTextToFile(String text, String filePath, boolean append) {
+        if (!append) {
+            return saveTextToFile(text, filePath, WriteMode.ATOMIC);
+        }
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath, append))) {
             writer.write(text);
-            logger.info("Text saved to file: " + filePath);
+            logger.fine("Text saved to file: " + filePath);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error saving text to file: " + e.getMessage(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Save text to a file as UTF-8, replacing any existing file
+     * 
+     * @param text The text to save
+     * @param filePath The path to save the file to
+     * @param mode How to replace an existing file
+     * @return true if saved successfully, false otherwise
+     */
+    public static boolean saveTextToFile(String text, String filePath, WriteMode mode) {
+        try {
+            writeText(Paths.get(filePath), text, mode);
+            logger.fine("Text saved to file: " + filePath);
             return true;
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error saving text to file: " + e.getMessage(), e);
@@ -118,7 +465,7 @@ public class FileHandler {
     public static String loadTextFromFile(String filePath) {
         try {
             String content = Files.readString(Paths.get(filePath));
-            logger.info("Text loaded from file: " + filePath);
+            logger.fine("Text loaded from file: " + filePath);
             return content;
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error loading text from file: " + e.getMessage(), e);
@@ -135,20 +482,8 @@ public class FileHandler {
      */
     public static String saveImageFile(File sourceFile, String destinationPath) {
         try {
-            // Create destination directory if it doesn't exist
-            File destDir = new File(destinationPath).getParentFile();
-            if (destDir != null && !destDir.exists()) {
-                destDir.mkdirs();
-            }
-            
-            // Copy the file
-            Files.copy(
-                sourceFile.toPath(),
-                Paths.get(destinationPath),
-                StandardCopyOption.REPLACE_EXISTING
-            );
-            
-            logger.info("Image saved to: " + destinationPath);
+            copyFile(sourceFile.toPath(), Paths.get(destinationPath));
+            logger.fine("Image saved to: " + destinationPath);
             return destinationPath;
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error saving image file: " + e.getMessage(), e);
@@ -165,7 +500,7 @@ public class FileHandler {
     public static boolean deleteFile(String filePath) {
         try {
             Files.delete(Paths.get(filePath));
-            logger.info("File deleted: " + filePath);
+            logger.fine("File deleted: " + filePath);
             return true;
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error deleting file: " + e.getMessage(), e);
@@ -195,6 +530,97 @@ public class FileHandler {
         return created;
     }
     
+    /**
+     * Write records to a checksummed file
+     */
+    static <T> void writeRecords(Path path, Collection<T> objects, Codec<T> codec, WriteMode mode) throws IOException {
+        writeFile(path, mode, true, out -> {
+            RecordWriter<T> writer = new RecordWriter<>(out, codec);
+            for (T object : objects) {
+                writer.write(object);
+            }
+            writer.flush();
+        });
+    }
+    
+    /**
+     * Read every record in a file, verifying checksums if it has them
+     */
+    static <T> List<T> readRecordList(Path path, Codec<T> codec) throws IOException {
+        try (RecordReader<T> reader = new RecordReader<>(ChecksummedInputStream.open(path), codec)) {
+            List<T> objects = new ArrayList<>();
+            for (T object = reader.read(); object != null; object = reader.read()) {
+                objects.add(object);
+            }
+            return objects;
+        }
+    }
+    
+    /**
+     * Write text as UTF-8. Text files stay plain text, without checksum blocks.
+     */
+    static void writeText(Path path, String text, WriteMode mode) throws IOException {
+        writeFile(path, mode, false, out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.write(text);
+            writer.flush();
+        });
+    }
+    
+    /**
+     * Write raw bytes, e.g. an uploaded image
+     */
+    static void writeBytes(Path path, byte[] data, WriteMode mode) throws IOException {
+        writeFile(path, mode, false, out -> {
+            out.write(data);
+            out.flush();
+        });
+    }
+    
+    /**
+     * Copy a file, creating the destination directory if it doesn't exist, and replace the
+     * destination atomically. The copy has no checksums, since images are read by other tools.
+     */
+    static void copyFile(Path source, Path destination) throws IOException {
+        Path directory = destination.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        try (AtomicFile file = new AtomicFile(destination)) {
+            try (OutputStream out = file.openOutputStream()) {
+                Files.copy(source, out);
+            }
+            file.commit();
+        }
+    }
+    
+    /**
+     * Write a file, optionally in checksummed blocks, either atomically or in place.
+     * The checksum trailer is only written once the content was written completely.
+     */
+    private static void writeFile(Path path, WriteMode mode, boolean checksummed, ContentWriter content)
+            throws IOException {
+        if (mode == WriteMode.ATOMIC) {
+            try (AtomicFile file = new AtomicFile(path)) {
+                writeContent(file.openOutputStream(), checksummed, content);
+                file.commit();
+            }
+        } else {
+            writeContent(Files.newOutputStream(path), checksummed, content);
+        }
+    }
+    
+    private static void writeContent(OutputStream file, boolean checksummed, ContentWriter content)
+            throws IOException {
+        try {
+            OutputStream out = checksummed ? new ChecksummedOutputStream(file) : new BufferedOutputStream(file);
+            content.write(out);
+            out.close();
+        } finally {
+            file.close();
+        }
+    }
+    
     /**
      * Check if a file exists
      * 
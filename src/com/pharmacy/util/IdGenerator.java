@@ -0,0 +1,136 @@
+package com.pharmacy.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free, monotonic, Snowflake-style ID generator.
+ *
+ * Each 64-bit ID is laid out as 41 bits of milliseconds since a custom epoch,
+ * 10 bits of node ID and 12 bits of sequence, allowing 4096 IDs per millisecond per node.
+ * When the sequence is exhausted the generator borrows from the next millisecond
+ * instead of blocking, so IDs stay unique and increasing even under bursts.
+ */
+public final class IdGenerator {
+
+    // Custom epoch: 2024-01-01T00:00:00Z
+    private static final long EPOCH = 1704067200000L;
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    // Crockford base32 alphabet, which keeps string IDs sortable and unambiguous
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int ENCODED_LENGTH = 13;
+
+    // System property used to configure the node ID of the shared instance
+    public static final String NODE_ID_PROPERTY = "pharmacy.nodeId";
+
+    private static final IdGenerator INSTANCE = new IdGenerator(defaultNodeId());
+
+    private final long nodeId;
+
+    // Last issued (timestamp << SEQUENCE_BITS | sequence), updated with CAS
+    private final AtomicLong state = new AtomicLong();
+
+    /**
+     * Create a generator for a node
+     *
+     * @param nodeId The node ID (0-1023)
+     */
+    public IdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID);
+        }
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Get the shared generator instance
+     *
+     * @return The shared IdGenerator
+     */
+    public static IdGenerator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Generate the next numeric ID
+     *
+     * @return A unique, monotonically increasing ID
+     */
+    public long nextId() {
+        long now = System.currentTimeMillis() - EPOCH;
+        long current;
+        long next;
+        do {
+            current = state.get();
+            long lastTime = current >>> SEQUENCE_BITS;
+            if (now > lastTime) {
+                next = now << SEQUENCE_BITS;
+            } else {
+                // Same (or earlier, if the clock moved back) millisecond: bump the sequence,
+                // which carries into the timestamp when the sequence overflows
+                next = current + 1;
+            }
+        } while (!state.compareAndSet(current, next));
+
+        long timestamp = next >>> SEQUENCE_BITS;
+        long sequence = next & SEQUENCE_MASK;
+        return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | sequence;
+    }
+
+    /**
+     * Generate the next ID as a prefixed, fixed-width string
+     *
+     * @param prefix The prefix (e.g. "PAY", "TXN")
+     * @return The prefixed ID string
+     */
+    public String nextId(String prefix) {
+        char[] chars = new char[prefix.length() + ENCODED_LENGTH];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        long id = nextId();
+        for (int i = chars.length - 1; i >= prefix.length(); i--) {
+            chars[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Get the epoch timestamp embedded in an ID
+     *
+     * @param id The numeric ID
+     * @return The timestamp in epoch milliseconds
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    /**
+     * Get the node ID of this generator
+     *
+     * @return The node ID
+     */
+    public int getNodeId() {
+        return (int) nodeId;
+    }
+
+    /**
+     * Resolve the node ID for the shared instance from the system property,
+     * falling back to a random node ID
+     */
+    private static int defaultNodeId() {
+        String configured = System.getProperty(NODE_ID_PROPERTY);
+        if (configured != null) {
+            try {
+                return (int) (Long.parseLong(configured.trim()) & MAX_NODE_ID);
+            } catch (NumberFormatException e) {
+                // Fall through to a random node ID
+            }
+        }
+        return ThreadLocalRandom.current().nextInt((int) MAX_NODE_ID + 1);
+    }
+}
@@ -0,0 +1,162 @@
+package com.pharmacy.util;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bounded, time-windowed store of idempotent operation results.
+ *
+ * The first caller for a key executes the operation; concurrent callers with the same key
+ * wait on the same future instead of re-executing it, and later callers within the
+ * deduplication window receive the cached result. Failed operations are not cached,
+ * so a retry after a failure executes again.
+ *
+ * @param <V> Type of the operation result
+ */
+public class IdempotencyStore<V> {
+
+    private final long windowMillis;
+    private final int maxEntries;
+
+    private final ConcurrentMap<String, Slot<V>> slots = new ConcurrentHashMap<>();
+
+    // Slots in insertion order, used to evict the oldest entries first
+    private final Queue<Slot<V>> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    /**
+     * A result slot for one idempotency key
+     */
+    private static final class Slot<V> {
+        private final String key;
+        private final String fingerprint;
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        private Slot(String key, String fingerprint) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    /**
+     * Create an idempotency store
+     *
+     * @param windowMillis How long completed results are kept, in milliseconds
+     * @param maxEntries The maximum number of completed keys to retain; running operations are never evicted
+     */
+    public IdempotencyStore(long windowMillis, int maxEntries) {
+        if (windowMillis <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Window and maximum size must be positive");
+        }
+        this.windowMillis = windowMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Execute an operation at most once per key within the deduplication window
+     *
+     * @param key The idempotency key
+     * @param fingerprint Identifies the request the key was issued for (e.g. the order ID)
+     * @param action The operation to execute
+     * @return The result of the operation, possibly from an earlier or concurrent call
+     * @throws IllegalStateException if the key was already used for a different request
+     * @throws Exception if the operation fails
+     */
+    public V execute(String key, String fingerprint, Callable<V> action) throws Exception {
+        long now = System.currentTimeMillis();
+        Slot<V> mine = new Slot<>(key, fingerprint);
+
+        while (true) {
+            Slot<V> existing = slots.putIfAbsent(key, mine);
+            if (existing == null) {
+                insertionOrder.add(mine);
+                evict(now);
+                return run(mine, action);
+            }
+
+            if (existing.isExpired(now)) {
+                // Stale result: take the key over and execute again
+                if (slots.replace(key, existing, mine)) {
+                    insertionOrder.add(mine);
+                    evict(now);
+                    return run(mine, action);
+                }
+                continue;
+            }
+
+            if (!existing.fingerprint.equals(fingerprint)) {
+                throw new IllegalStateException("Idempotency key already used for a different request: " + key);
+            }
+
+            try {
+                return existing.future.get();
+            } catch (ExecutionException e) {
+                // The coalesced attempt failed; its slot is already cleared so the next retry runs again
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw (Error) e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Run the operation for a slot this caller owns and publish the outcome
+     */
+    private V run(Slot<V> slot, Callable<V> action) throws Exception {
+        try {
+            V result = action.call();
+            slot.expiresAt = System.currentTimeMillis() + windowMillis;
+            slot.future.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            slots.remove(slot.key, slot);
+            slot.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Drop expired slots and enforce the size bound, oldest first. The bound is soft: eviction
+     * stops at the oldest slot whose operation is still running, since dropping it would let a
+     * retry of that key execute the operation a second time.
+     */
+    private void evict(long now) {
+        Slot<V> head;
+        while ((head = insertionOrder.peek()) != null) {
+            boolean removed = slots.get(head.key) != head;
+            if (!removed && (!head.future.isDone() || !head.isExpired(now) && slots.size() <= maxEntries)) {
+                break;
+            }
+            if (insertionOrder.remove(head) && !removed) {
+                slots.remove(head.key, head);
+            }
+        }
+    }
+
+    /**
+     * Get the number of keys currently retained
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Remove all retained keys
+     */
+    public void clear() {
+        slots.clear();
+        insertionOrder.clear();
+    }
+}
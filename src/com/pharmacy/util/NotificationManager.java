@@ -1,7 +1,33 @@
 package com.pharmacy.util;
 
+import com.pharmacy.model.Order;
+import com.pharmacy.util.notification.ChannelDispatcher;
+import com.pharmacy.util.notification.FileSinkChannel;
+import com.pharmacy.util.notification.InAppChannel;
+import com.pharmacy.util.notification.LocalNotificationProvider;
+import com.pharmacy.util.notification.Notification;
+import com.pharmacy.util.notification.NotificationBatcher;
+import com.pharmacy.util.notification.NotificationChannel;
+import com.pharmacy.util.notification.NotificationCollapser;
+import com.pharmacy.util.notification.NotificationPriority;
+import com.pharmacy.util.notification.NotificationType;
+import com.pharmacy.util.notification.ReminderScheduler;
+import com.pharmacy.util.notification.ReminderStore;
+import com.pharmacy.util.notification.SimulatedProviderChannel;
+import com.pharmacy.util.notification.SubmissionStatus;
+import com.pharmacy.util.notification.WebhookChannel;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -13,18 +39,228 @@ public class NotificationManager {
     
     private static final Logger logger = Logger.getLogger(NotificationManager.class.getName());
     
+    // Enum for how notification sends are run
+    public enum DispatchMode {
+        PLATFORM_THREADS,  // Fixed pool of 5 platform threads
+        VIRTUAL_THREADS    // One virtual thread per send, limited per channel
+    }
+    
+    // System property used to select the dispatch mode (defaults to VIRTUAL_THREADS)
+    public static final String DISPATCH_MODE_PROPERTY = "pharmacy.notifications.dispatchMode";
+    
+    // System property for the durable reminder log path (defaults to reminders.log in the data
+    // directory; without either, reminders are kept in memory only and overload is not deferred)
+    public static final String REMINDER_LOG_PROPERTY = "pharmacy.notifications.reminderLog";
+    
+    // System property for the file sink channel path (defaults to notifications.log in the
+    // data directory; without either, no file channel is registered)
+    public static final String FILE_SINK_PROPERTY = "pharmacy.notifications.fileSink";
+    
+    // System property for the directory notification files are kept in by default (unset by default)
+    public static final String DATA_DIRECTORY_PROPERTY = "pharmacy.notifications.dataDir";
+    
+    // System property for the collapse window in milliseconds (defaults to 2000)
+    public static final String COLLAPSE_WINDOW_PROPERTY = "pharmacy.notifications.collapseWindowMillis";
+    
+    /**
+     * Outcome of a drain
+     * 
+     * @param completed Whether every queued and in-flight send finished before the deadline
+     * @param deferred Notifications persisted to the durable queue for the next start
+     * @param dropped Notifications that could be neither sent nor persisted
+     */
+    public record DrainResult(boolean completed, int deferred, int dropped) {
+    }
+    
+    // Maximum sends queued or in progress per channel before callers are held back
+    private static final int MAX_CHANNEL_BACKLOG = 10_000;
+    
+    // How long a partial bulk batch waits for more recipients
+    private static final long BATCH_LINGER_MILLIS = 50;
+    
+    // Maximum custom tasks queued or running at once
+    private static final int MAX_CUSTOM_TASKS = 1000;
+    
+    // How long a notification deferred under load waits before it is retried
+    private static final long DEFER_RETRY_MILLIS = 5000;
+    
     // Thread pool for sending notifications
-    // Exposed as public for demonstration purposes only
-    public final ExecutorService notificationExecutor;
+    private final ExecutorService notificationExecutor;
+    
+    // Permits for custom tasks, so callers cannot queue unbounded work
+    private final Semaphore customTaskPermits = new Semaphore(MAX_CUSTOM_TASKS);
+    
+    // Set once a drain starts; new work then goes to the durable queue
+    private volatile boolean draining;
+    
+    // Outcome of the drain, once it has finished
+    private DrainResult drainResult;
+    
+    // Set once the durable queue is closed
+    private volatile boolean closed;
+    
+    private final DispatchMode dispatchMode;
+    
+    // Registered channels, keyed by type, each wrapped in a dispatcher enforcing the
+    // channel's rate and concurrency limits. Replaced as a whole when a channel is registered.
+    private volatile Map<NotificationType, ChannelDispatcher> dispatchers = new EnumMap<>(NotificationType.class);
+    
+    // Provider stub behind the simulated email, SMS and push channels
+    private final LocalNotificationProvider bulkProvider = new LocalNotificationProvider();
+    
+    // Groups bulk sends into batches sized for each channel
+    private final NotificationBatcher batcher;
+    
+    // Keeps only the latest of a burst of notifications to a recipient about one topic
+    private final NotificationCollapser collapser;
+    
+    // Timer for pending reminders; reminders hold no thread until they are due
+    private final ReminderScheduler reminderScheduler;
+    
+    // Durable log of pending reminders, or null if it could not be opened
+    private final ReminderStore reminderStore;
     
     // Singleton instance
     private static NotificationManager instance;
     
     /**
      * Private constructor for singleton pattern
+     * 
+     * @param dispatchMode How notification sends are run
+     */
+    private NotificationManager(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
+        this.notificationExecutor = dispatchMode == DispatchMode.VIRTUAL_THREADS
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(5);
+        
+        registerDefaultChannels();
+        
+        this.batcher = new NotificationBatcher(type -> dispatchers.get(type), BATCH_LINGER_MILLIS);
+        this.collapser = new NotificationCollapser(this::send, Long.getLong(COLLAPSE_WINDOW_PROPERTY, 2000));
+        this.reminderScheduler = new ReminderScheduler(notificationExecutor, this::deliverReminder);
+        this.reminderStore = openReminderStore();
+    }
+    
+    /**
+     * Register the built-in channels.
+     * Limits are (concurrent sends, recipients per bulk call, recipients per second, burst);
+     * bursts cover at least one full bulk batch.
+     */
+    private void registerDefaultChannels() {
+        registerChannel(new SimulatedProviderChannel(NotificationType.EMAIL,
+            new NotificationChannel.Limits(50, 1000, 1000, 1000), 500, bulkProvider));
+        registerChannel(new SimulatedProviderChannel(NotificationType.SMS,
+            new NotificationChannel.Limits(20, 250, 100, 250), 300, bulkProvider));
+        registerChannel(new SimulatedProviderChannel(NotificationType.PUSH,
+            new NotificationChannel.Limits(100, 500, 2000, 500), 200, bulkProvider));
+        registerChannel(new WebhookChannel(
+            new NotificationChannel.Limits(20, 100, 50, 100), Duration.ofSeconds(10)));
+        registerChannel(new InAppChannel(
+            new NotificationChannel.Limits(200, 10_000, 50_000, 10_000), 100));
+        
+        Path fileSinkPath = configuredPath(FILE_SINK_PROPERTY, "notifications.log");
+        if (fileSinkPath == null) {
+            logger.info("File notification channel disabled; set " + FILE_SINK_PROPERTY + " or "
+                        + DATA_DIRECTORY_PROPERTY + " to enable it");
+            return;
+        }
+        try {
+            registerChannel(new FileSinkChannel(
+                new NotificationChannel.Limits(1, 5000, 100_000, 5000), fileSinkPath));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "File notification channel unavailable: " + fileSinkPath, e);
+        }
+    }
+    
+    /**
+     * Resolve the path of a notification file from its own property, or else from the data
+     * directory, so nothing is written under the working directory unless configured
+     * 
+     * @param property The system property naming the file
+     * @param fileName The file name within the data directory
+     * @return The path, or null if neither property is set
+     */
+    private static Path configuredPath(String property, String fileName) {
+        String path = System.getProperty(property);
+        if (path != null) {
+            return Paths.get(path);
+        }
+        String directory = System.getProperty(DATA_DIRECTORY_PROPERTY);
+        return directory == null ? null : Paths.get(directory, fileName);
+    }
+    
+    /**
+     * Register a channel, replacing any channel registered for the same type.
+     * Sends already queued on a replaced channel are delivered before it is closed.
+     * 
+     * @param channel The channel to register
+     */
+    public synchronized void registerChannel(NotificationChannel channel) {
+        Map<NotificationType, ChannelDispatcher> updated = new EnumMap<>(NotificationType.class);
+        updated.putAll(dispatchers);
+        ChannelDispatcher replacement = new ChannelDispatcher(channel, notificationExecutor, MAX_CHANNEL_BACKLOG);
+        ChannelDispatcher previous = updated.put(channel.getType(), replacement);
+        dispatchers = updated;
+        
+        if (previous != null) {
+            try {
+                previous.awaitIdle(60, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            previous.close();
+            // Anything the old channel did not get to moves to the new one
+            for (Notification notification : previous.drainQueued()) {
+                replacement.dispatch(notification);
+            }
+            previous.getChannel().close();
+        }
+        logger.info("Registered " + channel.getType() + " notification channel");
+    }
+    
+    /**
+     * Get the channel registered for a type
+     * 
+     * @param type The channel type
+     * @return The channel, or null if none is registered
+     */
+    public NotificationChannel getChannel(NotificationType type) {
+        ChannelDispatcher dispatcher = dispatchers.get(type);
+        return dispatcher == null ? null : dispatcher.getChannel();
+    }
+    
+    /**
+     * Open the durable reminder log and reschedule the reminders pending in it
+     * 
+     * @return The reminder store, or null if none is configured or it could not be opened
      */
-    private NotificationManager() {
-        this.notificationExecutor = Executors.newFixedThreadPool(5);
+    private ReminderStore openReminderStore() {
+        Path path = configuredPath(REMINDER_LOG_PROPERTY, "reminders.log");
+        if (path == null) {
+            logger.info("Reminder log disabled, reminders will not survive restarts; set "
+                        + REMINDER_LOG_PROPERTY + " or " + DATA_DIRECTORY_PROPERTY + " to enable it");
+            return null;
+        }
+        try {
+            ReminderStore store = new ReminderStore(path);
+            for (ReminderScheduler.Reminder reminder : store.replay()) {
+                reminderScheduler.schedule(reminder);
+            }
+            
+            // Compact the log in the background every 10 minutes
+            reminderScheduler.schedulePeriodic(() -> {
+                try {
+                    store.compactIfNeeded();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error compacting reminder log", e);
+                }
+            }, 10, TimeUnit.MINUTES);
+            return store;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Reminder log unavailable, reminders will not survive restarts: " + path, e);
+            return null;
+        }
     }
     
     /**
@@ -34,11 +270,171 @@ public class NotificationManager {
      */
     public static synchronized NotificationManager getInstance() {
         if (instance == null) {
-            instance = new NotificationManager();
+            instance = new NotificationManager(resolveDispatchMode());
         }
         return instance;
     }
     
+    /**
+     * Resolve the dispatch mode from the system property
+     */
+    private static DispatchMode resolveDispatchMode() {
+        String configured = System.getProperty(DISPATCH_MODE_PROPERTY);
+        if (configured != null) {
+            try {
+                return DispatchMode.valueOf(configured.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warning("Unknown notification dispatch mode: " + configured);
+            }
+        }
+        return DispatchMode.VIRTUAL_THREADS;
+    }
+    
+    /**
+     * Get the dispatch mode
+     * 
+     * @return How notification sends are run
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+    
+    /**
+     * Get the provider stub behind the simulated channels, e.g. to inspect its call counts
+     * 
+     * @return The bulk provider
+     */
+    public LocalNotificationProvider getBulkProvider() {
+        return bulkProvider;
+    }
+    
+    /**
+     * Get the dispatcher for a channel, e.g. to inspect its backlog
+     * 
+     * @param type The channel type
+     * @return The channel dispatcher, or null if no channel is registered
+     */
+    public ChannelDispatcher getDispatcher(NotificationType type) {
+        return dispatchers.get(type);
+    }
+    
+    /**
+     * Get queue depth and wait time metrics for a channel
+     * 
+     * @param type The channel type
+     * @return The channel metrics
+     */
+    public ChannelDispatcher.Metrics getChannelMetrics(NotificationType type) {
+        ChannelDispatcher dispatcher = dispatchers.get(type);
+        return dispatcher == null ? null : dispatcher.getMetrics();
+    }
+    
+    /**
+     * Send a notification on its channel
+     * 
+     * Blocks while the channel's backlog is full.
+     * 
+     * @param notification The notification
+     * @return true if the notification was queued or, during a drain, deferred;
+     *         false if its channel is not registered or not accepting sends
+     */
+    public boolean send(Notification notification) {
+        ChannelDispatcher dispatcher = dispatchers.get(notification.type());
+        if (dispatcher == null) {
+            logger.warning("No channel registered for " + notification.type() + " notifications");
+            return false;
+        }
+        if (draining) {
+            return defer(notification, System.currentTimeMillis()) == SubmissionStatus.DEFERRED;
+        }
+        return dispatcher.dispatch(notification);
+    }
+    
+    /**
+     * Submit a notification without blocking.
+     * If the channel's backlog is full, or a drain has started, the notification is
+     * persisted to the durable queue and retried later instead.
+     * 
+     * @param notification The notification
+     * @return ACCEPTED if queued for delivery, DEFERRED if persisted for later delivery,
+     *         REJECTED if its channel is not registered or it could not be persisted
+     */
+    public SubmissionStatus submit(Notification notification) {
+        ChannelDispatcher dispatcher = dispatchers.get(notification.type());
+        if (dispatcher == null) {
+            logger.warning("No channel registered for " + notification.type() + " notifications");
+            return SubmissionStatus.REJECTED;
+        }
+        if (!draining && dispatcher.tryDispatch(notification)) {
+            return SubmissionStatus.ACCEPTED;
+        }
+        return defer(notification, System.currentTimeMillis() + DEFER_RETRY_MILLIS);
+    }
+    
+    /**
+     * Persist a notification to the durable queue and, unless draining, schedule its retry
+     * 
+     * @param notification The notification
+     * @param dueAt When to retry it, in epoch milliseconds
+     * @return DEFERRED if persisted, REJECTED otherwise
+     */
+    private SubmissionStatus defer(Notification notification, long dueAt) {
+        if (reminderStore == null || closed) {
+            return SubmissionStatus.REJECTED;
+        }
+        ReminderScheduler.Reminder reminder = new ReminderScheduler.Reminder(
+            IdGenerator.getInstance().nextId(), notification, dueAt);
+        try {
+            reminderStore.appendScheduled(reminder);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not defer " + notification.type() + " notification", e);
+            return SubmissionStatus.REJECTED;
+        }
+        if (!draining) {
+            reminderScheduler.schedule(reminder);
+        }
+        return SubmissionStatus.DEFERRED;
+    }
+    
+    /**
+     * Send a notification that supersedes earlier ones about the same topic.
+     * Within the collapse window only the latest notification to the recipient
+     * about the topic is sent.
+     * 
+     * @param notification The notification
+     * @param topic What the notification is about, e.g. "order:ORD123"
+     */
+    public void sendCollapsible(Notification notification, String topic) {
+        if (!dispatchers.containsKey(notification.type())) {
+            logger.warning("No channel registered for " + notification.type() + " notifications");
+            return;
+        }
+        collapser.submit(topic, notification);
+    }
+    
+    /**
+     * Notify a customer of an order's current status.
+     * Rapid status changes are collapsed so the customer only gets the latest one.
+     * 
+     * @param order The order
+     * @param recipient The recipient on the channel
+     * @param type The channel to send on
+     */
+    public void sendOrderStatusNotification(Order order, String recipient, NotificationType type) {
+        String subject = "Order " + order.getOrderId() + " update";
+        String message = "Your order " + order.getOrderId() + " is now " + order.getStatus() + ".";
+        sendCollapsible(new Notification(type, recipient, subject, message, null), "order:" + order.getOrderId());
+    }
+    
+    /**
+     * Get the number of notifications dropped because a later one superseded them
+     * 
+     * @return The collapsed count
+     */
+    public long getCollapsedNotificationCount() {
+        return collapser.getCollapsedCount();
+    }
+    
     /**
      * Send an email notification
      * 
@@ -47,7 +443,7 @@ public class NotificationManager {
      * @param message The email message
      */
     public void sendEmailNotification(String recipient, String subject, String message) {
-        notificationExecutor.submit(new EmailNotificationTask(recipient, subject, message));
+        send(new Notification(NotificationType.EMAIL, recipient, subject, message, null));
     }
     
     /**
@@ -57,7 +453,7 @@ public class NotificationManager {
      * @param message The SMS message
      */
     public void sendSMSNotification(String phoneNumber, String message) {
-        notificationExecutor.submit(new SMSNotificationTask(phoneNumber, message));
+        send(new Notification(NotificationType.SMS, phoneNumber, null, message, null));
     }
     
     /**
@@ -69,7 +465,7 @@ public class NotificationManager {
      * @param data Additional data for the notification
      */
     public void sendPushNotification(String deviceToken, String title, String message, String data) {
-        notificationExecutor.submit(new PushNotificationTask(deviceToken, title, message, data));
+        send(new Notification(NotificationType.PUSH, deviceToken, title, message, data));
     }
     
     /**
@@ -79,199 +475,341 @@ public class NotificationManager {
      * @param message The reminder message
      * @param delayHours The delay in hours before sending
      * @param notificationType The type of notification (email, sms, push)
+     * @return The reminder ID, or -1 if the notification type is unknown or the manager is draining
      */
-    public void scheduleReminder(String recipient, String message, int delayHours, String notificationType) {
-        notificationExecutor.submit(new ReminderTask(recipient, message, delayHours, notificationType));
+    public long scheduleReminder(String recipient, String message, int delayHours, String notificationType) {
+        return scheduleReminder(recipient, message, delayHours, TimeUnit.HOURS, notificationType);
     }
     
     /**
-     * Send a batch of notifications
+     * Schedule a reminder notification with an explicit delay unit
+     * 
+     * @param recipient The recipient (email or phone)
+     * @param message The reminder message
+     * @param delay The delay before sending
+     * @param unit The unit of the delay
+     * @param notificationType The type of notification (email, sms, push)
+     * @return The reminder ID, or -1 if the notification type is unknown or the manager is draining
+     */
+    public long scheduleReminder(String recipient, String message, long delay, TimeUnit unit, String notificationType) {
+        NotificationType type = NotificationType.parse(notificationType);
+        if (type == null) {
+            logger.warning("Unknown reminder notification type: " + notificationType);
+            return -1;
+        }
+        return scheduleReminder(recipient, message, delay, unit, type);
+    }
+    
+    /**
+     * Schedule a reminder notification on a channel
+     * 
+     * @param recipient The recipient
+     * @param message The reminder message
+     * @param delay The delay before sending
+     * @param unit The unit of the delay
+     * @param type The channel to deliver on
+     * @return The reminder ID, or -1 if the reminder was rejected because the manager is draining
+     */
+    public long scheduleReminder(String recipient, String message, long delay, TimeUnit unit, NotificationType type) {
+        if (draining) {
+            logger.warning("Reminder for " + recipient + " rejected: notifications are draining");
+            return -1;
+        }
+        // Persist before scheduling so the completion record can never precede it in the log
+        Notification notification = new Notification(type, recipient, "Medication Reminder", message, null);
+        ReminderScheduler.Reminder reminder = new ReminderScheduler.Reminder(
+            IdGenerator.getInstance().nextId(), notification, System.currentTimeMillis() + unit.toMillis(delay));
+        boolean persisted = false;
+        if (reminderStore != null) {
+            try {
+                reminderStore.appendScheduled(reminder);
+                persisted = true;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not persist reminder " + reminder.reminderId(), e);
+            }
+        }
+        try {
+            reminderScheduler.schedule(reminder);
+        } catch (RejectedExecutionException e) {
+            // A drain started after the check above; a persisted reminder is sent on the next start
+            if (!persisted) {
+                logger.warning("Reminder for " + recipient + " rejected: notifications are draining");
+                return -1;
+            }
+        }
+        
+        logger.info("Scheduled " + type + " reminder for " + recipient + " in " + delay + " " + unit.toString().toLowerCase());
+        return reminder.reminderId();
+    }
+    
+    /**
+     * Cancel a pending reminder
+     * 
+     * @param reminderId The reminder ID
+     * @return true if the reminder was pending and is now cancelled
+     */
+    public boolean cancelReminder(long reminderId) {
+        if (!reminderScheduler.cancel(reminderId)) {
+            return false;
+        }
+        markReminderCompleted(reminderId);
+        return true;
+    }
+    
+    /**
+     * Record in the durable log that a reminder no longer needs to be sent
+     * 
+     * @param reminderId The reminder ID
+     */
+    private void markReminderCompleted(long reminderId) {
+        if (reminderStore == null) {
+            return;
+        }
+        try {
+            reminderStore.appendCompleted(reminderId);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not persist completion of reminder " + reminderId, e);
+        }
+    }
+    
+    /**
+     * Get the number of reminders waiting to be sent
+     * 
+     * @return The pending reminder count
+     */
+    public int getPendingReminderCount() {
+        return reminderScheduler.getPendingCount();
+    }
+    
+    /**
+     * Send a batch of marketing notifications
      * 
      * @param recipients Array of recipients
      * @param subject The notification subject
      * @param message The notification message
      * @param notificationType The type of notification (email, sms, push)
+     * @return ACCEPTED if queued, DEFERRED if persisted during a drain, REJECTED otherwise
      */
-    public void sendBatchNotifications(String[] recipients, String subject, String message, String notificationType) {
-        for (String recipient : recipients) {
-            if ("email".equalsIgnoreCase(notificationType)) {
-                sendEmailNotification(recipient, subject, message);
-            } else if ("sms".equalsIgnoreCase(notificationType)) {
-                sendSMSNotification(recipient, message);
-            } else if ("push".equalsIgnoreCase(notificationType)) {
-                sendPushNotification(recipient, subject, message, null);
-            }
-        }
+    public SubmissionStatus sendBatchNotifications(String[] recipients, String subject, String message,
+                                                   String notificationType) {
+        return sendBatchNotifications(recipients, subject, message, notificationType, NotificationPriority.MARKETING);
     }
     
     /**
-     * Submit a custom notification task to the executor
+     * Send a batch of notifications with a priority class.
+     * Transactional batches are sent ahead of queued marketing batches on the same channel.
      * 
-     * @param task The task to submit
+     * @param recipients Array of recipients
+     * @param subject The notification subject
+     * @param message The notification message
+     * @param notificationType The type of notification (email, sms, push)
+     * @param priority The priority class
+     * @return ACCEPTED if queued, DEFERRED if persisted during a drain, REJECTED otherwise
      */
-    public void submitCustomNotificationTask(Runnable task) {
-        notificationExecutor.submit(task);
+    public SubmissionStatus sendBatchNotifications(String[] recipients, String subject, String message,
+                                                   String notificationType, NotificationPriority priority) {
+        NotificationType type = NotificationType.parse(notificationType);
+        if (type == null) {
+            logger.warning("Unknown batch notification type: " + notificationType);
+            return SubmissionStatus.REJECTED;
+        }
+        return sendBatchNotifications(recipients, subject, message, type, priority);
     }
     
     /**
-     * Shut down the notification manager
+     * Send a batch of notifications on a channel
      * 
-     * @param waitForCompletion Whether to wait for pending notifications to complete
+     * @param recipients Array of recipients
+     * @param subject The notification subject
+     * @param message The notification message
+     * @param type The channel to send on
+     * @param priority The priority class
+     * @return ACCEPTED if queued, DEFERRED if persisted during a drain, REJECTED otherwise
      */
-    public void shutdown(boolean waitForCompletion) {
-        notificationExecutor.shutdown();
-        
-        if (waitForCompletion) {
-            try {
-                if (!notificationExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
-                    notificationExecutor.shutdownNow();
+    public SubmissionStatus sendBatchNotifications(String[] recipients, String subject, String message,
+                                                   NotificationType type, NotificationPriority priority) {
+        if (!dispatchers.containsKey(type)) {
+            logger.warning("No channel registered for " + type + " notifications");
+            return SubmissionStatus.REJECTED;
+        }
+        if (draining) {
+            SubmissionStatus status = SubmissionStatus.DEFERRED;
+            for (String recipient : recipients) {
+                if (defer(new Notification(type, recipient, subject, message, null), System.currentTimeMillis())
+                        == SubmissionStatus.REJECTED) {
+                    status = SubmissionStatus.REJECTED;
                 }
-            } catch (InterruptedException e) {
-                notificationExecutor.shutdownNow();
-                Thread.currentThread().interrupt();
             }
-        } else {
-            notificationExecutor.shutdownNow();
+            return status;
         }
+        
+        // Recipients are grouped into batches sized for the channel, one channel call each
+        batcher.submitAll(type, priority, subject, message, recipients);
+        return SubmissionStatus.ACCEPTED;
     }
     
     /**
-     * Task for sending email notifications
+     * Submit a custom notification task to the executor.
+     * At most a fixed number of custom tasks may be queued or running at once.
+     * 
+     * @param task The task to submit
+     * @return ACCEPTED if the task will run, REJECTED if the limit is reached or a drain has started
      */
-    private class EmailNotificationTask implements Runnable {
-        private final String recipient;
-        private final String subject;
-        private final String message;
-        
-        public EmailNotificationTask(String recipient, String subject, String message) {
-            this.recipient = recipient;
-            this.subject = subject;
-            this.message = message;
+    public SubmissionStatus submitCustomNotificationTask(Runnable task) {
+        if (draining || !customTaskPermits.tryAcquire()) {
+            return SubmissionStatus.REJECTED;
         }
-        
-        @Override
-        public void run() {
-            try {
-                // In a real implementation, this would use an email service
-                // For now, we'll just log that the email would be sent
-                logger.info("Sending email to " + recipient + " with subject: " + subject);
-                // Simulate email sending delay
-                Thread.sleep(500);
-                logger.info("Email sent to " + recipient);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.log(Level.WARNING, "Email notification interrupted", e);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error sending email notification", e);
-            }
+        try {
+            notificationExecutor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    customTaskPermits.release();
+                }
+            });
+            return SubmissionStatus.ACCEPTED;
+        } catch (RejectedExecutionException e) {
+            customTaskPermits.release();
+            return SubmissionStatus.REJECTED;
         }
     }
     
     /**
-     * Task for sending SMS notifications
+     * Stop accepting new sends and flush everything in progress within a deadline.
+     * 
+     * Pending collapsed notifications and partial batches are offered to their channels,
+     * then queued and in-flight sends get until the deadline to finish. Whatever is still
+     * queued at the deadline is persisted to the durable queue and sent on the next start,
+     * as is anything submitted during the drain. Sends still running at the deadline are
+     * interrupted and counted as dropped, since they may or may not have reached the provider.
+     * 
+     * @param timeout The maximum time to wait for sends to finish; zero persists everything queued at once
+     * @param unit The unit of the timeout
+     * @return The outcome of the drain; later calls return the same outcome
      */
-    private class SMSNotificationTask implements Runnable {
-        private final String phoneNumber;
-        private final String message;
+    public synchronized DrainResult drain(long timeout, TimeUnit unit) {
+        if (drainResult != null) {
+            return drainResult;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean dispatch = timeout > 0;
+        draining = true;
+        
+        // Pending reminders stay in the durable log and are rescheduled on the next start
+        reminderScheduler.close();
         
-        public SMSNotificationTask(String phoneNumber, String message) {
-            this.phoneNumber = phoneNumber;
-            this.message = message;
+        // Stop the batch timer first, without flushing: a flush blocks while a channel's
+        // backlog is full, and nothing would bound that wait. Partial batches stay pending
+        // and are offered below without blocking
+        batcher.close();
+        
+        List<Notification> unsent = new ArrayList<>();
+        for (Notification notification : collapser.drainPending()) {
+            ChannelDispatcher dispatcher = dispatchers.get(notification.type());
+            if (!dispatch || dispatcher == null || !dispatcher.tryDispatch(notification)) {
+                unsent.add(notification);
+            }
         }
+        unsent.addAll(batcher.drainPending(dispatch));
         
-        @Override
-        public void run() {
-            try {
-                // In a real implementation, this would use an SMS service
-                // For now, we'll just log that the SMS would be sent
-                logger.info("Sending SMS to " + phoneNumber + ": " + message);
-                // Simulate SMS sending delay
-                Thread.sleep(300);
-                logger.info("SMS sent to " + phoneNumber);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.log(Level.WARNING, "SMS notification interrupted", e);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error sending SMS notification", e);
+        // Stop the collapse timer; anything collapsed since the drain above is flushed now
+        // and deferred, since sends defer while draining
+        collapser.close();
+        
+        boolean completed = true;
+        try {
+            for (ChannelDispatcher dispatcher : dispatchers.values()) {
+                long remaining = deadline - System.nanoTime();
+                if (!dispatcher.awaitIdle(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                    completed = false;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completed = false;
         }
-    }
-    
-    /**
-     * Task for sending push notifications
-     */
-    private class PushNotificationTask implements Runnable {
-        private final String deviceToken;
-        private final String title;
-        private final String message;
-        private final String data;
+        for (ChannelDispatcher dispatcher : dispatchers.values()) {
+            dispatcher.close();
+            unsent.addAll(dispatcher.drainQueued());
+        }
+        // Batches started by producers that raced the drain
+        unsent.addAll(batcher.drainPending(false));
         
-        public PushNotificationTask(String deviceToken, String title, String message, String data) {
-            this.deviceToken = deviceToken;
-            this.title = title;
-            this.message = message;
-            this.data = data;
+        int deferred = 0;
+        int dropped = 0;
+        long now = System.currentTimeMillis();
+        for (Notification notification : unsent) {
+            if (defer(notification, now) == SubmissionStatus.DEFERRED) {
+                deferred++;
+            } else {
+                dropped++;
+            }
         }
         
-        @Override
-        public void run() {
-            try {
-                // In a real implementation, this would use a push notification service
-                // For now, we'll just log that the push notification would be sent
-                logger.info("Sending push notification to device " + deviceToken + ": " + title);
-                // Simulate push notification sending delay
-                Thread.sleep(200);
-                logger.info("Push notification sent to device " + deviceToken);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.log(Level.WARNING, "Push notification interrupted", e);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error sending push notification", e);
+        notificationExecutor.shutdown();
+        try {
+            long remaining = deadline - System.nanoTime();
+            if (!notificationExecutor.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                for (ChannelDispatcher dispatcher : dispatchers.values()) {
+                    dropped += dispatcher.getInFlight();
+                }
+                notificationExecutor.shutdownNow();
+                completed = false;
             }
+        } catch (InterruptedException e) {
+            notificationExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+            completed = false;
         }
+        
+        if (reminderStore != null) {
+            reminderStore.sync();
+        }
+        if (dropped > 0) {
+            logger.warning("Dropped " + dropped + " notifications while draining");
+        }
+        logger.info("Notification drain finished: " + deferred + " deferred to the durable queue");
+        drainResult = new DrainResult(completed && dropped == 0, deferred, dropped);
+        return drainResult;
     }
     
     /**
-     * Task for scheduling reminder notifications
+     * Shut down the notification manager.
+     * Nothing queued is lost: notifications that are not sent before shutdown are
+     * persisted to the durable queue and sent on the next start.
+     * 
+     * @param waitForCompletion Whether to wait up to 60 seconds for pending notifications to be sent
      */
-    private class ReminderTask implements Runnable {
-        private final String recipient;
-        private final String message;
-        private final int delayHours;
-        private final String notificationType;
-        
-        public ReminderTask(String recipient, String message, int delayHours, String notificationType) {
-            this.recipient = recipient;
-            this.message = message;
-            this.delayHours = delayHours;
-            this.notificationType = notificationType;
+    public synchronized void shutdown(boolean waitForCompletion) {
+        if (closed) {
+            return;
         }
+        drain(waitForCompletion ? 60 : 0, TimeUnit.SECONDS);
         
-        @Override
-        public void run() {
+        closed = true;
+        for (ChannelDispatcher dispatcher : dispatchers.values()) {
+            dispatcher.getChannel().close();
+        }
+        if (reminderStore != null) {
             try {
-                logger.info("Scheduling " + notificationType + " reminder for " + recipient + " in " + delayHours + " hours");
-                
-                // In a real implementation, this would use a scheduling service
-                // For demo purposes, we'll just sleep for a few seconds instead of hours
-                Thread.sleep(delayHours * 1000);
-                
-                // Send the notification based on the type
-                if ("email".equalsIgnoreCase(notificationType)) {
-                    sendEmailNotification(recipient, "Medication Reminder", message);
-                } else if ("sms".equalsIgnoreCase(notificationType)) {
-                    sendSMSNotification(recipient, message);
-                } else if ("push".equalsIgnoreCase(notificationType)) {
-                    sendPushNotification(recipient, "Medication Reminder", message, null);
-                }
-                
-                logger.info("Reminder sent to " + recipient);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.log(Level.WARNING, "Reminder task interrupted", e);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error in reminder task", e);
+                reminderStore.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error closing reminder log", e);
             }
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Send a reminder that has become due
+     * 
+     * @param reminder The due reminder
+     */
+    private void deliverReminder(ReminderScheduler.Reminder reminder) {
+        if (!send(reminder.notification())) {
+            // Left pending in the durable log
+            return;
+        }
+        markReminderCompleted(reminder.reminderId());
+        logger.info("Reminder sent to " + reminder.notification().recipient());
+    }
+}
\ No newline at end of file
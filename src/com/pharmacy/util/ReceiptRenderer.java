@@ -0,0 +1,283 @@
+package com.pharmacy.util;
+
+import com.pharmacy.model.Order;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders payment receipts from a precompiled template.
+ *
+ * The template is parsed once into literal and field segments. Rendering writes into a
+ * reusable per-thread character buffer, formats amounts as fixed-point cents without
+ * String.format and caches the formatted date per second, so a receipt costs almost no
+ * allocation beyond the final output.
+ */
+public class ReceiptRenderer {
+
+    /**
+     * Default receipt layout, matching the original PaymentServiceImpl receipt
+     */
+    public static final String DEFAULT_TEMPLATE =
+        "=== PAYMENT RECEIPT ===\n" +
+        "Order ID: {{orderId}}\n" +
+        "Date: {{date}}\n" +
+        "Amount: ${{amount}}\n" +
+        "Payment Method: {{paymentMethod}}\n" +
+        "Customer ID: {{customerId}}\n" +
+        "Status: PAID\n" +
+        "=====================";
+
+    private static final ReceiptRenderer DEFAULT = compile(DEFAULT_TEMPLATE);
+
+    // Flush bulk output once the buffer holds this many characters
+    private static final int FLUSH_THRESHOLD = 8192;
+
+    // Same layout as java.util.Date#toString
+    private static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+    // Enum for template fields
+    private enum Field {
+        ORDER_ID("orderId"),
+        DATE("date"),
+        AMOUNT("amount"),
+        PAYMENT_METHOD("paymentMethod"),
+        CUSTOMER_ID("customerId");
+
+        private final String placeholder;
+
+        Field(String placeholder) {
+            this.placeholder = placeholder;
+        }
+
+        private static Field fromPlaceholder(String placeholder) {
+            for (Field field : values()) {
+                if (field.placeholder.equals(placeholder)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("Unknown receipt field: " + placeholder);
+        }
+    }
+
+    /**
+     * Reusable per-thread output buffer with a cached date
+     */
+    private static final class Buffer {
+        private char[] chars = new char[1024];
+        private int length;
+        private long cachedSecond = Long.MIN_VALUE;
+        private char[] cachedDate = new char[0];
+
+        private void append(char[] source) {
+            ensureCapacity(source.length);
+            System.arraycopy(source, 0, chars, length, source.length);
+            length += source.length;
+        }
+
+        private void append(String source) {
+            ensureCapacity(source.length());
+            source.getChars(0, source.length(), chars, length);
+            length += source.length();
+        }
+
+        private void append(char c) {
+            ensureCapacity(1);
+            chars[length++] = c;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + extra));
+            }
+        }
+    }
+
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    // Precompiled template: each segment is either a char[] literal or a Field
+    private final Object[] segments;
+
+    private ReceiptRenderer(Object[] segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Get the renderer for the default receipt template
+     *
+     * @return The default renderer
+     */
+    public static ReceiptRenderer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Compile a receipt template.
+     * Placeholders are written as {{orderId}}, {{date}}, {{amount}}, {{paymentMethod}} and {{customerId}}.
+     *
+     * @param template The template text
+     * @return A renderer for the template
+     * @throws IllegalArgumentException if the template contains an unknown or unclosed placeholder
+     */
+    public static ReceiptRenderer compile(String template) {
+        List<Object> segments = new ArrayList<>();
+        int position = 0;
+        while (position < template.length()) {
+            int open = template.indexOf("{{", position);
+            if (open < 0) {
+                segments.add(template.substring(position).toCharArray());
+                break;
+            }
+            int close = template.indexOf("}}", open + 2);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at position " + open);
+            }
+            if (open > position) {
+                segments.add(template.substring(position, open).toCharArray());
+            }
+            segments.add(Field.fromPlaceholder(template.substring(open + 2, close).trim()));
+            position = close + 2;
+        }
+        return new ReceiptRenderer(segments.toArray());
+    }
+
+    /**
+     * Render a receipt for an order
+     *
+     * @param order The order to render
+     * @return The receipt text
+     */
+    public String render(Order order) {
+        Buffer buffer = BUFFERS.get();
+        buffer.length = 0;
+        renderInto(order, buffer, System.currentTimeMillis());
+        return new String(buffer.chars, 0, buffer.length);
+    }
+
+    /**
+     * Render a receipt for an order directly to an output
+     *
+     * @param order The order to render
+     * @param out The output to write to
+     * @throws IOException if writing fails
+     */
+    public void render(Order order, Appendable out) throws IOException {
+        Buffer buffer = BUFFERS.get();
+        buffer.length = 0;
+        renderInto(order, buffer, System.currentTimeMillis());
+        flush(buffer, out);
+    }
+
+    /**
+     * Stream receipts for many orders to an output, separated by blank lines.
+     * Unpaid orders are skipped. Output is written in large chunks, so a Writer
+     * over a file or channel receives few, large writes.
+     *
+     * @param orders The orders to render
+     * @param out The output to write to
+     * @return The number of receipts written
+     * @throws IOException if writing fails
+     */
+    public long renderReceipts(Iterable<Order> orders, Appendable out) throws IOException {
+        Buffer buffer = BUFFERS.get();
+        buffer.length = 0;
+        long rendered = 0;
+        try {
+            for (Order order : orders) {
+                if (order == null || !order.isPaid()) {
+                    continue;
+                }
+                renderInto(order, buffer, System.currentTimeMillis());
+                buffer.append('\n');
+                buffer.append('\n');
+                rendered++;
+                if (buffer.length >= FLUSH_THRESHOLD) {
+                    flush(buffer, out);
+                }
+            }
+            flush(buffer, out);
+        } finally {
+            buffer.length = 0;
+        }
+        return rendered;
+    }
+
+    private void renderInto(Order order, Buffer buffer, long now) {
+        for (Object segment : segments) {
+            if (segment instanceof char[]) {
+                buffer.append((char[]) segment);
+                continue;
+            }
+            switch ((Field) segment) {
+                case ORDER_ID -> buffer.append(String.valueOf(order.getOrderId()));
+                case DATE -> appendDate(buffer, now);
+                case AMOUNT -> appendCents(buffer, Math.round(order.getTotalAmount() * 100));
+                case PAYMENT_METHOD -> buffer.append(String.valueOf(order.getPaymentMethod()));
+                case CUSTOMER_ID -> buffer.append(String.valueOf(order.getCustomerId()));
+            }
+        }
+    }
+
+    /**
+     * Append an amount in cents as a fixed-point number with two decimals
+     */
+    private static void appendCents(Buffer buffer, long cents) {
+        if (cents < 0) {
+            buffer.append('-');
+            cents = -cents;
+        }
+        long whole = cents / 100;
+        int fraction = (int) (cents % 100);
+
+        // Digits of the whole part, written right to left
+        buffer.ensureCapacity(20 + 3);
+        int start = buffer.length;
+        do {
+            buffer.chars[buffer.length++] = (char) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        for (int i = start, j = buffer.length - 1; i < j; i++, j--) {
+            char swap = buffer.chars[i];
+            buffer.chars[i] = buffer.chars[j];
+            buffer.chars[j] = swap;
+        }
+
+        buffer.chars[buffer.length++] = '.';
+        buffer.chars[buffer.length++] = (char) ('0' + fraction / 10);
+        buffer.chars[buffer.length++] = (char) ('0' + fraction % 10);
+    }
+
+    /**
+     * Append the current date, reformatting at most once per second per thread
+     */
+    private static void appendDate(Buffer buffer, long now) {
+        long second = now / 1000;
+        if (second != buffer.cachedSecond) {
+            buffer.cachedDate = DATE_FORMAT.format(Instant.ofEpochMilli(now).atZone(ZoneId.systemDefault())).toCharArray();
+            buffer.cachedSecond = second;
+        }
+        buffer.append(buffer.cachedDate);
+    }
+
+    private static void flush(Buffer buffer, Appendable out) throws IOException {
+        if (buffer.length == 0) {
+            return;
+        }
+        if (out instanceof Writer) {
+            ((Writer) out).write(buffer.chars, 0, buffer.length);
+        } else if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(buffer.chars, 0, buffer.length);
+        } else {
+            out.append(CharBuffer.wrap(buffer.chars, 0, buffer.length));
+        }
+        buffer.length = 0;
+    }
+}
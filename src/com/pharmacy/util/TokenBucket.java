@@ -0,0 +1,91 @@
+package com.pharmacy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket rate limiter.
+ *
+ * Implemented as a generic cell rate algorithm: the only state is the theoretical
+ * arrival time of the next token, updated with compare-and-set, so acquiring tokens
+ * never blocks or takes a lock.
+ */
+public class TokenBucket {
+    
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final int capacity;
+    
+    // Theoretical arrival time of the next token, in System.nanoTime() units
+    private final AtomicLong nextFreeNanos;
+    
+    /**
+     * Create a token bucket that starts full
+     * 
+     * @param tokensPerSecond Sustained rate
+     * @param capacity Maximum burst size
+     */
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        if (tokensPerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Rate and capacity must be positive");
+        }
+        this.nanosPerToken = Math.max(1, (long) (1_000_000_000L / tokensPerSecond));
+        this.capacity = capacity;
+        this.burstNanos = nanosPerToken * capacity;
+        this.nextFreeNanos = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+    
+    /**
+     * Take tokens if they are available now
+     * 
+     * @param tokens The number of tokens, at most the bucket capacity
+     * @return true if the tokens were taken, false otherwise
+     * @throws IllegalArgumentException if more tokens are requested than the bucket can hold
+     */
+    public boolean tryAcquire(int tokens) {
+        long cost = cost(tokens);
+        while (true) {
+            long now = System.nanoTime();
+            long current = nextFreeNanos.get();
+            long base = Math.max(current, now - burstNanos);
+            long next = base + cost;
+            if (next - now > 0) {
+                return false;
+            }
+            if (nextFreeNanos.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Get how long until the tokens would be available
+     * 
+     * @param tokens The number of tokens, at most the bucket capacity
+     * @return The wait in nanoseconds, or 0 if available now
+     * @throws IllegalArgumentException if more tokens are requested than the bucket can hold
+     */
+    public long nanosUntilAvailable(int tokens) {
+        long cost = cost(tokens);
+        long now = System.nanoTime();
+        long base = Math.max(nextFreeNanos.get(), now - burstNanos);
+        return Math.max(0, base + cost - now);
+    }
+    
+    // A request larger than the bucket could never be granted in full, so it is refused
+    // rather than charged for only part of its tokens
+    private long cost(int tokens) {
+        if (tokens > capacity) {
+            throw new IllegalArgumentException("Requested " + tokens + " tokens from a bucket of " + capacity);
+        }
+        return nanosPerToken * tokens;
+    }
+    
+    /**
+     * Get the maximum burst size
+     * 
+     * @return The bucket capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
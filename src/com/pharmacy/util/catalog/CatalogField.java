@@ -0,0 +1,62 @@
+package com.pharmacy.util.catalog;
+
+/**
+ * Medicine fields in catalog files, in export column order
+ */
+enum CatalogField {
+    MEDICINE_ID("medicineId"),
+    NAME("name"),
+    MANUFACTURER("manufacturer"),
+    PRICE("price"),
+    STOCK("stock"),
+    DESCRIPTION("description"),
+    REQUIRES_PRESCRIPTION("requiresPrescription"),
+    MANUFACTURE_DATE("manufactureDate"),
+    EXPIRY_DATE("expiryDate"),
+    CATEGORY("category"),
+    DOSAGE_FORM("dosageForm"),
+    SIDE_EFFECTS("sideEffects");
+
+    static final CatalogField[] FIELDS = values();
+
+    private final String key;
+
+    CatalogField(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the CSV column name and JSON key
+     *
+     * @return The key
+     */
+    String key() {
+        return key;
+    }
+
+    /**
+     * Find the field whose key equals a span of characters, without creating a string
+     *
+     * @param chars The characters
+     * @param start Start of the span
+     * @param end End of the span, exclusive
+     * @return The field, or null if the key is unknown
+     */
+    static CatalogField forKey(CharSequence chars, int start, int end) {
+        int length = end - start;
+        for (CatalogField field : FIELDS) {
+            String key = field.key;
+            if (key.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && Character.toLowerCase(chars.charAt(start + i)) == Character.toLowerCase(key.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+package com.pharmacy.util.catalog;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Text formats for catalog import and export
+ */
+public enum CatalogFormat {
+    // Comma-separated values with a header row naming the columns. Fields containing
+    // commas, quotes or line breaks are quoted, with quotes doubled; side effects are
+    // separated by semicolons.
+    CSV,
+    // One JSON object per line, keyed by the same names as the CSV columns; side effects
+    // are an array of strings
+    JSON_LINES;
+
+    /**
+     * Choose the format from a file's extension: .csv for CSV, and .jsonl, .ndjson or
+     * .json for JSON lines
+     *
+     * @param path The file
+     * @return The format
+     * @throws IllegalArgumentException if the extension is not recognised
+     */
+    public static CatalogFormat forPath(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) {
+            return CSV;
+        }
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) {
+            return JSON_LINES;
+        }
+        throw new IllegalArgumentException("Unknown catalog file format: " + path);
+    }
+}
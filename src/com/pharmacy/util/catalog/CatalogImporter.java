@@ -0,0 +1,389 @@
+package com.pharmacy.util.catalog;
+
+import com.pharmacy.dao.MedicineDAO;
+import com.pharmacy.model.Medicine;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Bulk import of medicines from CSV or JSON lines files into a {@link MedicineDAO}.
+ *
+ * The file is read and decoded in large chunks cut at record boundaries. Each chunk is
+ * handed whole to a worker thread, which parses its records in place with a
+ * {@link CatalogParser} and validates them, so parsing and validation run on every core
+ * while the next chunk is read. Valid medicines are collected in file order and applied to
+ * the DAO in batches through {@link MedicineDAO#saveOrUpdateAll}, which takes the DAO's lock
+ * and updates its indexes once per batch instead of once per row.
+ *
+ * Invalid records are skipped and counted; the first {@link #MAX_REPORTED_ERRORS} are
+ * reported with their line numbers. An import is not atomic: if reading fails part way,
+ * batches already applied remain in the DAO.
+ */
+public class CatalogImporter {
+
+    private static final Logger logger = Logger.getLogger(CatalogImporter.class.getName());
+
+    /**
+     * Default number of medicines applied to the DAO at a time
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50_000;
+
+    /**
+     * Number of invalid records reported in detail
+     */
+    public static final int MAX_REPORTED_ERRORS = 100;
+
+    // Characters per chunk; a chunk grows if a single record is longer
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int MAX_RECORD_SIZE = 64 << 20;
+
+    /**
+     * A record that could not be imported
+     */
+    public record RowError(long line, String message) {
+    }
+
+    /**
+     * Outcome of an import
+     */
+    public record Result(long records, long inserted, long updated, long rejected,
+                         List<RowError> errors, long elapsedMillis) {
+    }
+
+    /**
+     * A parsed and validated chunk
+     */
+    private record ParsedChunk(List<Medicine> medicines, List<RowError> errors, int records, int rejected, int lines) {
+    }
+
+    private final MedicineDAO dao;
+    private final int batchSize;
+    private final int parallelism;
+
+    /**
+     * Create an importer with the default batch size, validating on every core
+     *
+     * @param dao The DAO to import into
+     */
+    public CatalogImporter(MedicineDAO dao) {
+        this(dao, DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an importer
+     *
+     * @param dao The DAO to import into
+     * @param batchSize Medicines applied to the DAO at a time
+     * @param parallelism Number of threads parsing and validating records
+     */
+    public CatalogImporter(MedicineDAO dao, int batchSize, int parallelism) {
+        if (batchSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Batch size and parallelism must be positive");
+        }
+        this.dao = dao;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Import a file, choosing its format from its extension
+     *
+     * @param path The file
+     * @return The outcome
+     * @throws IOException if the file cannot be read, or is not a valid catalog file
+     */
+    public Result importFile(Path path) throws IOException {
+        return importFile(path, CatalogFormat.forPath(path));
+    }
+
+    /**
+     * Import a UTF-8 file
+     *
+     * @param path The file
+     * @param format The file's format
+     * @return The outcome
+     * @throws IOException if the file cannot be read, or is not a valid catalog file
+     */
+    public Result importFile(Path path, CatalogFormat format) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT));
+            return importFrom(reader, format, path.toString());
+        }
+    }
+
+    /**
+     * Import from a reader
+     *
+     * @param reader The catalog text; not closed
+     * @param format The text's format
+     * @param source Name of the source for log messages
+     * @return The outcome
+     * @throws IOException if the text cannot be read, or is not a valid catalog file
+     */
+    public Result importFrom(Reader reader, CatalogFormat format, String source) throws IOException {
+        long start = System.currentTimeMillis();
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "catalog-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Progress progress = new Progress(batchSize);
+        try {
+            CatalogParser parser = format == CatalogFormat.JSON_LINES ? CatalogParser.jsonLines() : null;
+            ArrayDeque<CompletableFuture<ParsedChunk>> pending = new ArrayDeque<>();
+            char[] buffer = new char[CHUNK_SIZE];
+            int filled = 0;
+            while (true) {
+                int n = reader.read(buffer, filled, buffer.length - filled);
+                boolean eof = n < 0;
+                if (!eof) {
+                    filled += n;
+                    if (filled < buffer.length) {
+                        continue;
+                    }
+                }
+
+                if (parser == null) {
+                    // CSV: the first record is the header
+                    int headerEnd = indexOf(buffer, filled, '\n');
+                    if (headerEnd < 0 && !eof) {
+                        buffer = grow(buffer);
+                        continue;
+                    }
+                    int consumed = headerEnd < 0 ? filled : headerEnd + 1;
+                    try {
+                        parser = CatalogParser.csv(CharBuffer.wrap(buffer, 0, filled), 0,
+                                                   trimLineEnd(buffer, 0, headerEnd < 0 ? filled : headerEnd));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Invalid catalog file " + source + ": " + e.getMessage(), e);
+                    }
+                    progress.line = 1;
+                    System.arraycopy(buffer, consumed, buffer, 0, filled - consumed);
+                    filled -= consumed;
+                }
+
+                int boundary = eof ? filled : parser.lastRecordEnd(buffer, filled);
+                if (boundary > 0) {
+                    // The chunk goes to a worker as it is; only the trailing partial record is copied
+                    char[] chunk = buffer;
+                    int length = boundary;
+                    CatalogParser chunkParser = parser;
+                    pending.add(CompletableFuture.supplyAsync(() -> parseChunk(chunkParser, chunk, length), workers));
+                    buffer = new char[Math.max(CHUNK_SIZE, 2 * (filled - boundary))];
+                    System.arraycopy(chunk, boundary, buffer, 0, filled - boundary);
+                    filled -= boundary;
+                } else if (filled == buffer.length) {
+                    // A single record fills the chunk
+                    buffer = grow(buffer);
+                }
+
+                // Bound the chunks in memory; applying one lets the workers move ahead
+                while (pending.size() > parallelism * 2) {
+                    progress.add(join(pending.poll()), this);
+                }
+                if (eof) {
+                    break;
+                }
+            }
+            while (!pending.isEmpty()) {
+                progress.add(join(pending.poll()), this);
+            }
+            progress.apply(this);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        logger.info("Imported " + (progress.inserted + progress.updated) + " medicines from " + source + " ("
+                    + progress.inserted + " new, " + progress.updated + " updated, " + progress.rejected
+                    + " rejected) in " + elapsed + " ms");
+        return new Result(progress.records, progress.inserted, progress.updated, progress.rejected,
+                          Collections.unmodifiableList(progress.errors), elapsed);
+    }
+
+    /**
+     * Parse and validate every record in a chunk; runs on a worker thread
+     */
+    private static ParsedChunk parseChunk(CatalogParser parser, char[] chunk, int length) {
+        CharBuffer chars = CharBuffer.wrap(chunk, 0, length);
+        List<Medicine> medicines = new ArrayList<>(length / 64);
+        List<RowError> errors = new ArrayList<>();
+        int records = 0;
+        int rejected = 0;
+        int line = 0;
+        int i = 0;
+        while (i < length) {
+            int end = parser.recordEnd(chars, i, length);
+            int recordLine = ++line;
+            line += parser.lineBreaks(chars, i, end);
+            int recordEnd = trimLineEnd(chunk, i, end);
+            if (!isBlank(chunk, i, recordEnd)) {
+                records++;
+                String problem;
+                Medicine medicine = null;
+                try {
+                    medicine = parser.parse(chars, i, recordEnd);
+                    problem = validate(medicine);
+                } catch (IllegalArgumentException e) {
+                    problem = e.getMessage();
+                }
+                if (problem == null) {
+                    medicines.add(medicine);
+                } else {
+                    rejected++;
+                    if (errors.size() < MAX_REPORTED_ERRORS) {
+                        errors.add(new RowError(recordLine, problem));
+                    }
+                }
+            }
+            i = end + 1;
+        }
+        return new ParsedChunk(medicines, errors, records, rejected, line);
+    }
+
+    /**
+     * Check a parsed medicine
+     *
+     * @param medicine The medicine
+     * @return What is wrong with it, or null if it is valid
+     */
+    static String validate(Medicine medicine) {
+        if (medicine.getMedicineId() == null || medicine.getMedicineId().isBlank()) {
+            return CatalogField.MEDICINE_ID.key() + " is required";
+        }
+        if (medicine.getName() == null || medicine.getName().isBlank()) {
+            return CatalogField.NAME.key() + " is required";
+        }
+        if (Double.isNaN(medicine.getPrice())) {
+            return CatalogField.PRICE.key() + " is required";
+        }
+        if (Double.isInfinite(medicine.getPrice()) || medicine.getPrice() < 0) {
+            return CatalogField.PRICE.key() + " must not be negative";
+        }
+        if (medicine.getStock() < 0) {
+            return CatalogField.STOCK.key() + " must not be negative";
+        }
+        if (medicine.getExpiryDate() == null) {
+            return CatalogField.EXPIRY_DATE.key() + " is required";
+        }
+        if (medicine.getManufactureDate() != null && medicine.getManufactureDate().after(medicine.getExpiryDate())) {
+            return CatalogField.MANUFACTURE_DATE.key() + " is after " + CatalogField.EXPIRY_DATE.key();
+        }
+        return null;
+    }
+
+    private static ParsedChunk join(CompletableFuture<ParsedChunk> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static char[] grow(char[] buffer) throws IOException {
+        if (buffer.length >= MAX_RECORD_SIZE) {
+            throw new IOException("Catalog record longer than " + MAX_RECORD_SIZE + " characters");
+        }
+        return Arrays.copyOf(buffer, buffer.length * 2);
+    }
+
+    private static int indexOf(char[] chars, int length, char c) {
+        for (int i = 0; i < length; i++) {
+            if (chars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drop the carriage return of a CRLF line break
+     */
+    private static int trimLineEnd(char[] chars, int start, int end) {
+        return end > start && chars[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private static boolean isBlank(char[] chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(chars[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void applyBatch(Progress progress, List<Medicine> batch) {
+        int inserted = dao.saveOrUpdateAll(batch);
+        progress.inserted += inserted;
+        progress.updated += batch.size() - inserted;
+    }
+
+    /**
+     * Running totals and the batch being filled, touched only by the importing thread
+     */
+    private static final class Progress {
+
+        private final int batchSize;
+        private List<Medicine> batch;
+        private final List<RowError> errors = new ArrayList<>();
+        private long line;
+        private long records;
+        private long inserted;
+        private long updated;
+        private long rejected;
+
+        private Progress(int batchSize) {
+            this.batchSize = batchSize;
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        /**
+         * Count a parsed chunk and queue its medicines, applying full batches
+         */
+        private void add(ParsedChunk chunk, CatalogImporter importer) {
+            records += chunk.records();
+            rejected += chunk.rejected();
+            for (RowError error : chunk.errors()) {
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(new RowError(line + error.line(), error.message()));
+                }
+            }
+            line += chunk.lines();
+            for (Medicine medicine : chunk.medicines()) {
+                batch.add(medicine);
+                if (batch.size() == batchSize) {
+                    apply(importer);
+                }
+            }
+        }
+
+        private void apply(CatalogImporter importer) {
+            if (!batch.isEmpty()) {
+                importer.applyBatch(this, batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+}
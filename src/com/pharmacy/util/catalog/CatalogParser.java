@@ -0,0 +1,669 @@
+package com.pharmacy.util.catalog;
+
+import com.pharmacy.model.Medicine;
+import java.nio.CharBuffer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Parses catalog records straight out of a chunk of decoded characters.
+ *
+ * A record is a span of a {@link CharBuffer} wrapping the whole chunk at position 0, so
+ * buffer indexes are chunk indexes. Fields are located by index and numbers, flags and dates are parsed in place, so
+ * the only strings created are the medicine's own text fields; characters are copied
+ * only to unescape a quoted CSV field or an escaped JSON string.
+ *
+ * Malformed records are reported with an {@link IllegalArgumentException} whose message
+ * says what is wrong. Parsers hold no per-record state and may be shared between threads.
+ */
+abstract class CatalogParser {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Create a JSON lines parser
+     *
+     * @return The parser
+     */
+    static CatalogParser jsonLines() {
+        return new JsonLines();
+    }
+
+    /**
+     * Create a CSV parser for the columns named by a header record
+     *
+     * @param chars The chunk holding the header
+     * @param start Start of the header
+     * @param end End of the header, without its line break
+     * @return The parser
+     * @throws IllegalArgumentException if the header has no medicineId column
+     */
+    static CatalogParser csv(CharBuffer chars, int start, int end) {
+        return Csv.forHeader(chars, start, end);
+    }
+
+    /**
+     * Find where the record starting at an index ends
+     *
+     * @param chars The chunk
+     * @param start Start of the record
+     * @param end End of the chunk's characters
+     * @return Index of the record's terminating line feed, or end if it has none
+     */
+    abstract int recordEnd(CharSequence chars, int start, int end);
+
+    /**
+     * Find the end of the last complete record in a chunk that starts at a record boundary
+     *
+     * @param chars The chunk
+     * @param length Number of characters in the chunk
+     * @return Index just past the last terminating line feed, or 0 if there is none
+     */
+    abstract int lastRecordEnd(char[] chars, int length);
+
+    /**
+     * Count the line breaks inside a record
+     *
+     * @param chars The chunk
+     * @param start Start of the record
+     * @param end End of the record
+     * @return The number of line feeds between start and end
+     */
+    abstract int lineBreaks(CharSequence chars, int start, int end);
+
+    /**
+     * Parse a record
+     *
+     * @param chars The chunk
+     * @param start Start of the record
+     * @param end End of the record, without its line break
+     * @return The medicine; its price is NaN if the record has none
+     * @throws IllegalArgumentException if the record is malformed
+     */
+    abstract Medicine parse(CharBuffer chars, int start, int end);
+
+    /**
+     * Create a medicine with nothing set, so missing fields can be told apart
+     */
+    static Medicine blankMedicine() {
+        return new Medicine(null, "", "", Double.NaN, 0, "", false, null, null, "", "");
+    }
+
+    /**
+     * Set a field from a span of characters. Empty numbers, flags and dates are left unset.
+     */
+    static void assign(Medicine medicine, CatalogField field, CharSequence chars, int start, int end) {
+        switch (field) {
+            case MEDICINE_ID -> medicine.setMedicineId(string(chars, start, end));
+            case NAME -> medicine.setName(string(chars, start, end));
+            case MANUFACTURER -> medicine.setManufacturer(string(chars, start, end));
+            case DESCRIPTION -> medicine.setDescription(string(chars, start, end));
+            case CATEGORY -> medicine.setCategory(string(chars, start, end));
+            case DOSAGE_FORM -> medicine.setDosageForm(string(chars, start, end));
+            case SIDE_EFFECTS -> medicine.setSideEffects(splitList(chars, start, end));
+            default -> {
+                while (start < end && Character.isWhitespace(chars.charAt(start))) {
+                    start++;
+                }
+                while (end > start && Character.isWhitespace(chars.charAt(end - 1))) {
+                    end--;
+                }
+                if (start == end) {
+                    return;
+                }
+                switch (field) {
+                    case PRICE -> medicine.setPrice(parseDouble(chars, start, end));
+                    case STOCK -> medicine.setStock(parseInt(chars, start, end));
+                    case REQUIRES_PRESCRIPTION -> medicine.setRequiresPrescription(parseBoolean(chars, start, end));
+                    case MANUFACTURE_DATE -> medicine.setManufactureDate(parseDate(chars, start, end));
+                    case EXPIRY_DATE -> medicine.setExpiryDate(parseDate(chars, start, end));
+                    default -> throw new IllegalStateException("Unhandled field " + field);
+                }
+            }
+        }
+    }
+
+    static String string(CharSequence chars, int start, int end) {
+        if (chars instanceof CharBuffer buffer && buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start);
+        }
+        return chars.subSequence(start, end).toString();
+    }
+
+    /**
+     * Split a semicolon-separated list, trimming each entry and dropping empty ones
+     */
+    private static List<String> splitList(CharSequence chars, int start, int end) {
+        List<String> values = new ArrayList<>();
+        int from = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || chars.charAt(i) == ';') {
+                int s = from;
+                int e = i;
+                while (s < e && Character.isWhitespace(chars.charAt(s))) {
+                    s++;
+                }
+                while (e > s && Character.isWhitespace(chars.charAt(e - 1))) {
+                    e--;
+                }
+                if (s < e) {
+                    values.add(string(chars, s, e));
+                }
+                from = i + 1;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Parse a decimal number. Plain decimals of up to 15 digits are converted exactly from
+     * their digits; anything else, e.g. an exponent, goes through Double.parseDouble.
+     */
+    static double parseDouble(CharSequence chars, int start, int end) {
+        int i = start;
+        boolean negative = chars.charAt(i) == '-';
+        if (negative || chars.charAt(i) == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c >= '0' && c <= '9' && digits < 15) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (point) {
+                    scale++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                digits = -1;
+                break;
+            }
+        }
+        if (digits > 0) {
+            // Both operands are exact doubles, so the division is correctly rounded
+            double value = mantissa / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        String text = string(chars, start, end);
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + text);
+        }
+    }
+
+    static int parseInt(CharSequence chars, int start, int end) {
+        int i = start;
+        boolean negative = chars.charAt(i) == '-';
+        if (negative || chars.charAt(i) == '+') {
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            throw new IllegalArgumentException("Invalid integer: " + string(chars, start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid integer: " + string(chars, start, end));
+            }
+            value = value * 10 + (c - '0');
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Integer out of range: " + string(chars, start, end));
+        }
+        return (int) value;
+    }
+
+    static boolean parseBoolean(CharSequence chars, int start, int end) {
+        if (matches(chars, start, end, "true") || matches(chars, start, end, "yes") || matches(chars, start, end, "1")) {
+            return true;
+        }
+        if (matches(chars, start, end, "false") || matches(chars, start, end, "no") || matches(chars, start, end, "0")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid flag: " + string(chars, start, end));
+    }
+
+    private static boolean matches(CharSequence chars, int start, int end, String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(chars.charAt(start + i)) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a date, either an ISO-8601 date (yyyy-MM-dd, taken as midnight UTC) or an
+     * ISO-8601 instant as written by the exporter
+     */
+    static Date parseDate(CharSequence chars, int start, int end) {
+        try {
+            int length = end - start;
+            if (length >= 10 && chars.charAt(start + 4) == '-' && chars.charAt(start + 7) == '-') {
+                int year = parseInt(chars, start, start + 4);
+                int month = parseInt(chars, start + 5, start + 7);
+                int day = parseInt(chars, start + 8, start + 10);
+                long millis = LocalDate.of(year, month, day).toEpochDay() * MILLIS_PER_DAY;
+                if (length == 10) {
+                    return new Date(millis);
+                }
+                // Instants as exported, yyyy-MM-ddTHH:mm:ss[.SSS]Z, without a formatter
+                if ((length == 20 || length == 24) && chars.charAt(start + 10) == 'T' && chars.charAt(start + 13) == ':'
+                    && chars.charAt(start + 16) == ':' && chars.charAt(end - 1) == 'Z'
+                    && (length == 20 || chars.charAt(start + 19) == '.')) {
+                    int hour = parseInt(chars, start + 11, start + 13);
+                    int minute = parseInt(chars, start + 14, start + 16);
+                    int second = parseInt(chars, start + 17, start + 19);
+                    int fraction = length == 24 ? parseInt(chars, start + 20, start + 23) : 0;
+                    if (hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60 && fraction >= 0) {
+                        return new Date(millis + ((hour * 60L + minute) * 60 + second) * 1000 + fraction);
+                    }
+                }
+            }
+            return Date.from(Instant.parse(chars.subSequence(start, end)));
+        } catch (DateTimeException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid date: " + string(chars, start, end));
+        }
+    }
+
+    /**
+     * Comma-separated values; column order comes from the header record
+     */
+    private static final class Csv extends CatalogParser {
+
+        // Field of each column, or null for ignored columns
+        private final CatalogField[] columns;
+
+        private Csv(CatalogField[] columns) {
+            this.columns = columns;
+        }
+
+        private static Csv forHeader(CharBuffer header, int i, int end) {
+            List<CatalogField> columns = new ArrayList<>();
+            boolean hasId = false;
+            while (true) {
+                int start = i;
+                while (i < end && header.get(i) != ',') {
+                    i++;
+                }
+                int s = start;
+                int e = i;
+                // Names may be quoted and padded, and the first may carry a byte order mark
+                while (s < e && (Character.isWhitespace(header.get(s)) || header.get(s) == '"' || header.get(s) == '\uFEFF')) {
+                    s++;
+                }
+                while (e > s && (Character.isWhitespace(header.get(e - 1)) || header.get(e - 1) == '"')) {
+                    e--;
+                }
+                CatalogField field = CatalogField.forKey(header, s, e);
+                if (field != null && columns.contains(field)) {
+                    throw new IllegalArgumentException("Duplicate column in header: " + field.key());
+                }
+                hasId |= field == CatalogField.MEDICINE_ID;
+                columns.add(field);
+                if (i >= end) {
+                    break;
+                }
+                i++;
+            }
+            if (!hasId) {
+                throw new IllegalArgumentException("Header has no " + CatalogField.MEDICINE_ID.key() + " column");
+            }
+            return new Csv(columns.toArray(new CatalogField[0]));
+        }
+
+        @Override
+        int recordEnd(CharSequence chars, int start, int end) {
+            int lineBreak = nextRecordBreak(chars, start, end);
+            return lineBreak < 0 ? end : lineBreak;
+        }
+
+        @Override
+        int lastRecordEnd(char[] chars, int length) {
+            // Quoted fields may contain line breaks, so records are followed from the start
+            CharSequence sequence = CharBuffer.wrap(chars, 0, length);
+            int last = 0;
+            for (int lineBreak; (lineBreak = nextRecordBreak(sequence, last, length)) >= 0; ) {
+                last = lineBreak + 1;
+            }
+            return last;
+        }
+
+        /**
+         * Find the line break ending the record that starts at {@code start}. As in
+         * {@link #parse}, a quote only opens a quoted field at the start of a field, so a
+         * stray quote inside an unquoted value, e.g. {@code Gauze 5" roll}, is plain text.
+         *
+         * @return The index of the line break, or -1 if the record does not end before {@code end}
+         */
+        private static int nextRecordBreak(CharSequence chars, int start, int end) {
+            boolean quoted = false;
+            boolean fieldStart = true;
+            for (int i = start; i < end; i++) {
+                char c = chars.charAt(i);
+                if (quoted) {
+                    if (c == '"') {
+                        // A doubled quote is an escaped quote and keeps the field open
+                        if (i + 1 < end && chars.charAt(i + 1) == '"') {
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    }
+                } else if (c == '"' && fieldStart) {
+                    quoted = true;
+                    fieldStart = false;
+                } else if (c == '\n') {
+                    return i;
+                } else {
+                    fieldStart = c == ',';
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        int lineBreaks(CharSequence chars, int start, int end) {
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                if (chars.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        Medicine parse(CharBuffer record, int i, int end) {
+            Medicine medicine = blankMedicine();
+            int column = 0;
+            while (true) {
+                CatalogField field = column < columns.length ? columns[column] : null;
+                if (i < end && record.get(i) == '"') {
+                    StringBuilder value = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= end) {
+                            throw new IllegalArgumentException("Unterminated quoted field in column " + (column + 1));
+                        }
+                        char c = record.get(i++);
+                        if (c != '"') {
+                            value.append(c);
+                        } else if (i < end && record.get(i) == '"') {
+                            value.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (i < end && record.get(i) != ',') {
+                        throw new IllegalArgumentException("Unexpected character after quoted field in column " + (column + 1));
+                    }
+                    if (field != null) {
+                        assign(medicine, field, value, 0, value.length());
+                    }
+                } else {
+                    int start = i;
+                    while (i < end && record.get(i) != ',') {
+                        i++;
+                    }
+                    if (field != null) {
+                        assign(medicine, field, record, start, i);
+                    }
+                }
+                column++;
+                if (i >= end) {
+                    break;
+                }
+                i++;
+            }
+            return medicine;
+        }
+    }
+
+    /**
+     * One flat JSON object per line; unknown keys and nested values are skipped
+     */
+    private static final class JsonLines extends CatalogParser {
+
+        @Override
+        int recordEnd(CharSequence chars, int start, int end) {
+            // JSON strings cannot hold a raw line break, so every line feed ends a record
+            for (int i = start; i < end; i++) {
+                if (chars.charAt(i) == '\n') {
+                    return i;
+                }
+            }
+            return end;
+        }
+
+        @Override
+        int lastRecordEnd(char[] chars, int length) {
+            for (int i = length - 1; i >= 0; i--) {
+                if (chars[i] == '\n') {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        int lineBreaks(CharSequence chars, int start, int end) {
+            return 0;
+        }
+
+        @Override
+        Medicine parse(CharBuffer record, int start, int end) {
+            Medicine medicine = blankMedicine();
+            int i = expectAt(record, skipSpace(record, start, end), end, '{');
+            i = skipSpace(record, i, end);
+            if (i < end && record.get(i) == '}') {
+                i++;
+            } else {
+                while (true) {
+                    i = expectAt(record, i, end, '"');
+                    int keyEnd = stringEnd(record, i, end);
+                    CatalogField field = CatalogField.forKey(record, i, keyEnd);
+                    i = skipSpace(record, keyEnd + 1, end);
+                    i = skipSpace(record, expectAt(record, i, end, ':'), end);
+                    i = field == null ? skipValue(record, i, end) : value(record, i, end, medicine, field);
+                    i = skipSpace(record, i, end);
+                    if (i < end && record.get(i) == ',') {
+                        i = skipSpace(record, i + 1, end);
+                    } else {
+                        i = expectAt(record, i, end, '}');
+                        break;
+                    }
+                }
+            }
+            if (skipSpace(record, i, end) != end) {
+                throw new IllegalArgumentException("Unexpected characters after object");
+            }
+            return medicine;
+        }
+
+        /**
+         * Parse a value into a field
+         *
+         * @return Index just past the value
+         */
+        private static int value(CharBuffer record, int i, int end, Medicine medicine, CatalogField field) {
+            if (i >= end) {
+                throw new IllegalArgumentException("Missing value for " + field.key());
+            }
+            char c = record.get(i);
+            if (c == '"') {
+                int stringEnd = stringEnd(record, i + 1, end);
+                if (indexOf(record, i + 1, stringEnd, '\\') < 0) {
+                    assign(medicine, field, record, i + 1, stringEnd);
+                } else {
+                    String text = unescape(record, i + 1, stringEnd);
+                    assign(medicine, field, text, 0, text.length());
+                }
+                return stringEnd + 1;
+            }
+            if (c == '[' && field == CatalogField.SIDE_EFFECTS) {
+                List<String> values = new ArrayList<>();
+                i = skipSpace(record, i + 1, end);
+                if (i < end && record.get(i) == ']') {
+                    medicine.setSideEffects(values);
+                    return i + 1;
+                }
+                while (true) {
+                    i = expectAt(record, i, end, '"');
+                    int stringEnd = stringEnd(record, i, end);
+                    values.add(unescape(record, i, stringEnd));
+                    i = skipSpace(record, stringEnd + 1, end);
+                    if (i < end && record.get(i) == ',') {
+                        i = skipSpace(record, i + 1, end);
+                    } else {
+                        medicine.setSideEffects(values);
+                        return expectAt(record, i, end, ']');
+                    }
+                }
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("Unexpected nested value for " + field.key());
+            }
+            int start = i;
+            while (i < end && ",}] \t\r".indexOf(record.get(i)) < 0) {
+                i++;
+            }
+            if (!matches(record, start, i, "null")) {
+                assign(medicine, field, record, start, i);
+            }
+            return i;
+        }
+
+        /**
+         * Skip a value of an unknown key
+         *
+         * @return Index just past the value
+         */
+        private static int skipValue(CharBuffer record, int i, int end) {
+            int depth = 0;
+            while (i < end) {
+                char c = record.get(i);
+                if (c == '"') {
+                    i = stringEnd(record, i + 1, end) + 1;
+                    if (depth == 0) {
+                        return i;
+                    }
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (depth == 0) {
+                        return i;
+                    }
+                    if (--depth == 0) {
+                        return i + 1;
+                    }
+                } else if (c == ',' && depth == 0) {
+                    return i;
+                }
+                i++;
+            }
+            if (depth > 0) {
+                throw new IllegalArgumentException("Unterminated value");
+            }
+            return i;
+        }
+
+        /**
+         * Find the closing quote of a string whose content starts at an index
+         */
+        private static int stringEnd(CharBuffer record, int i, int end) {
+            while (i < end) {
+                char c = record.get(i);
+                if (c == '"') {
+                    return i;
+                }
+                i += c == '\\' ? 2 : 1;
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+
+        private static String unescape(CharBuffer record, int start, int end) {
+            StringBuilder text = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                char c = record.get(i);
+                if (c != '\\') {
+                    text.append(c);
+                    continue;
+                }
+                char escaped = record.get(++i);
+                switch (escaped) {
+                    case '"', '\\', '/' -> text.append(escaped);
+                    case 'b' -> text.append('\b');
+                    case 'f' -> text.append('\f');
+                    case 'n' -> text.append('\n');
+                    case 'r' -> text.append('\r');
+                    case 't' -> text.append('\t');
+                    case 'u' -> {
+                        if (i + 4 >= end) {
+                            throw new IllegalArgumentException("Truncated unicode escape");
+                        }
+                        int code = 0;
+                        for (int k = 1; k <= 4; k++) {
+                            int digit = Character.digit(record.get(i + k), 16);
+                            if (digit < 0) {
+                                throw new IllegalArgumentException("Invalid unicode escape");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        text.append((char) code);
+                        i += 4;
+                    }
+                    default -> throw new IllegalArgumentException("Invalid escape \\" + escaped);
+                }
+            }
+            return text.toString();
+        }
+
+        private static int indexOf(CharBuffer record, int start, int end, char c) {
+            for (int i = start; i < end; i++) {
+                if (record.get(i) == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int skipSpace(CharBuffer record, int i, int end) {
+            while (i < end && Character.isWhitespace(record.get(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        private static int expectAt(CharBuffer record, int i, int end, char c) {
+            if (i >= end || record.get(i) != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' but "
+                                                   + (i < end ? "found '" + record.get(i) + "'" : "the record ended"));
+            }
+            return i + 1;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.pharmacy.util.catalog;
+
+import com.pharmacy.model.Medicine;
+import com.pharmacy.util.io.AtomicFile;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes medicines to a CSV or JSON lines catalog file one at a time, in the format read
+ * by {@link CatalogImporter}.
+ *
+ * Medicines are streamed through a buffer, so exporting a large catalog never holds more
+ * than one medicine's text in memory. Dates are written as ISO-8601 instants. The file
+ * replaces the target atomically when the writer is closed; if any write failed, closing
+ * discards the partial file instead.
+ *
+ * Not thread-safe.
+ */
+public class CatalogWriter implements AutoCloseable {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final AtomicFile file;
+    private final Writer out;
+    private final CatalogFormat format;
+
+    // Each record is built here and written in one call
+    private final StringBuilder line = new StringBuilder(1024);
+    private char[] chars = new char[1024];
+    private long count;
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * Create a writer
+     *
+     * @param path The catalog file; replaced when the writer is closed
+     * @param format The format to write
+     * @throws IOException if the file cannot be created
+     */
+    public CatalogWriter(Path path, CatalogFormat format) throws IOException {
+        this.format = format;
+        this.file = new AtomicFile(path);
+        this.out = new BufferedWriter(new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8), 256 * 1024);
+        if (format == CatalogFormat.CSV) {
+            for (CatalogField field : CatalogField.FIELDS) {
+                if (field.ordinal() > 0) {
+                    out.write(',');
+                }
+                out.write(field.key());
+            }
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Append a medicine
+     *
+     * @param medicine The medicine
+     * @throws IOException if the file cannot be written; the writer is then unusable
+     */
+    public void write(Medicine medicine) throws IOException {
+        if (failed || closed) {
+            throw new IOException("Catalog writer is " + (closed ? "closed" : "unusable after an earlier failure"));
+        }
+        try {
+            if (format == CatalogFormat.CSV) {
+                writeCsv(medicine);
+            } else {
+                writeJson(medicine);
+            }
+            writeLine();
+            count++;
+        } catch (IOException | RuntimeException e) {
+            line.setLength(0);
+            failed = true;
+            throw e;
+        }
+    }
+
+    private void writeCsv(Medicine medicine) {
+        for (CatalogField field : CatalogField.FIELDS) {
+            if (field.ordinal() > 0) {
+                line.append(',');
+            }
+            switch (field) {
+                case PRICE -> line.append(medicine.getPrice());
+                case STOCK -> line.append(medicine.getStock());
+                case REQUIRES_PRESCRIPTION -> line.append(medicine.isRequiresPrescription());
+                case MANUFACTURE_DATE -> appendDate(medicine.getManufactureDate());
+                case EXPIRY_DATE -> appendDate(medicine.getExpiryDate());
+                case SIDE_EFFECTS -> {
+                    List<String> sideEffects = medicine.getSideEffects();
+                    appendCsvText(sideEffects == null ? null : String.join(";", sideEffects));
+                }
+                default -> appendCsvText(text(medicine, field));
+            }
+        }
+        line.append('\n');
+    }
+
+    private void appendCsvText(String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private void writeJson(Medicine medicine) {
+        line.append('{');
+        for (CatalogField field : CatalogField.FIELDS) {
+            if (field.ordinal() > 0) {
+                line.append(',');
+            }
+            line.append('"').append(field.key()).append("\":");
+            switch (field) {
+                case PRICE -> line.append(medicine.getPrice());
+                case STOCK -> line.append(medicine.getStock());
+                case REQUIRES_PRESCRIPTION -> line.append(medicine.isRequiresPrescription());
+                case MANUFACTURE_DATE, EXPIRY_DATE -> {
+                    Date date = field == CatalogField.EXPIRY_DATE ? medicine.getExpiryDate() : medicine.getManufactureDate();
+                    if (date == null) {
+                        line.append("null");
+                    } else {
+                        line.append('"');
+                        appendDate(date);
+                        line.append('"');
+                    }
+                }
+                case SIDE_EFFECTS -> {
+                    line.append('[');
+                    List<String> sideEffects = medicine.getSideEffects();
+                    if (sideEffects != null) {
+                        for (int i = 0; i < sideEffects.size(); i++) {
+                            if (i > 0) {
+                                line.append(',');
+                            }
+                            appendJsonString(sideEffects.get(i));
+                        }
+                    }
+                    line.append(']');
+                }
+                default -> appendJsonString(text(medicine, field));
+            }
+        }
+        line.append("}\n");
+    }
+
+    private void appendJsonString(String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        // Runs of plain characters are appended in one call
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            line.append(value, from, i);
+            from = i + 1;
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                case '\t' -> line.append("\\t");
+                default -> line.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        line.append(value, from, value.length()).append('"');
+    }
+
+    /**
+     * Get a text field
+     */
+    private static String text(Medicine medicine, CatalogField field) {
+        return switch (field) {
+            case MEDICINE_ID -> medicine.getMedicineId();
+            case NAME -> medicine.getName();
+            case MANUFACTURER -> medicine.getManufacturer();
+            case DESCRIPTION -> medicine.getDescription();
+            case CATEGORY -> medicine.getCategory();
+            case DOSAGE_FORM -> medicine.getDosageForm();
+            default -> throw new IllegalArgumentException(field.key() + " is not a text field");
+        };
+    }
+
+    /**
+     * Append a date as an ISO-8601 instant, the same text as {@link java.time.Instant#toString}
+     * but without a formatter for the common four-digit years
+     */
+    private void appendDate(Date date) {
+        if (date == null) {
+            return;
+        }
+        long millis = date.getTime();
+        long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(millis, MILLIS_PER_DAY);
+        LocalDate day = LocalDate.ofEpochDay(days);
+        if (day.getYear() < 1000 || day.getYear() > 9999) {
+            line.append(date.toInstant());
+            return;
+        }
+        line.append(day.getYear()).append('-');
+        appendTwoDigits(day.getMonthValue());
+        line.append('-');
+        appendTwoDigits(day.getDayOfMonth());
+        line.append('T');
+        appendTwoDigits(millisOfDay / 3_600_000);
+        line.append(':');
+        appendTwoDigits(millisOfDay / 60_000 % 60);
+        line.append(':');
+        appendTwoDigits(millisOfDay / 1000 % 60);
+        int fraction = millisOfDay % 1000;
+        if (fraction != 0) {
+            line.append('.');
+            appendTwoDigits(fraction / 10);
+            line.append((char) ('0' + fraction % 10));
+        }
+        line.append('Z');
+    }
+
+    private void appendTwoDigits(int value) {
+        line.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Write the record built in the line buffer with a single call to the writer
+     */
+    private void writeLine() throws IOException {
+        int length = line.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        line.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+        line.setLength(0);
+    }
+
+    /**
+     * Get the number of medicines written so far
+     *
+     * @return The medicine count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Flush the file and replace the target with it. If an earlier write failed, the
+     * partial file is discarded instead.
+     *
+     * @throws IOException if the file cannot be completed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!failed) {
+                out.close();
+                file.commit();
+            }
+        } finally {
+            out.close();
+            file.close();
+        }
+    }
+}
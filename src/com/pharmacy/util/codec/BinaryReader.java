@@ -0,0 +1,366 @@
+package com.pharmacy.util.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Buffered reader for the compact binary record format written by {@link BinaryWriter}.
+ *
+ * The reader rebuilds the writer's string table as it goes, so a stream must be read
+ * from the start and in order. Truncated data raises {@link EOFException} and malformed
+ * data raises {@link IOException}.
+ *
+ * Not thread-safe.
+ */
+public class BinaryReader implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Longer strings are treated as corruption rather than allocated
+    private static final int MAX_STRING_LENGTH = 1 << 26;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    // Bytes read from the stream so far, including those still buffered
+    private long filled;
+
+
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * Create a reader
+     *
+     * @param in The stream to read from
+     */
+    public BinaryReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read and check a file header written by {@link BinaryWriter#writeHeader}
+     *
+     * @param codec The codec the records will be read with
+     * @return The schema version of the records
+     * @throws IOException if the data is not a record file for this codec, or its
+     *         schema is newer than the codec
+     */
+    public int readHeader(Codec<?> codec) throws IOException {
+        for (byte b : BinaryWriter.MAGIC) {
+            if (readByte() != (b & 0xFF)) {
+                throw new IOException("Not a binary record file");
+            }
+        }
+        int format = readVarInt();
+        if (format != BinaryWriter.FORMAT_VERSION) {
+            throw new IOException("Unsupported record file format " + format);
+        }
+        String name = readString();
+        if (!codec.getName().equals(name)) {
+            throw new IOException("Record file holds " + name + " records, not " + codec.getName());
+        }
+        int version = readVarInt();
+        if (version < 1 || version > codec.getVersion()) {
+            throw new IOException("Unsupported " + name + " schema version " + version
+                                  + "; newest readable is " + codec.getVersion());
+        }
+        return version;
+    }
+
+    /**
+     * Get the number of bytes consumed so far
+     *
+     * @return The byte count
+     */
+    public long getBytesRead() {
+        return filled - (limit - position);
+    }
+
+    /**
+     * Check whether the stream has been read to its end
+     *
+     * @return true if no bytes remain
+     * @throws IOException if reading fails
+     */
+    public boolean isAtEnd() throws IOException {
+        if (position < limit) {
+            return false;
+        }
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return true;
+        }
+        position = 0;
+        limit = read;
+        filled += read;
+        return false;
+    }
+
+    /**
+     * Read an unsigned varint
+     *
+     * @return The value
+     * @throws IOException if the data is truncated or the varint is too long
+     */
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Read an unsigned varlong
+     *
+     * @return The value
+     * @throws IOException if the data is truncated or the varlong is too long
+     */
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varlong");
+    }
+
+    /**
+     * Read a zigzag-encoded signed int
+     *
+     * @return The value
+     * @throws IOException if the data is truncated or malformed
+     */
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Read a zigzag-encoded signed long
+     *
+     * @return The value
+     * @throws IOException if the data is truncated or malformed
+     */
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Read a boolean
+     *
+     * @return The value
+     * @throws IOException if the data is truncated
+     */
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    /**
+     * Read a single byte
+     *
+     * @return The byte value, 0 to 255
+     * @throws IOException if the data is truncated
+     */
+    public int readByte() throws IOException {
+        if (position == limit) {
+            fill();
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Read a double written by {@link BinaryWriter#writeDouble}
+     *
+     * @return The value
+     * @throws IOException if the data is truncated
+     */
+    public double readDouble() throws IOException {
+        long tag = readVarLong();
+        if ((tag & 1) == BinaryWriter.CENTS) {
+            long zigzag = tag >>> 1;
+            long cents = (zigzag >>> 1) ^ -(zigzag & 1);
+            return cents / 100.0;
+        }
+        long bits = 0;
+        for (int shift = 0; shift < 64; shift += 8) {
+            bits |= (long) readByte() << shift;
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Read a nullable date
+     *
+     * @return The date, or null
+     * @throws IOException if the data is truncated or malformed
+     */
+    public Date readDate() throws IOException {
+        long value = readVarLong();
+        if (value == 0) {
+            return null;
+        }
+        value--;
+        return new Date((value >>> 1) ^ -(value & 1));
+    }
+
+    /**
+     * Read a nullable enum constant
+     *
+     * @param <E> The enum type
+     * @param constants The enum's constants, from {@code values()}
+     * @return The constant, or null
+     * @throws IOException if the data is truncated or the ordinal is out of range
+     */
+    public <E extends Enum<E>> E readEnum(E[] constants) throws IOException {
+        int value = readVarInt();
+        if (value == 0) {
+            return null;
+        }
+        if (value > constants.length) {
+            throw new IOException("Unknown enum ordinal " + (value - 1));
+        }
+        return constants[value - 1];
+    }
+
+    /**
+     * Read a nullable string written by {@link BinaryWriter#writeString} or
+     * {@link BinaryWriter#writeUniqueString}
+     *
+     * @return The string, or null
+     * @throws IOException if the data is truncated or references an unknown string
+     */
+    public String readString() throws IOException {
+        int tag = readVarInt();
+        switch (tag) {
+            case BinaryWriter.NULL_STRING:
+                return null;
+            case BinaryWriter.INLINE_STRING:
+                return readUtf8();
+            case BinaryWriter.INTERNED_STRING:
+                if (strings.size() >= BinaryWriter.MAX_STRING_TABLE) {
+                    throw new IOException("String table overflow");
+                }
+                String value = readUtf8();
+                strings.add(value);
+                return value;
+            default:
+                int index = tag - BinaryWriter.REFERENCE_BASE;
+                if (index < 0 || index >= strings.size()) {
+                    throw new IOException("Unknown string reference " + index);
+                }
+                return strings.get(index);
+        }
+    }
+
+    /**
+     * Read a nullable list of strings
+     *
+     * @return The strings, or null
+     * @throws IOException if the data is truncated or malformed
+     */
+    public List<String> readStringList() throws IOException {
+        int size = readListSize();
+        if (size < 0) {
+            return null;
+        }
+        List<String> values = newList(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    /**
+     * Read the size of a nullable list
+     *
+     * @return The size, or -1 for a null list
+     * @throws IOException if the data is truncated or malformed
+     */
+    public int readListSize() throws IOException {
+        int value = readVarInt();
+        if (value < 0) {
+            throw new IOException("Malformed list size");
+        }
+        return value - 1;
+    }
+
+    /**
+     * Read a nullable nested record
+     *
+     * @param <T> The record type
+     * @param codec The codec for the record
+     * @param version The schema version the record was written with
+     * @return The record, or null
+     * @throws IOException if the data is truncated or malformed
+     */
+    public <T> T readNullable(Codec<T> codec, int version) throws IOException {
+        return readBoolean() ? codec.read(this, version) : null;
+    }
+
+    /**
+     * Create a list for a size read from the stream, without trusting the size for allocation
+     *
+     * @param <E> The element type
+     * @param size The size read with {@link #readListSize}
+     * @return An empty list
+     */
+    public static <E> List<E> newList(int size) {
+        return new ArrayList<>(Math.min(size, 1024));
+    }
+
+    private String readUtf8() throws IOException {
+        int length = readVarInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Malformed string length " + length);
+        }
+        if (length <= limit - position) {
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        int copied = limit - position;
+        System.arraycopy(buffer, position, bytes, 0, copied);
+        position = limit;
+        while (copied < length) {
+            int read = in.read(bytes, copied, length - copied);
+            if (read < 0) {
+                throw new EOFException("Truncated string");
+            }
+            copied += read;
+            filled += read;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            throw new EOFException();
+        }
+        position = 0;
+        limit = read;
+        filled += read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
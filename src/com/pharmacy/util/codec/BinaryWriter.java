@@ -0,0 +1,339 @@
+package com.pharmacy.util.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffered writer for the compact binary record format.
+ *
+ * Integers are written as LEB128 varints, with signed values zigzag encoded so small
+ * negative numbers stay short. Strings written with {@link #writeString} are deduplicated
+ * per stream: the first occurrence is written inline and added to a string table, and
+ * every later occurrence is written as a varint index into that table. The matching
+ * {@link BinaryReader} rebuilds the same table as it reads. The table is capped in entries
+ * and in characters, so its memory stays bounded however long the stream is.
+ *
+ * Not thread-safe.
+ */
+public class BinaryWriter implements AutoCloseable {
+
+    // String tags; tags from REFERENCE_BASE upwards are string table indexes
+    static final int NULL_STRING = 0;
+    static final int INLINE_STRING = 1;
+    static final int INTERNED_STRING = 2;
+    static final int REFERENCE_BASE = 3;
+
+    // Caps the string table so a long stream cannot grow it without bound
+    static final int MAX_STRING_TABLE = 1 << 16;
+
+    // Long strings, and strings past the table's character budget, are always written
+    // inline, which bounds the table's memory
+    static final int MAX_INTERNED_LENGTH = 4096;
+    static final long MAX_INTERNED_CHARS = 1L << 22;
+
+    // Double tags
+    static final int CENTS = 0;
+    static final int RAW_DOUBLE = 1;
+
+    // File header: magic, container format version, then the codec's name and schema version
+    static final byte[] MAGIC = {'P', 'H', 'R', 'B'};
+
+    // Container format: a sequence of length-prefixed records
+    static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    private final Map<String, Integer> strings = new HashMap<>();
+    private long internedChars;
+
+    /**
+     * Create a writer
+     *
+     * @param out The stream to write to
+     */
+    public BinaryWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Write a file header identifying the record type and its schema version
+     *
+     * @param codec The codec the records will be written with
+     * @throws IOException if writing fails
+     */
+    public void writeHeader(Codec<?> codec) throws IOException {
+        for (byte b : MAGIC) {
+            writeByte(b);
+        }
+        writeVarInt(FORMAT_VERSION);
+        writeUniqueString(codec.getName());
+        writeVarInt(codec.getVersion());
+    }
+
+    /**
+     * Write an unsigned varint
+     *
+     * @param value The value, treated as unsigned
+     * @throws IOException if writing fails
+     */
+    public void writeVarInt(int value) throws IOException {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Write an unsigned varlong
+     *
+     * @param value The value, treated as unsigned
+     * @throws IOException if writing fails
+     */
+    public void writeVarLong(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Write a signed int as a zigzag varint
+     *
+     * @param value The value
+     * @throws IOException if writing fails
+     */
+    public void writeSignedVarInt(int value) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Write a signed long as a zigzag varlong
+     *
+     * @param value The value
+     * @throws IOException if writing fails
+     */
+    public void writeSignedVarLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Write a boolean as one byte
+     *
+     * @param value The value
+     * @throws IOException if writing fails
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Write a single byte
+     *
+     * @param value The byte value
+     * @throws IOException if writing fails
+     */
+    public void writeByte(int value) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Write a double. Values that are a whole number of cents, such as prices,
+     * are written as a varint count of cents; anything else takes nine bytes.
+     *
+     * @param value The value
+     * @throws IOException if writing fails
+     */
+    public void writeDouble(double value) throws IOException {
+        long cents = Math.round(value * 100);
+        if (Math.abs(cents) < (1L << 53)
+                && Double.doubleToRawLongBits(cents / 100.0) == Double.doubleToRawLongBits(value)) {
+            writeVarLong(((cents << 1) ^ (cents >> 63)) << 1 | CENTS);
+            return;
+        }
+        writeVarLong(RAW_DOUBLE);
+        long bits = Double.doubleToRawLongBits(value);
+        ensure(8);
+        for (int shift = 0; shift < 64; shift += 8) {
+            buffer[position++] = (byte) (bits >>> shift);
+        }
+    }
+
+    /**
+     * Write a nullable date as epoch milliseconds
+     *
+     * @param date The date, or null
+     * @throws IOException if writing fails
+     */
+    public void writeDate(Date date) throws IOException {
+        if (date == null) {
+            writeVarLong(0);
+        } else {
+            long millis = date.getTime();
+            writeVarLong(((millis << 1) ^ (millis >> 63)) + 1);
+        }
+    }
+
+    /**
+     * Write a nullable enum constant as its ordinal
+     *
+     * @param value The constant, or null
+     * @throws IOException if writing fails
+     */
+    public void writeEnum(Enum<?> value) throws IOException {
+        writeVarInt(value == null ? 0 : value.ordinal() + 1);
+    }
+
+    /**
+     * Write a nullable string, deduplicating it against earlier strings in the stream.
+     * Use this for values that repeat, such as names, manufacturers and categories.
+     *
+     * @param value The string, or null
+     * @throws IOException if writing fails
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(NULL_STRING);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarInt(REFERENCE_BASE + index);
+        } else if (strings.size() < MAX_STRING_TABLE && value.length() <= MAX_INTERNED_LENGTH
+                   && internedChars + value.length() <= MAX_INTERNED_CHARS) {
+            strings.put(value, strings.size());
+            internedChars += value.length();
+            writeVarInt(INTERNED_STRING);
+            writeUtf8(value);
+        } else {
+            writeVarInt(INLINE_STRING);
+            writeUtf8(value);
+        }
+    }
+
+    /**
+     * Write a nullable string inline without adding it to the string table.
+     * Use this for values that never repeat, such as record IDs, so they do not
+     * crowd repeated strings out of the table.
+     *
+     * @param value The string, or null
+     * @throws IOException if writing fails
+     */
+    public void writeUniqueString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(NULL_STRING);
+            return;
+        }
+        writeVarInt(INLINE_STRING);
+        writeUtf8(value);
+    }
+
+    /**
+     * Write a nullable list of strings, each deduplicated
+     *
+     * @param values The strings, or null
+     * @throws IOException if writing fails
+     */
+    public void writeStringList(List<String> values) throws IOException {
+        writeListSize(values);
+        if (values != null) {
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+    }
+
+    /**
+     * Write the size of a nullable list; the caller then writes the elements
+     *
+     * @param values The list, or null
+     * @throws IOException if writing fails
+     */
+    public void writeListSize(List<?> values) throws IOException {
+        writeVarInt(values == null ? 0 : values.size() + 1);
+    }
+
+    /**
+     * Write a nullable nested record
+     *
+     * @param <T> The record type
+     * @param codec The codec for the record
+     * @param value The record, or null
+     * @throws IOException if writing fails
+     */
+    public <T> void writeNullable(Codec<T> codec, T value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            codec.write(this, value);
+        }
+    }
+
+    /**
+     * Write raw bytes
+     *
+     * @param bytes The source array
+     * @param offset The offset of the first byte
+     * @param length The number of bytes
+     * @throws IOException if writing fails
+     */
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length) {
+                out.write(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    private void writeUtf8(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void ensure(int size) throws IOException {
+        if (position + size > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    /**
+     * Write buffered bytes to the underlying stream and flush it
+     *
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
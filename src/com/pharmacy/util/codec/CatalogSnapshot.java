@@ -0,0 +1,539 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.model.Medicine;
+import com.pharmacy.util.io.AtomicFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Read-only medicine catalog snapshot, memory-mapped so that opening it costs nothing
+ * beyond mapping the file.
+ *
+ * The file holds one fixed-width row per medicine, so price, stock, flags and dates are
+ * read directly from the mapping by row number. Strings are stored once each in a string
+ * table and rows refer to them by index; an offset array gives each string's position, so
+ * reading one never touches the others. Medicine IDs are indexed by a row array sorted on
+ * their UTF-8 bytes, which {@link #findRow} binary searches without decoding anything.
+ * {@link Medicine} objects are only built by {@link #materialize} when a caller needs one.
+ *
+ * Layout, little-endian:
+ * <pre>
+ * header   magic, version, row count, string count, and the offset of each section
+ * rows     ROW_SIZE bytes per medicine
+ * id index row numbers sorted by medicine ID
+ * effects  string indexes of every row's side effects, referenced by start and count
+ * offsets  string count + 1 byte offsets into the string data
+ * strings  UTF-8 string data
+ * checksums CRC32C of every CHECKSUM_BLOCK bytes of the file before this section
+ * </pre>
+ *
+ * The checksums are verified when the snapshot is opened, which reads the whole file once.
+ * A caller that trusts the file, e.g. one it just wrote, can skip that with
+ * {@link #open(Path, boolean)} and keep startup down to mapping the file.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public final class CatalogSnapshot {
+
+    /**
+     * String-valued columns of a row
+     */
+    public enum StringColumn {
+        MEDICINE_ID(0),
+        NAME(4),
+        MANUFACTURER(8),
+        DESCRIPTION(12),
+        CATEGORY(16),
+        DOSAGE_FORM(20);
+
+        private final int offset;
+
+        StringColumn(int offset) {
+            this.offset = offset;
+        }
+    }
+
+    private static final int MAGIC = 0x50484353; // "PHCS"
+    private static final int VERSION = 2;
+
+    // Version 1 snapshots have no checksums
+    private static final int UNCHECKSUMMED_VERSION = 1;
+
+    // Header field offsets
+    private static final int ROW_COUNT = 8;
+    private static final int STRING_COUNT = 12;
+    private static final int ROWS_OFFSET = 16;
+    private static final int ID_INDEX_OFFSET = 20;
+    private static final int EFFECTS_OFFSET = 24;
+    private static final int EFFECT_COUNT = 28;
+    private static final int STRING_OFFSETS_OFFSET = 32;
+    private static final int STRING_DATA_OFFSET = 36;
+    private static final int CHECKSUMS_OFFSET = 40;
+    private static final int HEADER_SIZE = 48;
+
+    // Row field offsets; string columns are listed in StringColumn
+    private static final int PRICE = 24;
+    private static final int STOCK = 32;
+    private static final int FLAGS = 36;
+    private static final int MANUFACTURE_DATE = 40;
+    private static final int EXPIRY_DATE = 48;
+    private static final int EFFECTS_START = 56;
+    private static final int EFFECTS_COUNT = 60;
+    private static final int ROW_SIZE = 64;
+
+    private static final int REQUIRES_PRESCRIPTION = 1;
+    private static final int NO_MANUFACTURE_DATE = 2;
+    private static final int NO_EXPIRY_DATE = 4;
+
+    // String index stored for a null string, and effect count stored for a null list
+    private static final int NULL_REF = -1;
+
+    private static final int CHECKSUM_BLOCK = 1 << 20;
+
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final int stringCount;
+    private final int rowsOffset;
+    private final int idIndexOffset;
+    private final int effectsOffset;
+    private final int stringOffsetsOffset;
+    private final int stringDataOffset;
+
+    private CatalogSnapshot(ByteBuffer buffer, boolean verifyChecksums) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog snapshot");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION && version != UNCHECKSUMMED_VERSION) {
+            throw new IOException("Unsupported catalog snapshot version " + version);
+        }
+        if (version == VERSION && verifyChecksums) {
+            verifyChecksums(buffer);
+        }
+        this.rowCount = buffer.getInt(ROW_COUNT);
+        this.stringCount = buffer.getInt(STRING_COUNT);
+        this.rowsOffset = buffer.getInt(ROWS_OFFSET);
+        this.idIndexOffset = buffer.getInt(ID_INDEX_OFFSET);
+        this.effectsOffset = buffer.getInt(EFFECTS_OFFSET);
+        this.stringOffsetsOffset = buffer.getInt(STRING_OFFSETS_OFFSET);
+        this.stringDataOffset = buffer.getInt(STRING_DATA_OFFSET);
+
+        long end = (long) stringDataOffset + buffer.getInt(stringOffsetsOffset + 4 * stringCount);
+        if (rowCount < 0 || stringCount < 0 || rowsOffset < HEADER_SIZE
+                || (long) rowsOffset + (long) rowCount * ROW_SIZE > idIndexOffset
+                || (long) idIndexOffset + 4L * rowCount > effectsOffset
+                || (long) effectsOffset + 4L * buffer.getInt(EFFECT_COUNT) > stringOffsetsOffset
+                || (long) stringOffsetsOffset + 4L * (stringCount + 1) > stringDataOffset
+                || end > buffer.capacity()) {
+            throw new IOException("Catalog snapshot is truncated or corrupt");
+        }
+    }
+
+    private static void verifyChecksums(ByteBuffer buffer) throws IOException {
+        int checksumsOffset = buffer.getInt(CHECKSUMS_OFFSET);
+        int blocks = blockCount(checksumsOffset);
+        if (checksumsOffset < HEADER_SIZE || (long) checksumsOffset + 4L * blocks > buffer.capacity()) {
+            throw new IOException("Catalog snapshot is truncated or corrupt");
+        }
+        CRC32C crc = new CRC32C();
+        for (int i = 0; i < blocks; i++) {
+            int start = i * CHECKSUM_BLOCK;
+            crc.reset();
+            crc.update(buffer.slice(start, Math.min(CHECKSUM_BLOCK, checksumsOffset - start)));
+            if ((int) crc.getValue() != buffer.getInt(checksumsOffset + 4 * i)) {
+                throw new IOException("Catalog snapshot checksum mismatch in block " + i
+                                      + " at offset " + start);
+            }
+        }
+    }
+
+    private static int blockCount(long checksummedBytes) {
+        return (int) ((checksummedBytes + CHECKSUM_BLOCK - 1) / CHECKSUM_BLOCK);
+    }
+
+    /**
+     * Map a snapshot file read-only and verify its checksums
+     *
+     * @param path The snapshot file
+     * @return The snapshot
+     * @throws IOException if the file cannot be mapped, is not a valid snapshot or is corrupt
+     */
+    public static CatalogSnapshot open(Path path) throws IOException {
+        return open(path, true);
+    }
+
+    /**
+     * Map a snapshot file read-only
+     *
+     * @param path The snapshot file
+     * @param verifyChecksums Whether to verify the checksums, which reads the whole file;
+     *                        pass false only for a trusted file, e.g. one this process wrote
+     * @return The snapshot
+     * @throws IOException if the file cannot be mapped, is not a valid snapshot or is corrupt
+     */
+    public static CatalogSnapshot open(Path path, boolean verifyChecksums) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Catalog snapshot is too large: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CatalogSnapshot(mapped, verifyChecksums);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Catalog snapshot is truncated or corrupt: " + path, e);
+        }
+    }
+
+    /**
+     * Write a snapshot of a catalog, atomically replacing any existing file
+     *
+     * @param path The snapshot file
+     * @param medicines The medicines; IDs must be non-null and unique
+     * @throws IOException if the file cannot be written or would exceed 2 GB
+     * @throws IllegalArgumentException if a medicine ID is null or repeated
+     */
+    public static void write(Path path, Collection<Medicine> medicines) throws IOException {
+        Medicine[] rows = medicines.toArray(new Medicine[0]);
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[][] refs = new int[rows.length][StringColumn.values().length];
+        int[][] effectRefs = new int[rows.length][];
+        long stringBytes = 0;
+        int effectCount = 0;
+
+        for (int row = 0; row < rows.length; row++) {
+            Medicine medicine = rows[row];
+            if (medicine.getMedicineId() == null) {
+                throw new IllegalArgumentException("Medicine ID is null at row " + row);
+            }
+            String[] values = {
+                medicine.getMedicineId(), medicine.getName(), medicine.getManufacturer(),
+                medicine.getDescription(), medicine.getCategory(), medicine.getDosageForm()
+            };
+            for (int column = 0; column < values.length; column++) {
+                refs[row][column] = intern(values[column], stringIndexes, strings);
+            }
+            List<String> sideEffects = medicine.getSideEffects();
+            if (sideEffects != null) {
+                effectRefs[row] = new int[sideEffects.size()];
+                for (int i = 0; i < sideEffects.size(); i++) {
+                    effectRefs[row][i] = intern(sideEffects.get(i), stringIndexes, strings);
+                }
+                effectCount += sideEffects.size();
+            }
+        }
+        for (byte[] bytes : strings) {
+            stringBytes += bytes.length;
+        }
+
+        // Sort rows by the UTF-8 bytes of their IDs, the order findRow searches in
+        Integer[] order = new Integer[rows.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(strings.get(refs[a][0]), strings.get(refs[b][0])));
+        for (int i = 1; i < order.length; i++) {
+            if (refs[order[i]][0] == refs[order[i - 1]][0]) {
+                throw new IllegalArgumentException("Duplicate medicine ID " + rows[order[i]].getMedicineId());
+            }
+        }
+
+        int rowsOffset = HEADER_SIZE;
+        long idIndexOffset = rowsOffset + (long) rows.length * ROW_SIZE;
+        long effectsOffset = idIndexOffset + 4L * rows.length;
+        long stringOffsetsOffset = effectsOffset + 4L * effectCount;
+        long stringDataOffset = stringOffsetsOffset + 4L * (strings.size() + 1);
+        long checksumsOffset = stringDataOffset + stringBytes;
+        long size = checksumsOffset + 4L * blockCount(checksumsOffset);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Catalog snapshot would exceed 2 GB");
+        }
+
+        // Written to a temporary file and renamed over the old snapshot, which may still be mapped
+        try (AtomicFile file = new AtomicFile(path)) {
+            try (FileChannel channel = FileChannel.open(file.getTempPath(), StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE)) {
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.order(ByteOrder.LITTLE_ENDIAN);
+
+                out.putInt(0, MAGIC);
+                out.putInt(4, VERSION);
+                out.putInt(ROW_COUNT, rows.length);
+                out.putInt(STRING_COUNT, strings.size());
+                out.putInt(ROWS_OFFSET, rowsOffset);
+                out.putInt(ID_INDEX_OFFSET, (int) idIndexOffset);
+                out.putInt(EFFECTS_OFFSET, (int) effectsOffset);
+                out.putInt(EFFECT_COUNT, effectCount);
+                out.putInt(STRING_OFFSETS_OFFSET, (int) stringOffsetsOffset);
+                out.putInt(STRING_DATA_OFFSET, (int) stringDataOffset);
+                out.putInt(CHECKSUMS_OFFSET, (int) checksumsOffset);
+
+                int effectPosition = 0;
+                for (int row = 0; row < rows.length; row++) {
+                    Medicine medicine = rows[row];
+                    int base = rowsOffset + row * ROW_SIZE;
+                    for (StringColumn column : StringColumn.values()) {
+                        out.putInt(base + column.offset, refs[row][column.ordinal()]);
+                    }
+                    out.putDouble(base + PRICE, medicine.getPrice());
+                    out.putInt(base + STOCK, medicine.getStock());
+                    int flags = medicine.isRequiresPrescription() ? REQUIRES_PRESCRIPTION : 0;
+                    if (medicine.getManufactureDate() == null) {
+                        flags |= NO_MANUFACTURE_DATE;
+                    } else {
+                        out.putLong(base + MANUFACTURE_DATE, medicine.getManufactureDate().getTime());
+                    }
+                    if (medicine.getExpiryDate() == null) {
+                        flags |= NO_EXPIRY_DATE;
+                    } else {
+                        out.putLong(base + EXPIRY_DATE, medicine.getExpiryDate().getTime());
+                    }
+                    out.putInt(base + FLAGS, flags);
+
+                    out.putInt(base + EFFECTS_START, effectPosition);
+                    if (effectRefs[row] == null) {
+                        out.putInt(base + EFFECTS_COUNT, NULL_REF);
+                    } else {
+                        out.putInt(base + EFFECTS_COUNT, effectRefs[row].length);
+                        for (int ref : effectRefs[row]) {
+                            out.putInt((int) effectsOffset + 4 * effectPosition++, ref);
+                        }
+                    }
+                }
+
+                for (int i = 0; i < order.length; i++) {
+                    out.putInt((int) idIndexOffset + 4 * i, order[i]);
+                }
+
+                int dataPosition = 0;
+                for (int i = 0; i < strings.size(); i++) {
+                    byte[] bytes = strings.get(i);
+                    out.putInt((int) stringOffsetsOffset + 4 * i, dataPosition);
+                    out.put((int) stringDataOffset + dataPosition, bytes);
+                    dataPosition += bytes.length;
+                }
+                out.putInt((int) stringOffsetsOffset + 4 * strings.size(), dataPosition);
+
+                CRC32C crc = new CRC32C();
+                for (int i = 0; i < blockCount(checksumsOffset); i++) {
+                    int start = i * CHECKSUM_BLOCK;
+                    crc.reset();
+                    crc.update(out.slice(start, (int) Math.min(CHECKSUM_BLOCK, checksumsOffset - start)));
+                    out.putInt((int) checksumsOffset + 4 * i, (int) crc.getValue());
+                }
+                out.force();
+            }
+            // Close the channel before the rename, which fails on Windows while the file is open.
+            // The mapping itself is only released when the buffer is garbage collected.
+            file.commit();
+        }
+    }
+
+    private static int intern(String value, Map<String, Integer> indexes, List<byte[]> strings) {
+        if (value == null) {
+            return NULL_REF;
+        }
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            indexes.put(value, index);
+            strings.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return index;
+    }
+
+    /**
+     * Get the number of medicines in the snapshot
+     *
+     * @return The row count
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * Find the row of a medicine by binary searching the ID index
+     *
+     * @param medicineId The medicine ID
+     * @return The row, or -1 if the ID is not in the snapshot
+     */
+    public int findRow(String medicineId) {
+        if (medicineId == null) {
+            return -1;
+        }
+        byte[] key = medicineId.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = rowCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int row = buffer.getInt(idIndexOffset + 4 * mid);
+            int cmp = compareString(getStringRef(row, StringColumn.MEDICINE_ID), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find a string's index in the string table, for comparing string columns by index
+     *
+     * @param value The string
+     * @return The string index, or -1 if no row uses the string
+     */
+    public int findString(String value) {
+        if (value == null) {
+            return NULL_REF;
+        }
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < stringCount; i++) {
+            if (stringLength(i) == key.length && compareString(i, key) == 0) {
+                return i;
+            }
+        }
+        return NULL_REF;
+    }
+
+    /**
+     * Get the string table index of a row's string column, without decoding the string
+     *
+     * @param row The row
+     * @param column The column
+     * @return The string index, or -1 for a null value
+     */
+    public int getStringRef(int row, StringColumn column) {
+        return buffer.getInt(rowOffset(row) + column.offset);
+    }
+
+    /**
+     * Decode a row's string column
+     *
+     * @param row The row
+     * @param column The column
+     * @return The string, or null
+     */
+    public String getString(int row, StringColumn column) {
+        return string(getStringRef(row, column));
+    }
+
+    /**
+     * Read a row's price
+     *
+     * @param row The row
+     * @return The price
+     */
+    public double getPrice(int row) {
+        return buffer.getDouble(rowOffset(row) + PRICE);
+    }
+
+    /**
+     * Read a row's stock level
+     *
+     * @param row The row
+     * @return The stock
+     */
+    public int getStock(int row) {
+        return buffer.getInt(rowOffset(row) + STOCK);
+    }
+
+    /**
+     * Read whether a row's medicine requires a prescription
+     *
+     * @param row The row
+     * @return true if a prescription is required
+     */
+    public boolean requiresPrescription(int row) {
+        return (buffer.getInt(rowOffset(row) + FLAGS) & REQUIRES_PRESCRIPTION) != 0;
+    }
+
+    /**
+     * Build a {@link Medicine} from a row. Each call returns a new object.
+     *
+     * @param row The row
+     * @return The medicine
+     */
+    public Medicine materialize(int row) {
+        int base = rowOffset(row);
+        int flags = buffer.getInt(base + FLAGS);
+        Date manufactureDate = (flags & NO_MANUFACTURE_DATE) != 0 ? null
+            : new Date(buffer.getLong(base + MANUFACTURE_DATE));
+        Date expiryDate = (flags & NO_EXPIRY_DATE) != 0 ? null : new Date(buffer.getLong(base + EXPIRY_DATE));
+
+        Medicine medicine = new Medicine(
+            getString(row, StringColumn.MEDICINE_ID), getString(row, StringColumn.NAME),
+            getString(row, StringColumn.MANUFACTURER), buffer.getDouble(base + PRICE),
+            buffer.getInt(base + STOCK), getString(row, StringColumn.DESCRIPTION),
+            (flags & REQUIRES_PRESCRIPTION) != 0, manufactureDate, expiryDate,
+            getString(row, StringColumn.CATEGORY), getString(row, StringColumn.DOSAGE_FORM));
+
+        int effectCount = buffer.getInt(base + EFFECTS_COUNT);
+        if (effectCount == NULL_REF) {
+            medicine.setSideEffects(null);
+        } else {
+            int start = buffer.getInt(base + EFFECTS_START);
+            for (int i = 0; i < effectCount; i++) {
+                medicine.getSideEffects().add(string(buffer.getInt(effectsOffset + 4 * (start + i))));
+            }
+        }
+        return medicine;
+    }
+
+    private int rowOffset(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        }
+        return rowsOffset + row * ROW_SIZE;
+    }
+
+    private int stringStart(int index) {
+        return buffer.getInt(stringOffsetsOffset + 4 * index);
+    }
+
+    private int stringLength(int index) {
+        return stringStart(index + 1) - stringStart(index);
+    }
+
+    private String string(int index) {
+        if (index == NULL_REF) {
+            return null;
+        }
+        byte[] bytes = new byte[stringLength(index)];
+        buffer.get(stringDataOffset + stringStart(index), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare a stored string with a key by unsigned UTF-8 bytes, without decoding it
+     */
+    private int compareString(int index, byte[] key) {
+        int start = stringDataOffset + stringStart(index);
+        int length = stringLength(index);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+}
@@ -0,0 +1,48 @@
+package com.pharmacy.util.codec;
+
+import java.io.IOException;
+
+/**
+ * Hand-written binary reader and writer for one record type.
+ *
+ * A codec always writes its current schema version, and must be able to read every
+ * version it has ever written. The version of the data is stored once in the file header
+ * and passed back to {@link #read} so older files stay readable after the schema changes.
+ *
+ * @param <T> The record type
+ */
+public interface Codec<T> {
+
+    /**
+     * Get the name stored in file headers, used to reject files of another record type
+     *
+     * @return The record type name
+     */
+    String getName();
+
+    /**
+     * Get the schema version this codec writes
+     *
+     * @return The current schema version
+     */
+    int getVersion();
+
+    /**
+     * Write one record
+     *
+     * @param out The writer
+     * @param value The record to write
+     * @throws IOException if writing fails
+     */
+    void write(BinaryWriter out, T value) throws IOException;
+
+    /**
+     * Read one record
+     *
+     * @param in The reader
+     * @param version The schema version the record was written with
+     * @return The record
+     * @throws IOException if the data is truncated or malformed
+     */
+    T read(BinaryReader in, int version) throws IOException;
+}
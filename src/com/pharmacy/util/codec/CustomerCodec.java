@@ -0,0 +1,97 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.model.Customer;
+import com.pharmacy.model.Order;
+import com.pharmacy.model.Prescription;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Binary codec for {@link Customer}, including its orders and prescriptions
+ */
+final class CustomerCodec implements Codec<Customer> {
+
+    private final Codec<Order> orderCodec;
+    private final Codec<Prescription> prescriptionCodec;
+
+    CustomerCodec(Codec<Order> orderCodec, Codec<Prescription> prescriptionCodec) {
+        this.orderCodec = orderCodec;
+        this.prescriptionCodec = prescriptionCodec;
+    }
+
+    @Override
+    public String getName() {
+        return "customer";
+    }
+
+    @Override
+    public int getVersion() {
+        return ModelCodecs.SCHEMA_VERSION;
+    }
+
+    @Override
+    public void write(BinaryWriter out, Customer customer) throws IOException {
+        out.writeUniqueString(customer.getUserId());
+        out.writeString(customer.getName());
+        out.writeUniqueString(customer.getEmail());
+        out.writeUniqueString(customer.getPhoneNumber());
+        out.writeString(customer.getAddress());
+        out.writeDate(customer.getDateOfBirth());
+        out.writeBoolean(customer.isPremiumMember());
+        out.writeStringList(customer.getHealthConditions());
+        out.writeStringList(customer.getAllergies());
+        out.writeSignedVarInt(customer.getLoyaltyProgram().getPoints());
+
+        List<Order> orders = customer.getOrders();
+        out.writeListSize(orders);
+        if (orders != null) {
+            for (Order order : orders) {
+                out.writeNullable(orderCodec, order);
+            }
+        }
+
+        List<Prescription> prescriptions = customer.getPrescriptions();
+        out.writeListSize(prescriptions);
+        if (prescriptions != null) {
+            for (Prescription prescription : prescriptions) {
+                out.writeNullable(prescriptionCodec, prescription);
+            }
+        }
+    }
+
+    @Override
+    public Customer read(BinaryReader in, int version) throws IOException {
+        ModelCodecs.checkVersion(this, version);
+        Customer customer = new Customer(in.readString(), in.readString(), in.readString(), in.readString(),
+                                         in.readString(), in.readDate(), in.readBoolean());
+        customer.setHealthConditions(in.readStringList());
+        customer.setAllergies(in.readStringList());
+
+        // The tier is derived from the points
+        int points = in.readSignedVarInt();
+        if (points > 0) {
+            customer.getLoyaltyProgram().addPoints(points);
+        }
+
+        int orderCount = in.readListSize();
+        List<Order> orders = null;
+        if (orderCount >= 0) {
+            orders = BinaryReader.newList(orderCount);
+            for (int i = 0; i < orderCount; i++) {
+                orders.add(in.readNullable(orderCodec, version));
+            }
+        }
+        customer.setOrders(orders);
+
+        int prescriptionCount = in.readListSize();
+        List<Prescription> prescriptions = null;
+        if (prescriptionCount >= 0) {
+            prescriptions = BinaryReader.newList(prescriptionCount);
+            for (int i = 0; i < prescriptionCount; i++) {
+                prescriptions.add(in.readNullable(prescriptionCodec, version));
+            }
+        }
+        customer.setPrescriptions(prescriptions);
+        return customer;
+    }
+}
@@ -0,0 +1,61 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.model.Medicine;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Binary codec for {@link Medicine}
+ */
+final class MedicineCodec implements Codec<Medicine> {
+
+    @Override
+    public String getName() {
+        return "medicine";
+    }
+
+    @Override
+    public int getVersion() {
+        return ModelCodecs.SCHEMA_VERSION;
+    }
+
+    @Override
+    public void write(BinaryWriter out, Medicine medicine) throws IOException {
+        // Medicine IDs repeat across order items, so they are deduplicated too
+        out.writeString(medicine.getMedicineId());
+        out.writeString(medicine.getName());
+        out.writeString(medicine.getManufacturer());
+        out.writeDouble(medicine.getPrice());
+        out.writeSignedVarInt(medicine.getStock());
+        out.writeString(medicine.getDescription());
+        out.writeBoolean(medicine.isRequiresPrescription());
+        out.writeDate(medicine.getManufactureDate());
+        out.writeDate(medicine.getExpiryDate());
+        out.writeStringList(medicine.getSideEffects());
+        out.writeString(medicine.getCategory());
+        out.writeString(medicine.getDosageForm());
+    }
+
+    @Override
+    public Medicine read(BinaryReader in, int version) throws IOException {
+        ModelCodecs.checkVersion(this, version);
+        String medicineId = in.readString();
+        String name = in.readString();
+        String manufacturer = in.readString();
+        double price = in.readDouble();
+        int stock = in.readSignedVarInt();
+        String description = in.readString();
+        boolean requiresPrescription = in.readBoolean();
+        Date manufactureDate = in.readDate();
+        Date expiryDate = in.readDate();
+        List<String> sideEffects = in.readStringList();
+        String category = in.readString();
+        String dosageForm = in.readString();
+
+        Medicine medicine = new Medicine(medicineId, name, manufacturer, price, stock, description,
+                                         requiresPrescription, manufactureDate, expiryDate, category, dosageForm);
+        medicine.setSideEffects(sideEffects);
+        return medicine;
+    }
+}
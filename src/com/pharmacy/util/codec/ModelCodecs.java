@@ -0,0 +1,43 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.model.Customer;
+import com.pharmacy.model.Medicine;
+import com.pharmacy.model.Order;
+import com.pharmacy.model.Prescription;
+import java.io.IOException;
+
+/**
+ * Binary codecs for the pharmacy model classes.
+ *
+ * All model codecs share one schema version, since the order, prescription and customer
+ * formats embed the medicine format. Bump {@link #SCHEMA_VERSION} whenever any of them
+ * changes, and keep the readers able to decode every earlier version.
+ */
+public final class ModelCodecs {
+
+    /**
+     * Schema version written by the model codecs
+     */
+    public static final int SCHEMA_VERSION = 1;
+
+    public static final Codec<Medicine> MEDICINE = new MedicineCodec();
+    public static final Codec<Order> ORDER = new OrderCodec(MEDICINE);
+    public static final Codec<Prescription> PRESCRIPTION = new PrescriptionCodec(MEDICINE);
+    public static final Codec<Customer> CUSTOMER = new CustomerCodec(ORDER, PRESCRIPTION);
+
+    private ModelCodecs() {
+    }
+
+    /**
+     * Reject data written with a schema version a codec cannot read
+     *
+     * @param codec The codec
+     * @param version The schema version of the data
+     * @throws IOException if the version is not supported
+     */
+    static void checkVersion(Codec<?> codec, int version) throws IOException {
+        if (version < 1 || version > codec.getVersion()) {
+            throw new IOException("Unsupported " + codec.getName() + " schema version " + version);
+        }
+    }
+}
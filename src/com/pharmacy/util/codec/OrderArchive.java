@@ -0,0 +1,614 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.model.Order;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only, column-oriented archive of historic orders, written by {@link OrderArchiveWriter}.
+ *
+ * Orders are split into stripes of consecutive rows, and within a stripe every column is
+ * stored as its own Deflate-compressed chunk. Customer and medicine IDs are replaced by
+ * codes into dictionaries kept once per archive. A {@link #scan} reads, inflates and
+ * decodes only the chunks of the columns it asks for, so a report over order dates and
+ * amounts never touches customers, items or order IDs.
+ *
+ * Layout:
+ * <pre>
+ * header      magic, version
+ * stripes     one compressed chunk per column per stripe
+ * dictionaries compressed customer ID and medicine ID dictionaries
+ * footer      row count of each stripe, offset, compressed and raw length of each chunk
+ *             and dictionary
+ * trailer     footer offset, magic
+ * </pre>
+ *
+ * Column encodings, before compression:
+ * <pre>
+ * ORDER_ID       unique strings
+ * ORDER_DATE     0 for null, else zigzag delta from the previous date in the stripe + 1
+ * CUSTOMER_ID    dictionary code + 1, 0 for null
+ * TOTAL_AMOUNT   signed cents
+ * STATUS         ordinal + 1, 0 for null
+ * PAYMENT_METHOD ordinal + 1, 0 for null
+ * ITEMS          item count + 1 (0 for no item list), then per item: medicine code + 1,
+ *                quantity, signed price in cents
+ * </pre>
+ * Amounts and prices are stored in whole cents.
+ *
+ * Scans may run concurrently from several threads.
+ */
+public final class OrderArchive implements AutoCloseable {
+
+    /**
+     * Columns of the archive
+     */
+    public enum Column {
+        ORDER_ID,
+        ORDER_DATE,
+        CUSTOMER_ID,
+        TOTAL_AMOUNT,
+        STATUS,
+        PAYMENT_METHOD,
+        ITEMS
+    }
+
+    static final int MAGIC = 0x50484F41; // "PHOA"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 12;
+
+    // Offset, compressed length and raw length of a chunk in the footer
+    static final int CHUNK_ENTRY_SIZE = 8 + 4 + 4;
+
+    static final Column[] COLUMNS = Column.values();
+
+    private static final Order.OrderStatus[] STATUSES = Order.OrderStatus.values();
+    private static final Order.PaymentMethod[] PAYMENT_METHODS = Order.PaymentMethod.values();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int[] stripeRows;
+    private final long[][] chunkOffsets;
+    private final int[][] chunkLengths;
+    private final int[][] chunkRawLengths;
+    private final long rowCount;
+    private final long[] customerDictionaryChunk;
+    private final long[] medicineDictionaryChunk;
+
+    // Loaded on first use, since most scans never need the ID strings
+    private volatile String[] customerIds;
+    private volatile String[] medicineIds;
+
+    private OrderArchive(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        long size = channel.size();
+        if (size < HEADER_SIZE + TRAILER_SIZE) {
+            throw new IOException("Not an order archive: " + path);
+        }
+        ByteBuffer header = read(0, HEADER_SIZE);
+        ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+        if (header.getInt(0) != MAGIC || trailer.getInt(8) != MAGIC) {
+            throw new IOException("Not an order archive, or truncated: " + path);
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported order archive version " + header.getInt(4) + ": " + path);
+        }
+        long footerOffset = trailer.getLong(0);
+        if (footerOffset < HEADER_SIZE || footerOffset > size - TRAILER_SIZE) {
+            throw new IOException("Order archive footer is corrupt: " + path);
+        }
+
+        ByteBuffer footer = read(footerOffset, (int) (size - TRAILER_SIZE - footerOffset));
+        int stripes = footer.getInt();
+        if (stripes < 0 || 4L + stripes * (4L + CHUNK_ENTRY_SIZE * COLUMNS.length) + 2L * CHUNK_ENTRY_SIZE
+                > footer.capacity()) {
+            throw new IOException("Order archive footer is corrupt: " + path);
+        }
+        this.stripeRows = new int[stripes];
+        this.chunkOffsets = new long[stripes][COLUMNS.length];
+        this.chunkLengths = new int[stripes][COLUMNS.length];
+        this.chunkRawLengths = new int[stripes][COLUMNS.length];
+        long rows = 0;
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            stripeRows[stripe] = footer.getInt();
+            if (stripeRows[stripe] < 0) {
+                throw new IOException("Order archive footer is corrupt: " + path);
+            }
+            rows += stripeRows[stripe];
+            for (int column = 0; column < COLUMNS.length; column++) {
+                long[] chunk = readChunkEntry(footer, footerOffset);
+                chunkOffsets[stripe][column] = chunk[0];
+                chunkLengths[stripe][column] = (int) chunk[1];
+                chunkRawLengths[stripe][column] = (int) chunk[2];
+            }
+        }
+        this.rowCount = rows;
+        this.customerDictionaryChunk = readChunkEntry(footer, footerOffset);
+        this.medicineDictionaryChunk = readChunkEntry(footer, footerOffset);
+    }
+
+    /**
+     * Read a chunk's offset, compressed length and raw length from the footer and check
+     * that the chunk lies between the header and the footer
+     */
+    private long[] readChunkEntry(ByteBuffer footer, long footerOffset) throws IOException {
+        long offset = footer.getLong();
+        int length = footer.getInt();
+        int rawLength = footer.getInt();
+        if (offset < HEADER_SIZE || length < 0 || rawLength < 0 || offset + length > footerOffset) {
+            throw new IOException("Order archive footer is corrupt: " + path);
+        }
+        return new long[] {offset, length, rawLength};
+    }
+
+    /**
+     * Open an archive. Only the footer is read.
+     *
+     * @param path The archive file
+     * @return The archive; close it to release the file
+     * @throws IOException if the file cannot be read or is not a valid archive
+     */
+    public static OrderArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new OrderArchive(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e
+                                           : new IOException("Order archive is corrupt: " + path, e);
+        }
+    }
+
+    /**
+     * Get the number of orders in the archive
+     *
+     * @return The order count
+     */
+    public long size() {
+        return rowCount;
+    }
+
+    /**
+     * Get the number of stripes
+     *
+     * @return The stripe count
+     */
+    public int getStripeCount() {
+        return stripeRows.length;
+    }
+
+    /**
+     * Get the compressed size of a column across all stripes, e.g. to see what a scan reads
+     *
+     * @param column The column
+     * @return The compressed size in bytes
+     */
+    public long getCompressedSize(Column column) {
+        long total = 0;
+        for (int[] lengths : chunkLengths) {
+            total += lengths[column.ordinal()];
+        }
+        return total;
+    }
+
+    /**
+     * Visit every order, decoding only the given columns. The visitor receives the same
+     * {@link Row} object for every order, updated in place, so it must copy out any
+     * values it keeps.
+     *
+     * @param columns The columns to read
+     * @param visitor Called once per order, in archive order
+     * @throws IOException if a column cannot be read or is corrupt
+     */
+    public void scan(Set<Column> columns, Consumer<Row> visitor) throws IOException {
+        EnumSet<Column> wanted = columns.isEmpty() ? EnumSet.noneOf(Column.class) : EnumSet.copyOf(columns);
+        Row row = new Row(this, wanted);
+        // Unscanned columns keep a null reader
+        BinaryReader[] readers = new BinaryReader[COLUMNS.length];
+        Inflater inflater = new Inflater();
+        try {
+            for (int stripe = 0; stripe < stripeRows.length; stripe++) {
+                for (Column column : wanted) {
+                    int c = column.ordinal();
+                    readers[c] = openChunk(chunkOffsets[stripe][c], chunkLengths[stripe][c],
+                                           chunkRawLengths[stripe][c], inflater);
+                }
+                row.previousDate = 0;
+                for (int i = 0; i < stripeRows[stripe]; i++) {
+                    row.decode(readers);
+                    visitor.accept(row);
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Count orders by status, reading only the status column
+     *
+     * @return The number of orders in each status; orders without a status are not counted
+     * @throws IOException if the archive cannot be read
+     */
+    public Map<Order.OrderStatus, Long> countByStatus() throws IOException {
+        long[] counts = new long[STATUSES.length];
+        scan(EnumSet.of(Column.STATUS), row -> {
+            if (row.status != null) {
+                counts[row.status.ordinal()]++;
+            }
+        });
+        Map<Order.OrderStatus, Long> result = new EnumMap<>(Order.OrderStatus.class);
+        for (Order.OrderStatus status : STATUSES) {
+            result.put(status, counts[status.ordinal()]);
+        }
+        return result;
+    }
+
+    /**
+     * Sum order totals per calendar month, reading only the date, amount and status columns.
+     * Cancelled and returned orders, and orders without a date, are left out.
+     *
+     * @param zone The time zone that defines month boundaries
+     * @return Revenue per month, in currency units, in month order
+     * @throws IOException if the archive cannot be read
+     */
+    public SortedMap<YearMonth, Double> revenueByMonth(ZoneId zone) throws IOException {
+        Map<YearMonth, long[]> cents = new TreeMap<>();
+        // Orders are mostly in date order, so the month is only recomputed when a date leaves it
+        long[] monthRange = {1, 0};
+        long[][] current = new long[1][];
+        scan(EnumSet.of(Column.ORDER_DATE, Column.TOTAL_AMOUNT, Column.STATUS), row -> {
+            if (!row.hasOrderDate || row.status == Order.OrderStatus.CANCELLED
+                    || row.status == Order.OrderStatus.RETURNED) {
+                return;
+            }
+            long millis = row.orderDate;
+            if (millis < monthRange[0] || millis >= monthRange[1]) {
+                ZonedDateTime time = Instant.ofEpochMilli(millis).atZone(zone);
+                YearMonth month = YearMonth.from(time);
+                monthRange[0] = month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                monthRange[1] = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                current[0] = cents.computeIfAbsent(month, key -> new long[1]);
+            }
+            current[0][0] += row.totalCents;
+        });
+        SortedMap<YearMonth, Double> result = new TreeMap<>();
+        for (Map.Entry<YearMonth, long[]> entry : cents.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0] / 100.0);
+        }
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    /**
+     * Read and inflate a whole chunk in one step, since its raw size is known
+     */
+    private BinaryReader openChunk(long offset, int length, int rawLength, Inflater inflater) throws IOException {
+        ByteBuffer chunk = read(offset, length);
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(chunk);
+        try {
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != rawLength) {
+                throw new IOException("Order archive chunk at offset " + offset + " is corrupt: " + path);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Order archive chunk at offset " + offset + " is corrupt: " + path, e);
+        }
+        return new BinaryReader(new ByteArrayInputStream(raw));
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Order archive is truncated: " + path);
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Get the customer ID with a dictionary code, as returned by {@link Row#getCustomerCode}.
+     * The dictionary is read on first use.
+     *
+     * @param code The dictionary code
+     * @return The customer ID
+     * @throws IOException if the dictionary cannot be read or has no such code
+     */
+    public String getCustomerId(int code) throws IOException {
+        String[] ids = customerIds;
+        if (ids == null) {
+            ids = readDictionary(customerDictionaryChunk);
+            customerIds = ids;
+        }
+        return lookup(ids, code);
+    }
+
+    /**
+     * Get the medicine ID with a dictionary code, as returned by {@link Row#getItemMedicineCode}.
+     * The dictionary is read on first use.
+     *
+     * @param code The dictionary code
+     * @return The medicine ID
+     * @throws IOException if the dictionary cannot be read or has no such code
+     */
+    public String getMedicineId(int code) throws IOException {
+        String[] ids = medicineIds;
+        if (ids == null) {
+            ids = readDictionary(medicineDictionaryChunk);
+            medicineIds = ids;
+        }
+        return lookup(ids, code);
+    }
+
+    private String lookup(String[] dictionary, int code) throws IOException {
+        if (code < 0 || code >= dictionary.length) {
+            throw new IOException("Order archive refers to unknown dictionary code " + code + ": " + path);
+        }
+        return dictionary[code];
+    }
+
+    private String[] readDictionary(long[] chunk) throws IOException {
+        Inflater inflater = new Inflater();
+        try (BinaryReader in = openChunk(chunk[0], (int) chunk[1], (int) chunk[2], inflater)) {
+            int count = in.readVarInt();
+            if (count < 0) {
+                throw new IOException("Order archive dictionary is corrupt: " + path);
+            }
+            String[] values = new String[Math.min(count, 1 << 16)];
+            for (int i = 0; i < count; i++) {
+                if (i == values.length) {
+                    values = Arrays.copyOf(values, Math.min(count, values.length * 2));
+                }
+                values[i] = in.readString();
+            }
+            return values;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Cursor over the orders of a {@link #scan}. Only the scanned columns may be read.
+     */
+    public static final class Row {
+
+        private final OrderArchive archive;
+        private final EnumSet<Column> columns;
+
+        private String orderId;
+        private boolean hasOrderDate;
+        private long orderDate;
+        private long previousDate;
+        private int customerCode;
+        private long totalCents;
+        private Order.OrderStatus status;
+        private Order.PaymentMethod paymentMethod;
+        private int itemCount;
+        private int[] itemMedicines = new int[8];
+        private int[] itemQuantities = new int[8];
+        private long[] itemPrices = new long[8];
+
+        private Row(OrderArchive archive, EnumSet<Column> columns) {
+            this.archive = archive;
+            this.columns = columns;
+        }
+
+        private void decode(BinaryReader[] readers) throws IOException {
+            BinaryReader in;
+            if ((in = readers[Column.ORDER_ID.ordinal()]) != null) {
+                orderId = in.readString();
+            }
+            if ((in = readers[Column.ORDER_DATE.ordinal()]) != null) {
+                long encoded = in.readVarLong();
+                hasOrderDate = encoded != 0;
+                if (hasOrderDate) {
+                    long zigzag = encoded - 1;
+                    orderDate = previousDate + ((zigzag >>> 1) ^ -(zigzag & 1));
+                    previousDate = orderDate;
+                }
+            }
+            if ((in = readers[Column.CUSTOMER_ID.ordinal()]) != null) {
+                customerCode = in.readVarInt() - 1;
+            }
+            if ((in = readers[Column.TOTAL_AMOUNT.ordinal()]) != null) {
+                totalCents = in.readSignedVarLong();
+            }
+            if ((in = readers[Column.STATUS.ordinal()]) != null) {
+                status = in.readEnum(STATUSES);
+            }
+            if ((in = readers[Column.PAYMENT_METHOD.ordinal()]) != null) {
+                paymentMethod = in.readEnum(PAYMENT_METHODS);
+            }
+            if ((in = readers[Column.ITEMS.ordinal()]) != null) {
+                itemCount = in.readVarInt() - 1;
+                if (itemCount > itemMedicines.length) {
+                    int capacity = Math.max(itemCount, itemMedicines.length * 2);
+                    itemMedicines = new int[capacity];
+                    itemQuantities = new int[capacity];
+                    itemPrices = new long[capacity];
+                }
+                for (int i = 0; i < itemCount; i++) {
+                    itemMedicines[i] = in.readVarInt() - 1;
+                    itemQuantities[i] = in.readSignedVarInt();
+                    itemPrices[i] = in.readSignedVarLong();
+                }
+            }
+        }
+
+        private void require(Column column) {
+            if (!columns.contains(column)) {
+                throw new IllegalStateException("Column " + column + " was not scanned");
+            }
+        }
+
+        /**
+         * @return The order ID
+         */
+        public String getOrderId() {
+            require(Column.ORDER_ID);
+            return orderId;
+        }
+
+        /**
+         * @return true if the order has a date
+         */
+        public boolean hasOrderDate() {
+            require(Column.ORDER_DATE);
+            return hasOrderDate;
+        }
+
+        /**
+         * @return The order date in epoch milliseconds; only meaningful if {@link #hasOrderDate}
+         */
+        public long getOrderDateMillis() {
+            require(Column.ORDER_DATE);
+            return orderDate;
+        }
+
+        /**
+         * Get the customer's dictionary code, which is cheaper to group by than the ID
+         *
+         * @return The code, or -1 if the order has no customer ID
+         */
+        public int getCustomerCode() {
+            require(Column.CUSTOMER_ID);
+            return customerCode;
+        }
+
+        /**
+         * @return The customer ID, or null if the order has none
+         * @throws UncheckedIOException if the customer dictionary cannot be read
+         */
+        public String getCustomerId() {
+            require(Column.CUSTOMER_ID);
+            try {
+                return customerCode < 0 ? null : archive.getCustomerId(customerCode);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return The order total in cents
+         */
+        public long getTotalCents() {
+            require(Column.TOTAL_AMOUNT);
+            return totalCents;
+        }
+
+        /**
+         * @return The order total
+         */
+        public double getTotalAmount() {
+            return getTotalCents() / 100.0;
+        }
+
+        /**
+         * @return The order status, or null
+         */
+        public Order.OrderStatus getStatus() {
+            require(Column.STATUS);
+            return status;
+        }
+
+        /**
+         * @return The payment method, or null
+         */
+        public Order.PaymentMethod getPaymentMethod() {
+            require(Column.PAYMENT_METHOD);
+            return paymentMethod;
+        }
+
+        /**
+         * @return The number of item lines, or -1 if the order had no item list
+         */
+        public int getItemCount() {
+            require(Column.ITEMS);
+            return itemCount;
+        }
+
+        /**
+         * @param item The item line
+         * @return The medicine's dictionary code, or -1 if the line has no medicine ID
+         */
+        public int getItemMedicineCode(int item) {
+            checkItem(item);
+            return itemMedicines[item];
+        }
+
+        /**
+         * @param item The item line
+         * @return The medicine ID, or null if the line has none
+         * @throws UncheckedIOException if the medicine dictionary cannot be read
+         */
+        public String getItemMedicineId(int item) {
+            int code = getItemMedicineCode(item);
+            try {
+                return code < 0 ? null : archive.getMedicineId(code);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @param item The item line
+         * @return The quantity
+         */
+        public int getItemQuantity(int item) {
+            checkItem(item);
+            return itemQuantities[item];
+        }
+
+        /**
+         * @param item The item line
+         * @return The unit price in cents at the time of the order
+         */
+        public long getItemPriceCents(int item) {
+            checkItem(item);
+            return itemPrices[item];
+        }
+
+        private void checkItem(int item) {
+            require(Column.ITEMS);
+            if (item < 0 || item >= itemCount) {
+                throw new IndexOutOfBoundsException("Item " + item + " of " + itemCount);
+            }
+        }
+    }
+}
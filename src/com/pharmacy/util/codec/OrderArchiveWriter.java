@@ -0,0 +1,308 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.model.Medicine;
+import com.pharmacy.model.Order;
+import com.pharmacy.util.io.AtomicFile;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes orders to an {@link OrderArchive} one at a time.
+ *
+ * Orders are buffered column by column until a stripe is full, then each column is
+ * compressed and written as its own chunk, so memory stays bounded by the stripe size
+ * however many orders are archived. The dictionaries and footer are written by
+ * {@link #close}, and the archive replaces the target file atomically only then; if any
+ * write failed, closing discards the partial archive instead.
+ *
+ * Not thread-safe.
+ */
+public class OrderArchiveWriter implements AutoCloseable {
+
+    /**
+     * Default number of orders per stripe
+     */
+    public static final int DEFAULT_STRIPE_SIZE = 64 * 1024;
+
+    private static final OrderArchive.Column[] COLUMNS = OrderArchive.COLUMNS;
+
+    /**
+     * Column bytes for the current stripe, exposing its buffer to avoid a copy
+     */
+    private static final class ColumnBuffer extends ByteArrayOutputStream {
+
+        private ColumnBuffer() {
+            super(64 * 1024);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private final AtomicFile file;
+    private final OutputStream out;
+    private final int stripeSize;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] deflateBuffer = new byte[64 * 1024];
+
+    private final ColumnBuffer[] buffers = new ColumnBuffer[COLUMNS.length];
+    private final BinaryWriter[] columns = new BinaryWriter[COLUMNS.length];
+
+    // Dictionary codes in first-seen order
+    private final Map<String, Integer> customerCodes = new HashMap<>();
+    private final List<String> customerIds = new ArrayList<>();
+    private final Map<String, Integer> medicineCodes = new HashMap<>();
+    private final List<String> medicineIds = new ArrayList<>();
+
+    private final List<Integer> stripeRows = new ArrayList<>();
+    private final List<long[][]> stripeChunks = new ArrayList<>();
+
+    private long position;
+    private long previousDate;
+    private int rowsInStripe;
+    private long count;
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * Create a writer with the default stripe size
+     *
+     * @param path The archive file; replaced when the writer is closed
+     * @throws IOException if the file cannot be created
+     */
+    public OrderArchiveWriter(Path path) throws IOException {
+        this(path, DEFAULT_STRIPE_SIZE);
+    }
+
+    /**
+     * Create a writer
+     *
+     * @param path The archive file; replaced when the writer is closed
+     * @param stripeSize Orders per stripe; larger stripes compress better but use more memory
+     * @throws IOException if the file cannot be created
+     */
+    public OrderArchiveWriter(Path path, int stripeSize) throws IOException {
+        if (stripeSize <= 0) {
+            throw new IllegalArgumentException("Stripe size must be positive");
+        }
+        this.stripeSize = stripeSize;
+        this.file = new AtomicFile(path);
+        this.out = new BufferedOutputStream(file.openOutputStream(), 256 * 1024);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            buffers[i] = new ColumnBuffer();
+            columns[i] = new BinaryWriter(buffers[i]);
+        }
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(OrderArchive.MAGIC);
+        header.writeInt(OrderArchive.VERSION);
+        position = OrderArchive.HEADER_SIZE;
+    }
+
+    /**
+     * Append an order
+     *
+     * @param order The order
+     * @throws IOException if the archive cannot be written; the writer is then unusable
+     */
+    public void write(Order order) throws IOException {
+        if (failed || closed) {
+            throw new IOException("Order archive writer is " + (closed ? "closed" : "unusable after an earlier failure"));
+        }
+        try {
+            encode(order);
+            count++;
+            if (++rowsInStripe == stripeSize) {
+                writeStripe();
+            }
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Append every order from a source. If the source itself fails, e.g. a stream of
+     * records read from a corrupt file, the writer is marked failed too, so closing it
+     * discards the partial archive.
+     *
+     * @param orders The orders
+     * @throws IOException if the archive cannot be written
+     */
+    public void writeAll(Iterable<? extends Order> orders) throws IOException {
+        try {
+            for (Order order : orders) {
+                write(order);
+            }
+        } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    private void encode(Order order) throws IOException {
+        columns[OrderArchive.Column.ORDER_ID.ordinal()].writeUniqueString(order.getOrderId());
+
+        BinaryWriter dates = columns[OrderArchive.Column.ORDER_DATE.ordinal()];
+        if (order.getOrderDate() == null) {
+            dates.writeVarLong(0);
+        } else {
+            long millis = order.getOrderDate().getTime();
+            long delta = millis - previousDate;
+            dates.writeVarLong(((delta << 1) ^ (delta >> 63)) + 1);
+            previousDate = millis;
+        }
+
+        columns[OrderArchive.Column.CUSTOMER_ID.ordinal()]
+            .writeVarInt(code(order.getCustomerId(), customerCodes, customerIds) + 1);
+        columns[OrderArchive.Column.TOTAL_AMOUNT.ordinal()].writeSignedVarLong(toCents(order.getTotalAmount()));
+        columns[OrderArchive.Column.STATUS.ordinal()].writeEnum(order.getStatus());
+        columns[OrderArchive.Column.PAYMENT_METHOD.ordinal()].writeEnum(order.getPaymentMethod());
+
+        BinaryWriter items = columns[OrderArchive.Column.ITEMS.ordinal()];
+        List<Order.OrderItem> orderItems = order.getOrderItems();
+        items.writeVarInt(orderItems == null ? 0 : orderItems.size() + 1);
+        if (orderItems != null) {
+            for (Order.OrderItem item : orderItems) {
+                Medicine medicine = item.getMedicine();
+                String medicineId = medicine == null ? null : medicine.getMedicineId();
+                items.writeVarInt(code(medicineId, medicineCodes, medicineIds) + 1);
+                items.writeSignedVarInt(item.getQuantity());
+                items.writeSignedVarLong(toCents(item.getPrice()));
+            }
+        }
+    }
+
+    private static int code(String id, Map<String, Integer> codes, List<String> ids) {
+        if (id == null) {
+            return -1;
+        }
+        Integer code = codes.get(id);
+        if (code == null) {
+            code = ids.size();
+            codes.put(id, code);
+            ids.add(id);
+        }
+        return code;
+    }
+
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    /**
+     * Compress and write each column of the current stripe
+     */
+    private void writeStripe() throws IOException {
+        if (rowsInStripe == 0) {
+            return;
+        }
+        long[][] chunks = new long[COLUMNS.length][];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns[i].flush();
+            chunks[i] = writeChunk(buffers[i].buffer(), buffers[i].size());
+            buffers[i].reset();
+            // A fresh writer, so no state carries over between stripes
+            columns[i] = new BinaryWriter(buffers[i]);
+        }
+        stripeRows.add(rowsInStripe);
+        stripeChunks.add(chunks);
+        rowsInStripe = 0;
+        previousDate = 0;
+    }
+
+    /**
+     * Deflate bytes into the archive
+     *
+     * @return The chunk's offset, compressed length and raw length
+     */
+    private long[] writeChunk(byte[] raw, int length) throws IOException {
+        long offset = position;
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflateBuffer);
+            out.write(deflateBuffer, 0, n);
+            position += n;
+        }
+        return new long[] {offset, position - offset, length};
+    }
+
+    private long[] writeDictionary(List<String> ids) throws IOException {
+        ColumnBuffer buffer = new ColumnBuffer();
+        try (BinaryWriter writer = new BinaryWriter(buffer)) {
+            writer.writeVarInt(ids.size());
+            for (String id : ids) {
+                writer.writeUniqueString(id);
+            }
+        }
+        return writeChunk(buffer.buffer(), buffer.size());
+    }
+
+    private static void writeChunkEntry(DataOutputStream footer, long[] chunk) throws IOException {
+        footer.writeLong(chunk[0]);
+        footer.writeInt((int) chunk[1]);
+        footer.writeInt((int) chunk[2]);
+    }
+
+    /**
+     * Get the number of orders written so far
+     *
+     * @return The order count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Write the last stripe, the dictionaries and the footer, and replace the target file.
+     * If an earlier write failed, the partial archive is discarded instead.
+     *
+     * @throws IOException if the archive cannot be completed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!failed) {
+                writeStripe();
+                long[] customers = writeDictionary(customerIds);
+                long[] medicines = writeDictionary(medicineIds);
+
+                long footerOffset = position;
+                DataOutputStream footer = new DataOutputStream(out);
+                footer.writeInt(stripeRows.size());
+                for (int stripe = 0; stripe < stripeRows.size(); stripe++) {
+                    footer.writeInt(stripeRows.get(stripe));
+                    for (long[] chunk : stripeChunks.get(stripe)) {
+                        writeChunkEntry(footer, chunk);
+                    }
+                }
+                writeChunkEntry(footer, customers);
+                writeChunkEntry(footer, medicines);
+                footer.writeLong(footerOffset);
+                footer.writeInt(OrderArchive.MAGIC);
+                footer.flush();
+                out.close();
+                file.commit();
+            }
+        } finally {
+            deflater.end();
+            out.close();
+            file.close();
+        }
+    }
+}
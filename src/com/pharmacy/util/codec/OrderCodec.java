@@ -0,0 +1,98 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.model.Medicine;
+import com.pharmacy.model.Order;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Binary codec for {@link Order}, including its items and their medicines
+ */
+final class OrderCodec implements Codec<Order> {
+
+    private static final Order.OrderStatus[] STATUSES = Order.OrderStatus.values();
+    private static final Order.PaymentMethod[] PAYMENT_METHODS = Order.PaymentMethod.values();
+
+    private final Codec<Medicine> medicineCodec;
+
+    OrderCodec(Codec<Medicine> medicineCodec) {
+        this.medicineCodec = medicineCodec;
+    }
+
+    @Override
+    public String getName() {
+        return "order";
+    }
+
+    @Override
+    public int getVersion() {
+        return ModelCodecs.SCHEMA_VERSION;
+    }
+
+    @Override
+    public void write(BinaryWriter out, Order order) throws IOException {
+        out.writeUniqueString(order.getOrderId());
+        out.writeString(order.getCustomerId());
+        out.writeDate(order.getOrderDate());
+        out.writeEnum(order.getStatus());
+        out.writeDouble(order.getTotalAmount());
+        out.writeString(order.getShippingAddress());
+        out.writeEnum(order.getPaymentMethod());
+        out.writeBoolean(order.isPaid());
+        out.writeString(order.getPrescriptionId());
+        out.writeDate(order.getDeliveryDate());
+        out.writeBoolean(order.isEmergency());
+        out.writeUniqueString(order.getTrackingNumber());
+
+        List<Order.OrderItem> items = order.getOrderItems();
+        out.writeListSize(items);
+        if (items != null) {
+            for (Order.OrderItem item : items) {
+                medicineCodec.write(out, item.getMedicine());
+                out.writeSignedVarInt(item.getQuantity());
+                out.writeDouble(item.getPrice());
+            }
+        }
+    }
+
+    @Override
+    public Order read(BinaryReader in, int version) throws IOException {
+        ModelCodecs.checkVersion(this, version);
+        Order order = new Order();
+        order.setOrderId(in.readString());
+        order.setCustomerId(in.readString());
+        order.setOrderDate(in.readDate());
+        Order.OrderStatus status = in.readEnum(STATUSES);
+        double totalAmount = in.readDouble();
+        order.setShippingAddress(in.readString());
+        order.setPaymentMethod(in.readEnum(PAYMENT_METHODS));
+        order.setPaid(in.readBoolean());
+        order.setPrescriptionId(in.readString());
+        Date deliveryDate = in.readDate();
+        boolean emergency = in.readBoolean();
+        order.setTrackingNumber(in.readString());
+
+        int itemCount = in.readListSize();
+        List<Order.OrderItem> items = null;
+        if (itemCount >= 0) {
+            items = BinaryReader.newList(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                Order.OrderItem item = new Order.OrderItem(medicineCodec.read(in, version), in.readSignedVarInt());
+                item.setPrice(in.readDouble());
+                items.add(item);
+            }
+        }
+
+        // The setters below have side effects on the total and the status, so the stored
+        // values are applied last
+        if (items != null) {
+            order.setOrderItems(items);
+        }
+        order.setDeliveryDate(deliveryDate);
+        order.setEmergency(emergency);
+        order.setStatus(status);
+        order.setTotalAmount(totalAmount);
+        return order;
+    }
+}
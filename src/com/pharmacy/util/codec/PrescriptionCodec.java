@@ -0,0 +1,151 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.model.Medicine;
+import com.pharmacy.model.Prescription;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Binary codec for {@link Prescription}, including its medicines, dosages and medications
+ */
+final class PrescriptionCodec implements Codec<Prescription> {
+
+    private final Codec<Medicine> medicineCodec;
+
+    PrescriptionCodec(Codec<Medicine> medicineCodec) {
+        this.medicineCodec = medicineCodec;
+    }
+
+    @Override
+    public String getName() {
+        return "prescription";
+    }
+
+    @Override
+    public int getVersion() {
+        return ModelCodecs.SCHEMA_VERSION;
+    }
+
+    @Override
+    public void write(BinaryWriter out, Prescription prescription) throws IOException {
+        out.writeUniqueString(prescription.getPrescriptionId());
+        out.writeString(prescription.getCustomerId());
+        out.writeString(prescription.getDoctorId());
+        out.writeString(prescription.getPatientName());
+        out.writeString(prescription.getDoctorName());
+        out.writeDate(prescription.getIssueDate());
+        out.writeDate(prescription.getExpiryDate());
+        out.writeString(prescription.getDiagnosis());
+
+        List<Medicine> medicines = prescription.getMedicines();
+        out.writeListSize(medicines);
+        if (medicines != null) {
+            for (Medicine medicine : medicines) {
+                out.writeNullable(medicineCodec, medicine);
+            }
+        }
+
+        out.writeStringList(prescription.getInstructions());
+        out.writeBoolean(prescription.isVerified());
+        out.writeString(prescription.getPrescriptionImagePath());
+        out.writeString(prescription.getVerificationComments());
+
+        List<Prescription.MedicineDosage> dosages = prescription.getMedicinesDosage();
+        out.writeListSize(dosages);
+        for (Prescription.MedicineDosage dosage : dosages) {
+            // A dosage normally refers to a medicine already in the list; write its position
+            // instead of a second copy so the shared reference survives a round trip
+            int index = indexOf(medicines, dosage.getMedicine());
+            out.writeVarInt(index + 1);
+            if (index < 0) {
+                out.writeNullable(medicineCodec, dosage.getMedicine());
+            }
+            out.writeString(dosage.getDosage());
+            out.writeSignedVarInt(dosage.getDuration());
+            out.writeString(dosage.getSpecialInstructions());
+        }
+
+        List<Prescription.Medication> medications = prescription.getMedications();
+        out.writeListSize(medications);
+        if (medications != null) {
+            for (Prescription.Medication medication : medications) {
+                out.writeString(medication.getName());
+                out.writeString(medication.getDosage());
+                out.writeString(medication.getFrequency());
+                out.writeString(medication.getDuration());
+                out.writeString(medication.getInstructions());
+            }
+        }
+    }
+
+    @Override
+    public Prescription read(BinaryReader in, int version) throws IOException {
+        ModelCodecs.checkVersion(this, version);
+        Prescription prescription = new Prescription();
+        prescription.setPrescriptionId(in.readString());
+        prescription.setCustomerId(in.readString());
+        prescription.setDoctorId(in.readString());
+        prescription.setPatientName(in.readString());
+        prescription.setDoctorName(in.readString());
+        prescription.setIssueDate(in.readDate());
+        prescription.setExpiryDate(in.readDate());
+        prescription.setDiagnosis(in.readString());
+
+        int medicineCount = in.readListSize();
+        List<Medicine> medicines = null;
+        if (medicineCount >= 0) {
+            medicines = BinaryReader.newList(medicineCount);
+            for (int i = 0; i < medicineCount; i++) {
+                medicines.add(in.readNullable(medicineCodec, version));
+            }
+        }
+        prescription.setMedicines(medicines);
+
+        prescription.setInstructions(in.readStringList());
+        prescription.setVerified(in.readBoolean());
+        prescription.setPrescriptionImagePath(in.readString());
+        prescription.setVerificationComments(in.readString());
+
+        int dosageCount = in.readListSize();
+        for (int i = 0; i < dosageCount; i++) {
+            int index = in.readVarInt() - 1;
+            Medicine medicine;
+            if (index < 0) {
+                medicine = in.readNullable(medicineCodec, version);
+            } else if (medicines != null && index < medicines.size()) {
+                medicine = medicines.get(index);
+            } else {
+                throw new IOException("Unknown medicine reference " + index);
+            }
+            String dosage = in.readString();
+            int duration = in.readSignedVarInt();
+            String specialInstructions = in.readString();
+            prescription.getMedicinesDosage()
+                .add(prescription.new MedicineDosage(medicine, dosage, duration, specialInstructions));
+        }
+
+        int medicationCount = in.readListSize();
+        List<Prescription.Medication> medications = null;
+        if (medicationCount >= 0) {
+            medications = BinaryReader.newList(medicationCount);
+            for (int i = 0; i < medicationCount; i++) {
+                medications.add(new Prescription.Medication(in.readString(), in.readString(), in.readString(),
+                                                            in.readString(), in.readString()));
+            }
+        }
+        prescription.setMedications(medications);
+        return prescription;
+    }
+
+    private static int indexOf(List<Medicine> medicines, Medicine medicine) {
+        if (medicines == null || medicine == null) {
+            return -1;
+        }
+        for (int i = 0; i < medicines.size(); i++) {
+            if (medicines.get(i) == medicine) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
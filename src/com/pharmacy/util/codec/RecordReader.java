@@ -0,0 +1,88 @@
+package com.pharmacy.util.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads records one at a time from a stream written by {@link RecordWriter}.
+ *
+ * Only the current record and the bounded string table are held in memory, so files of
+ * any size can be read with constant heap, and a caller can stop at any point.
+ * A record cut short at the end of the file, as left by an interrupted writer, is reported
+ * as an error rather than as the end of the stream, so a truncated file is never mistaken
+ * for a complete one.
+ *
+ * Not thread-safe.
+ *
+ * @param <T> The record type
+ */
+public class RecordReader<T> implements AutoCloseable {
+
+    private final Codec<T> codec;
+    private final BinaryReader in;
+    private final int version;
+    private long count;
+
+    /**
+     * Create a record reader and read the file header
+     *
+     * @param in The stream to read from; closed when the reader is closed
+     * @param codec The codec for the records
+     * @throws IOException if the header is missing or does not match the codec
+     */
+    public RecordReader(InputStream in, Codec<T> codec) throws IOException {
+        this.codec = codec;
+        this.in = new BinaryReader(in);
+        this.version = this.in.readHeader(codec);
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return The record, or null at the end of the stream
+     * @throws IOException if a record is malformed or cut short
+     */
+    public T read() throws IOException {
+        if (in.isAtEnd()) {
+            return null;
+        }
+        try {
+            int length = in.readVarInt();
+            long start = in.getBytesRead();
+            T record = codec.read(in, version);
+            long consumed = in.getBytesRead() - start;
+            if (consumed != length) {
+                throw new IOException("Record " + count + " is " + length + " bytes but "
+                                      + consumed + " bytes were decoded");
+            }
+            count++;
+            return record;
+        } catch (EOFException e) {
+            throw new IOException("Record stream ends with a truncated record after " + count + " records", e);
+        }
+    }
+
+    /**
+     * Get the number of records read so far
+     *
+     * @return The record count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the schema version of the records
+     *
+     * @return The schema version from the header
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,142 @@
+package com.pharmacy.util.codec;
+
+import com.pharmacy.util.io.AtomicFile;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes records one at a time as a stream of length-prefixed binary records.
+ *
+ * Each record is encoded into a reusable scratch buffer and then written after its length,
+ * so memory use depends on the largest record rather than on the number of records.
+ * The string table is shared across the whole stream, which keeps repeated strings
+ * small, so a {@link RecordReader} must read the stream from the start.
+ *
+ * When writing through an {@link AtomicFile}, the target is replaced only when the writer
+ * is closed; if any write failed, closing discards the partial file instead.
+ *
+ * Not thread-safe.
+ *
+ * @param <T> The record type
+ */
+public class RecordWriter<T> implements AutoCloseable {
+
+    /**
+     * Byte buffer whose array can be written out without a copy
+     */
+    private static final class ScratchBuffer extends ByteArrayOutputStream {
+        ScratchBuffer() {
+            super(1024);
+        }
+
+        void writeTo(BinaryWriter out) throws IOException {
+            out.writeBytes(buf, 0, count);
+        }
+    }
+
+    private final Codec<T> codec;
+    private final BinaryWriter out;
+    private final AtomicFile file;
+    private final ScratchBuffer scratch = new ScratchBuffer();
+    private final BinaryWriter recordWriter = new BinaryWriter(scratch);
+    private long count;
+
+    // Set when a record fails part way; the string table may no longer match the file
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * Create a record writer and write the file header
+     *
+     * @param out The stream to write to; closed when the writer is closed
+     * @param codec The codec for the records
+     * @throws IOException if the header cannot be written
+     */
+    public RecordWriter(OutputStream out, Codec<T> codec) throws IOException {
+        this(out, codec, null);
+    }
+
+    /**
+     * Create a record writer that commits an atomic file when closed, and write the file header
+     *
+     * @param out The stream to write to, usually opened on the atomic file; closed when the
+     *            writer is closed
+     * @param codec The codec for the records
+     * @param file The file to commit once the stream is closed, or null
+     * @throws IOException if the header cannot be written
+     */
+    public RecordWriter(OutputStream out, Codec<T> codec, AtomicFile file) throws IOException {
+        this.codec = codec;
+        this.out = new BinaryWriter(out);
+        this.file = file;
+        this.out.writeHeader(codec);
+    }
+
+    /**
+     * Append one record
+     *
+     * @param record The record
+     * @throws IOException if writing fails, or an earlier record failed
+     */
+    public void write(T record) throws IOException {
+        if (failed || closed) {
+            throw new IOException("Record writer is " + (closed ? "closed" : "unusable after an earlier failure"));
+        }
+        scratch.reset();
+        try {
+            codec.write(recordWriter, record);
+            recordWriter.flush();
+            out.writeVarInt(scratch.size());
+            scratch.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+        count++;
+    }
+
+    /**
+     * Get the number of records written
+     *
+     * @return The record count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Write buffered records to the underlying stream
+     *
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Close the stream and, when writing an atomic file, replace the target with it.
+     * If an earlier write failed, the partial file is discarded instead.
+     *
+     * @throws IOException if the stream cannot be closed or the file cannot be committed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (file == null) {
+            out.close();
+            return;
+        }
+        try {
+            out.close();
+            if (!failed) {
+                file.commit();
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
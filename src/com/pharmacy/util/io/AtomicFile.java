@@ -0,0 +1,123 @@
+package com.pharmacy.util.io;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Replaces a file atomically: the new contents are written to a temporary file in the
+ * same directory, synced to disk, and renamed over the target in one step. Readers and
+ * a crash at any point see either the complete old file or the complete new one, never
+ * a torn mix.
+ *
+ * Typical use:
+ * <pre>
+ * try (AtomicFile file = new AtomicFile(path)) {
+ *     try (OutputStream out = file.openOutputStream()) {
+ *         ...
+ *     }
+ *     file.commit();
+ * }
+ * </pre>
+ * Closing without committing deletes the temporary file and leaves the target untouched.
+ */
+public class AtomicFile implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(AtomicFile.class.getName());
+
+    private final Path target;
+    private final Path temp;
+    private boolean committed;
+
+    /**
+     * Start replacing a file
+     *
+     * @param target The file to replace; it need not exist yet
+     * @throws IOException if the temporary file cannot be created
+     */
+    public AtomicFile(Path target) throws IOException {
+        this.target = target.toAbsolutePath();
+        Path directory = this.target.getParent();
+        Files.createDirectories(directory);
+        this.temp = Files.createTempFile(directory, this.target.getFileName() + ".", ".tmp");
+    }
+
+    /**
+     * Get the temporary file, for writers that need a path rather than a stream
+     *
+     * @return The temporary file
+     */
+    public Path getTempPath() {
+        return temp;
+    }
+
+    /**
+     * Open a stream that writes the new contents. Close it before calling {@link #commit}.
+     *
+     * @return The stream
+     * @throws IOException if the temporary file cannot be opened
+     */
+    public OutputStream openOutputStream() throws IOException {
+        return new FileOutputStream(temp.toFile());
+    }
+
+    /**
+     * Sync the new contents and rename them over the target
+     *
+     * @throws IOException if the contents cannot be synced or the rename fails
+     */
+    public void commit() throws IOException {
+        sync(temp);
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            logger.warning("Atomic rename not supported for " + target + "; replacing non-atomically");
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+        syncDirectory(target.getParent());
+    }
+
+    /**
+     * Flush a file's contents to disk
+     *
+     * @param file The file
+     * @throws IOException if the file cannot be synced
+     */
+    public static void sync(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Make a file created, renamed or deleted in a directory durable.
+     * Not every platform can sync a directory, so failure is ignored.
+     *
+     * @param directory The directory, or null for the current directory
+     */
+    public static void syncDirectory(Path directory) {
+        if (directory == null) {
+            directory = Path.of("").toAbsolutePath();
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The change itself is still atomic, only its durability before the next sync is unknown
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.pharmacy.util.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads a stream written by {@link ChecksummedOutputStream}, verifying each block's
+ * CRC32C before any of its bytes are returned. A checksum mismatch, a truncated file or
+ * data after the trailer fails with an {@link IOException} naming the bad block, so a
+ * decoder reading through this stream never sees corrupt input.
+ *
+ * Only one block is held in memory at a time. Not thread-safe.
+ */
+public class ChecksummedInputStream extends InputStream {
+
+    // Header of the binary record format, as written by BinaryWriter.writeHeader
+    private static final byte[] BINARY_RECORD_MAGIC = {'P', 'H', 'R', 'B'};
+
+    private final DataInputStream in;
+    private final String source;
+    private final byte[] block;
+    private final CRC32C crc = new CRC32C();
+    private int position;
+    private int limit;
+    private int blocks;
+    private boolean ended;
+
+    /**
+     * Create a stream and read the header
+     *
+     * @param in The stream to read from; closed when this stream is closed
+     * @param source A name for the data, e.g. the file path, used in error messages
+     * @throws IOException if the header is missing or invalid
+     */
+    public ChecksummedInputStream(InputStream in, String source) throws IOException {
+        this.in = new DataInputStream(in);
+        this.source = source;
+        try {
+            byte[] magic = new byte[ChecksummedOutputStream.MAGIC.length];
+            this.in.readFully(magic);
+            if (!Arrays.equals(magic, ChecksummedOutputStream.MAGIC)) {
+                throw new IOException("Not a checksummed file: " + source);
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != ChecksummedOutputStream.VERSION) {
+                throw new IOException("Unsupported checksummed file version " + version + ": " + source);
+            }
+            int blockSize = this.in.readInt();
+            if (blockSize <= 0 || blockSize > ChecksummedOutputStream.MAX_BLOCK_SIZE) {
+                throw new IOException("Corrupt checksummed file header in " + source);
+            }
+            this.block = new byte[blockSize];
+        } catch (EOFException e) {
+            throw new IOException("Checksummed file header is truncated: " + source, e);
+        }
+    }
+
+    /**
+     * Open a file for reading, verifying its checksums if it was written by
+     * {@link ChecksummedOutputStream}. Files in the formats saved before checksums were
+     * added, Java serialization and the binary record format, are read as they are so they
+     * still load. Any other start, including a damaged checksum header, fails rather than
+     * silently skipping verification.
+     *
+     * @param path The file
+     * @return A buffered stream over the file's contents
+     * @throws IOException if the file cannot be opened, or its header is neither a valid
+     *                     checksum header nor one of the earlier formats
+     */
+    public static InputStream open(Path path) throws IOException {
+        InputStream file = new BufferedInputStream(Files.newInputStream(path), 64 * 1024);
+        try {
+            byte[] magic = ChecksummedOutputStream.MAGIC;
+            file.mark(magic.length);
+            byte[] start = file.readNBytes(magic.length);
+            file.reset();
+            if (Arrays.equals(start, magic)) {
+                return new ChecksummedInputStream(file, path.toString());
+            }
+            if (isUnchecksummedFormat(start)) {
+                return file;
+            }
+            throw new IOException("Not a checksummed file and not a known earlier format; "
+                                  + "the header may be corrupt: " + path);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether a file starts like one of the formats written without checksums
+     */
+    private static boolean isUnchecksummedFormat(byte[] start) {
+        if (start.length < 4) {
+            return false;
+        }
+        boolean serialized = ((start[0] & 0xFF) << 8 | (start[1] & 0xFF)) == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF)
+                             && ((start[2] & 0xFF) << 8 | (start[3] & 0xFF)) == ObjectStreamConstants.STREAM_VERSION;
+        return serialized || Arrays.equals(start, BINARY_RECORD_MAGIC);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == limit && !nextBlock()) {
+            return -1;
+        }
+        int chunk = Math.min(length, limit - position);
+        System.arraycopy(block, position, bytes, offset, chunk);
+        position += chunk;
+        return chunk;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * Read and verify the next block
+     *
+     * @return false at the trailer
+     */
+    private boolean nextBlock() throws IOException {
+        if (ended) {
+            return false;
+        }
+        try {
+            int length = in.readInt();
+            if (length == 0) {
+                int written = in.readInt();
+                if (written != blocks) {
+                    throw new IOException("Checksummed file " + source + " has " + blocks
+                                          + " blocks but its trailer records " + written);
+                }
+                if (in.read() != -1) {
+                    throw new IOException("Checksummed file " + source + " has data after its trailer");
+                }
+                ended = true;
+                return false;
+            }
+            if (length < 0 || length > block.length) {
+                throw new IOException("Corrupt length " + length + " in block " + blocks + " of " + source);
+            }
+            int checksum = in.readInt();
+            in.readFully(block, 0, length);
+            crc.reset();
+            crc.update(block, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch in block " + blocks + " of " + source);
+            }
+            blocks++;
+            position = 0;
+            limit = length;
+            return true;
+        } catch (EOFException e) {
+            throw new IOException("Checksummed file " + source + " is truncated after block " + blocks, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
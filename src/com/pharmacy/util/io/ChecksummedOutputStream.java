@@ -0,0 +1,132 @@
+package com.pharmacy.util.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes data in blocks that each carry a CRC32C, so {@link ChecksummedInputStream} can
+ * detect a torn write or bit rot at load time instead of failing later inside a decoder.
+ *
+ * Layout:
+ * <pre>
+ * header   magic "PHCK", version byte, block size
+ * blocks   length (1..block size), CRC32C of the data, data
+ * trailer  length 0, number of blocks written
+ * </pre>
+ * The trailer is written by {@link #close}, so a file cut short at a block boundary is
+ * still detected as truncated.
+ *
+ * Not thread-safe.
+ */
+public class ChecksummedOutputStream extends OutputStream {
+
+    static final byte[] MAGIC = {'P', 'H', 'C', 'K'};
+    static final int VERSION = 1;
+
+    /**
+     * Default block size; one checksum per block costs 8 bytes of overhead
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    static final int MAX_BLOCK_SIZE = 16 << 20;
+
+    private final DataOutputStream out;
+    private final byte[] block;
+    private final CRC32C crc = new CRC32C();
+    private int count;
+    private int blocks;
+    private boolean closed;
+
+    /**
+     * Create a stream with the default block size and write the header
+     *
+     * @param out The stream to write to; closed when this stream is closed
+     * @throws IOException if the header cannot be written
+     */
+    public ChecksummedOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a stream and write the header
+     *
+     * @param out The stream to write to; closed when this stream is closed
+     * @param blockSize The largest block, in bytes
+     * @throws IOException if the header cannot be written
+     */
+    public ChecksummedOutputStream(OutputStream out, int blockSize) throws IOException {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size out of range: " + blockSize);
+        }
+        this.out = new DataOutputStream(out);
+        this.block = new byte[blockSize];
+        this.out.write(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeInt(blockSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) {
+            writeBlock();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == block.length) {
+                writeBlock();
+            }
+            int chunk = Math.min(length, block.length - count);
+            System.arraycopy(bytes, offset, block, count, chunk);
+            count += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        crc.reset();
+        crc.update(block, 0, count);
+        out.writeInt(count);
+        out.writeInt((int) crc.getValue());
+        out.write(block, 0, count);
+        blocks++;
+        count = 0;
+    }
+
+    /**
+     * Write any buffered data as a (possibly short) block and flush the underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Write the last block and the trailer, then close the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeBlock();
+            out.writeInt(0);
+            out.writeInt(blocks);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.pharmacy.util.notification;
+
+import com.pharmacy.util.TokenBucket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dispatches sends for one notification channel, enforcing the limits the channel declares.
+ *
+ * Sends wait in one queue per priority class. A pump thread takes the next send,
+ * always preferring transactional over marketing, waits until the channel's token bucket
+ * has enough tokens for it, and starts it once a concurrency slot is free. While waiting
+ * for tokens the pump re-checks the queues, so a transactional send arriving behind a large
+ * marketing batch goes first.
+ *
+ * A backlog semaphore caps queued plus in-flight sends; once the backlog is full,
+ * callers block until capacity frees up, or are refused straight away when using the
+ * tryDispatch variants, which pushes back on producers instead of growing an unbounded queue.
+ */
+public class ChannelDispatcher implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ChannelDispatcher.class.getName());
+
+    // Longest the pump sleeps before re-checking for higher-priority sends
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final NotificationPriority[] PRIORITIES = NotificationPriority.values();
+
+    /**
+     * Snapshot of a channel's queue and latency metrics
+     */
+    public record Metrics(NotificationType type, int transactionalDepth, int marketingDepth, int inFlight,
+                          double averageTransactionalWaitMillis, double averageMarketingWaitMillis,
+                          double maxWaitMillis, long dispatched) {
+    }
+
+    /**
+     * A send waiting in a priority queue: either a single notification,
+     * or one message to a batch of recipients
+     */
+    private record QueuedSend(Notification single, String subject, String message, List<String> recipients,
+                              NotificationPriority priority, long enqueuedAt) {
+
+        private int tokens() {
+            return single != null ? 1 : Math.max(1, recipients.size());
+        }
+
+        private void addTo(List<Notification> notifications, NotificationType type) {
+            if (single != null) {
+                notifications.add(single);
+            } else {
+                for (String recipient : recipients) {
+                    notifications.add(new Notification(type, recipient, subject, message, null));
+                }
+            }
+        }
+    }
+
+    private final NotificationChannel channel;
+    private final NotificationType type;
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final int maxBatchSize;
+    private final int maxBacklog;
+    private final Semaphore concurrency;
+    private final Semaphore backlog;
+    private final TokenBucket rateLimiter;
+
+    // One queue per priority class and a count of queued sends the pump waits on
+    private final Deque<QueuedSend>[] queues;
+    private final AtomicLong[] depths;
+    private final Semaphore queued = new Semaphore(0);
+
+    // Wait-time metrics per priority class
+    private final AtomicLong[] totalWaitNanos;
+    private final AtomicLong[] waitCounts;
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private final Thread pump;
+    private volatile boolean closed;
+
+    /**
+     * Create a dispatcher for a channel
+     *
+     * @param channel The channel, whose limits the dispatcher enforces
+     * @param executor The executor sends run on
+     * @param maxBacklog Maximum sends queued or in progress
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ChannelDispatcher(NotificationChannel channel, Executor executor, int maxBacklog) {
+        NotificationChannel.Limits limits = channel.getLimits();
+        if (maxBacklog < limits.maxConcurrency()) {
+            throw new IllegalArgumentException("Backlog smaller than concurrency for channel " + channel.getType());
+        }
+        this.channel = channel;
+        this.type = channel.getType();
+        this.executor = executor;
+        this.maxConcurrency = limits.maxConcurrency();
+        this.maxBatchSize = limits.maxBatchSize();
+        this.maxBacklog = maxBacklog;
+        this.concurrency = new Semaphore(maxConcurrency);
+        this.backlog = new Semaphore(maxBacklog);
+        this.rateLimiter = new TokenBucket(limits.ratePerSecond(), limits.burst());
+
+        this.queues = new Deque[PRIORITIES.length];
+        this.depths = new AtomicLong[PRIORITIES.length];
+        this.totalWaitNanos = new AtomicLong[PRIORITIES.length];
+        this.waitCounts = new AtomicLong[PRIORITIES.length];
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues[i] = new ConcurrentLinkedDeque<>();
+            depths[i] = new AtomicLong();
+            totalWaitNanos[i] = new AtomicLong();
+            waitCounts[i] = new AtomicLong();
+        }
+
+        this.pump = Thread.ofVirtual().name("notification-pump-" + type.name().toLowerCase()).start(this::pumpLoop);
+    }
+
+    /**
+     * Dispatch a single transactional notification, blocking while the channel backlog is full
+     *
+     * @param notification The notification to send
+     * @return true if the send was queued, false if the caller was interrupted
+     *         or the dispatcher is closed
+     */
+    public boolean dispatch(Notification notification) {
+        return enqueue(new QueuedSend(notification, null, null, null, NotificationPriority.TRANSACTIONAL,
+                                      System.nanoTime()), true);
+    }
+
+    /**
+     * Dispatch a single transactional notification if the channel backlog has room
+     *
+     * @param notification The notification to send
+     * @return true if the send was queued, false if the backlog is full or the dispatcher is closed
+     */
+    public boolean tryDispatch(Notification notification) {
+        return enqueue(new QueuedSend(notification, null, null, null, NotificationPriority.TRANSACTIONAL,
+                                      System.nanoTime()), false);
+    }
+
+    /**
+     * Dispatch one message to a batch of recipients, blocking while the channel backlog is full.
+     * The batch takes one concurrency slot and is charged one token per recipient.
+     *
+     * @param priority The priority class
+     * @param subject The subject or title
+     * @param message The message body
+     * @param recipients The recipients, at most the channel's batch size
+     * @return true if the batch was queued, false if the caller was interrupted
+     *         or the dispatcher is closed
+     * @throws IllegalArgumentException if the batch is larger than the channel's batch size
+     */
+    public boolean dispatchBatch(NotificationPriority priority, String subject, String message, List<String> recipients) {
+        checkBatchSize(recipients);
+        return enqueue(new QueuedSend(null, subject, message, recipients, priority, System.nanoTime()), true);
+    }
+
+    /**
+     * Dispatch one message to a batch of recipients if the channel backlog has room
+     *
+     * @param priority The priority class
+     * @param subject The subject or title
+     * @param message The message body
+     * @param recipients The recipients, at most the channel's batch size
+     * @return true if the batch was queued, false if the backlog is full or the dispatcher is closed
+     * @throws IllegalArgumentException if the batch is larger than the channel's batch size
+     */
+    public boolean tryDispatchBatch(NotificationPriority priority, String subject, String message,
+                                    List<String> recipients) {
+        checkBatchSize(recipients);
+        return enqueue(new QueuedSend(null, subject, message, recipients, priority, System.nanoTime()), false);
+    }
+
+    // Checked up front, since the pump could never afford a batch larger than the bucket
+    private void checkBatchSize(List<String> recipients) {
+        if (recipients.size() > maxBatchSize) {
+            throw new IllegalArgumentException(recipients.size() + " recipients exceed the " + type
+                                               + " batch size of " + maxBatchSize);
+        }
+    }
+
+    private boolean enqueue(QueuedSend send, boolean block) {
+        if (closed) {
+            logger.warning(type + " notification rejected: dispatcher is shut down");
+            return false;
+        }
+        if (block) {
+            try {
+                backlog.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning("Interrupted while waiting for " + type + " backlog capacity");
+                return false;
+            }
+        } else if (!backlog.tryAcquire()) {
+            return false;
+        }
+
+        int priority = send.priority().ordinal();
+        queues[priority].addLast(send);
+        depths[priority].incrementAndGet();
+        // close() may have drained the queues since the check above. If this send is still
+        // there, nobody will take it, so pull it back out and give up its backlog slot
+        if (closed && queues[priority].removeLastOccurrence(send)) {
+            depths[priority].decrementAndGet();
+            backlog.release();
+            logger.warning(type + " notification rejected: dispatcher is shut down");
+            return false;
+        }
+        queued.release();
+        return true;
+    }
+
+    /**
+     * Take queued sends in priority order, rate limit them and start them
+     */
+    private void pumpLoop() {
+        try {
+            while (!closed) {
+                queued.acquire();
+                QueuedSend next = awaitTokens();
+                if (next == null) {
+                    continue;
+                }
+                try {
+                    concurrency.acquire();
+                } catch (InterruptedException e) {
+                    // Put it back at the front so drainQueued still sees it
+                    queues[next.priority().ordinal()].addFirst(next);
+                    depths[next.priority().ordinal()].incrementAndGet();
+                    throw e;
+                }
+                start(next);
+            }
+        } catch (InterruptedException e) {
+            // Closing
+        }
+    }
+
+    /**
+     * Wait until the highest-priority queued send can be afforded, then dequeue it
+     *
+     * @return The send, or null if the queues were drained by someone else or the dispatcher closed
+     */
+    private QueuedSend awaitTokens() throws InterruptedException {
+        while (!closed) {
+            int priority = 0;
+            QueuedSend head = null;
+            while (priority < PRIORITIES.length && (head = queues[priority].peek()) == null) {
+                priority++;
+            }
+            if (head == null) {
+                return null;
+            }
+            if (rateLimiter.tryAcquire(head.tokens())) {
+                // The head may have been drained meanwhile; only send it if this removed it
+                if (!queues[priority].remove(head)) {
+                    continue;
+                }
+                depths[priority].decrementAndGet();
+                recordWait(priority, System.nanoTime() - head.enqueuedAt());
+                return head;
+            }
+            LockSupport.parkNanos(Math.min(rateLimiter.nanosUntilAvailable(head.tokens()), MAX_PARK_NANOS) + 1);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return null;
+    }
+
+    private void start(QueuedSend next) {
+        try {
+            executor.execute(() -> {
+                try {
+                    if (next.single() != null) {
+                        channel.send(next.single());
+                    } else {
+                        channel.sendBatch(next.subject(), next.message(), next.recipients());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.warning(type + " send interrupted");
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "Error sending " + type + " notification", e);
+                } finally {
+                    concurrency.release();
+                    backlog.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            concurrency.release();
+            backlog.release();
+            logger.warning(type + " notification dropped: executor is shut down");
+        }
+    }
+
+    private void recordWait(int priority, long waitNanos) {
+        totalWaitNanos[priority].addAndGet(waitNanos);
+        waitCounts[priority].incrementAndGet();
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Wait until every queued and in-flight send has finished
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return true if the channel became idle, false if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        if (backlog.tryAcquire(maxBacklog, timeout, unit)) {
+            backlog.release(maxBacklog);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the channel this dispatcher sends to
+     *
+     * @return The channel
+     */
+    public NotificationChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Get the channel type
+     *
+     * @return The channel type
+     */
+    public NotificationType getType() {
+        return type;
+    }
+
+    /**
+     * Get the number of sends currently in progress at the provider
+     *
+     * @return The in-flight count
+     */
+    public int getInFlight() {
+        return maxConcurrency - concurrency.availablePermits();
+    }
+
+    /**
+     * Get the number of sends queued or in progress
+     *
+     * @return The backlog size
+     */
+    public int getBacklog() {
+        return maxBacklog - backlog.availablePermits();
+    }
+
+    /**
+     * Get the number of sends waiting in a priority queue
+     *
+     * @param priority The priority class
+     * @return The queue depth
+     */
+    public int getQueueDepth(NotificationPriority priority) {
+        return (int) depths[priority.ordinal()].get();
+    }
+
+    /**
+     * Get a snapshot of this channel's metrics
+     *
+     * @return The channel metrics
+     */
+    public Metrics getMetrics() {
+        int transactional = NotificationPriority.TRANSACTIONAL.ordinal();
+        int marketing = NotificationPriority.MARKETING.ordinal();
+        return new Metrics(type,
+                           getQueueDepth(NotificationPriority.TRANSACTIONAL),
+                           getQueueDepth(NotificationPriority.MARKETING),
+                           getInFlight(),
+                           averageWaitMillis(transactional),
+                           averageWaitMillis(marketing),
+                           maxWaitNanos.get() / 1_000_000.0,
+                           waitCounts[transactional].get() + waitCounts[marketing].get());
+    }
+
+    private double averageWaitMillis(int priority) {
+        long count = waitCounts[priority].get();
+        return count == 0 ? 0 : totalWaitNanos[priority].get() / 1_000_000.0 / count;
+    }
+
+    /**
+     * Remove every send still waiting in the queues.
+     * Sends already started are not affected.
+     *
+     * @return The notifications that were queued, one per recipient
+     */
+    public List<Notification> drainQueued() {
+        List<Notification> drained = new ArrayList<>();
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            QueuedSend send;
+            while ((send = queues[i].poll()) != null) {
+                depths[i].decrementAndGet();
+                backlog.release();
+                send.addTo(drained, type);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Stop accepting sends and stop the pump.
+     * Sends still queued stay in the queues and can be taken with drainQueued.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        pump.interrupt();
+        try {
+            pump.join(Duration.ofSeconds(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
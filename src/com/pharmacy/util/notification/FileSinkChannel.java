@@ -0,0 +1,97 @@
+package com.pharmacy.util.notification;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends notifications to a local file, one tab-separated line per recipient.
+ * Useful for audits and for running the system without external providers.
+ */
+public class FileSinkChannel implements NotificationChannel {
+
+    private static final Logger logger = Logger.getLogger(FileSinkChannel.class.getName());
+
+    private final Limits limits;
+    private final Path path;
+    private final BufferedWriter writer;
+
+    /**
+     * Open a file sink, appending to the file if it exists
+     *
+     * @param limits The channel limits
+     * @param path The file to append to
+     * @throws IOException if the file cannot be opened
+     */
+    public FileSinkChannel(Limits limits, Path path) throws IOException {
+        this.limits = limits;
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public NotificationType getType() {
+        return NotificationType.FILE;
+    }
+
+    @Override
+    public Limits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public synchronized void send(Notification notification) throws IOException {
+        writeLine(notification.recipient(), notification.subject(), notification.message());
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void sendBatch(String subject, String message, List<String> recipients) throws IOException {
+        // One flush for the whole batch
+        for (String recipient : recipients) {
+            writeLine(recipient, subject, message);
+        }
+        writer.flush();
+    }
+
+    private void writeLine(String recipient, String subject, String message) throws IOException {
+        writer.write(Long.toString(System.currentTimeMillis()));
+        writer.write('\t');
+        writer.write(clean(recipient));
+        writer.write('\t');
+        writer.write(clean(subject));
+        writer.write('\t');
+        writer.write(clean(message));
+        writer.newLine();
+    }
+
+    /**
+     * Keep each notification on one line
+     */
+    private static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error closing notification file " + path, e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.pharmacy.util.notification;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Delivers notifications to per-user in-app inboxes held in memory.
+ * Each inbox keeps the most recent messages up to a fixed size.
+ */
+public class InAppChannel implements NotificationChannel {
+
+    private final Limits limits;
+    private final int inboxSize;
+    private final ConcurrentMap<String, Deque<Notification>> inboxes = new ConcurrentHashMap<>();
+
+    /**
+     * Create an in-app channel
+     *
+     * @param limits The channel limits
+     * @param inboxSize Maximum notifications kept per user
+     */
+    public InAppChannel(Limits limits, int inboxSize) {
+        if (inboxSize <= 0) {
+            throw new IllegalArgumentException("Inbox size must be positive");
+        }
+        this.limits = limits;
+        this.inboxSize = inboxSize;
+    }
+
+    @Override
+    public NotificationType getType() {
+        return NotificationType.IN_APP;
+    }
+
+    @Override
+    public Limits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public void send(Notification notification) {
+        Deque<Notification> inbox = inboxes.computeIfAbsent(notification.recipient(), k -> new ConcurrentLinkedDeque<>());
+        inbox.addLast(notification);
+        // Drop the oldest messages once the inbox is full
+        while (inbox.size() > inboxSize) {
+            inbox.pollFirst();
+        }
+    }
+
+    /**
+     * Get the notifications in a user's inbox, oldest first
+     *
+     * @param userId The user ID
+     * @return The notifications
+     */
+    public List<Notification> getInbox(String userId) {
+        Deque<Notification> inbox = inboxes.get(userId);
+        return inbox == null ? new ArrayList<>() : new ArrayList<>(inbox);
+    }
+
+    /**
+     * Remove and return the notifications in a user's inbox, oldest first
+     *
+     * @param userId The user ID
+     * @return The notifications
+     */
+    public List<Notification> drainInbox(String userId) {
+        List<Notification> drained = new ArrayList<>();
+        Deque<Notification> inbox = inboxes.get(userId);
+        if (inbox != null) {
+            Notification notification;
+            while ((notification = inbox.pollFirst()) != null) {
+                drained.add(notification);
+            }
+        }
+        return drained;
+    }
+}
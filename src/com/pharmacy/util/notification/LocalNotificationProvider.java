@@ -0,0 +1,67 @@
+package com.pharmacy.util.notification;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Local stand-in for the bulk APIs of email, SMS and push providers.
+ * Each call simulates one provider round trip regardless of how many recipients it carries.
+ */
+public class LocalNotificationProvider {
+
+    private static final Logger logger = Logger.getLogger(LocalNotificationProvider.class.getName());
+
+    private final AtomicLong batchCalls = new AtomicLong();
+    private final AtomicLong recipientsSent = new AtomicLong();
+
+    /**
+     * Send one message to many recipients in a single provider call
+     *
+     * @param type The channel
+     * @param subject The subject or title (ignored for SMS)
+     * @param message The message body
+     * @param recipients The recipients
+     * @throws InterruptedException if interrupted while waiting for the provider
+     */
+    public void sendBatch(NotificationType type, String subject, String message, List<String> recipients)
+            throws InterruptedException {
+        logger.info("Sending " + type + " batch of " + recipients.size() + " with subject: " + subject);
+
+        // Simulate the provider round trip
+        Thread.sleep(latencyMillis(type));
+
+        batchCalls.incrementAndGet();
+        recipientsSent.addAndGet(recipients.size());
+        logger.info(type + " batch of " + recipients.size() + " sent");
+    }
+
+    private static long latencyMillis(NotificationType type) {
+        switch (type) {
+            case EMAIL:
+                return 500;
+            case SMS:
+                return 300;
+            default:
+                return 200;
+        }
+    }
+
+    /**
+     * Get the number of provider calls made
+     *
+     * @return The batch call count
+     */
+    public long getBatchCalls() {
+        return batchCalls.get();
+    }
+
+    /**
+     * Get the number of recipients sent to
+     *
+     * @return The recipient count
+     */
+    public long getRecipientsSent() {
+        return recipientsSent.get();
+    }
+}
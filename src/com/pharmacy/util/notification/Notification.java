@@ -0,0 +1,13 @@
+package com.pharmacy.util.notification;
+
+/**
+ * A single notification addressed to one recipient
+ *
+ * @param type The channel to deliver on
+ * @param recipient The recipient (email, phone, device token, URL or user ID depending on the channel)
+ * @param subject The subject or title, or null if the channel has none
+ * @param message The message body
+ * @param data Additional channel-specific data, or null
+ */
+public record Notification(NotificationType type, String recipient, String subject, String message, String data) {
+}
@@ -0,0 +1,217 @@
+package com.pharmacy.util.notification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Groups notifications that share a channel, subject and message into batches no larger
+ * than the channel's declared batch size.
+ *
+ * A batch is sent as one provider call once it is full, or when its linger time has passed
+ * since its first recipient was added. Each batch takes a single slot on its channel
+ * dispatcher, so provider concurrency limits apply per call rather than per recipient,
+ * while the channel's rate limit is charged for every recipient in the batch.
+ */
+public class NotificationBatcher implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(NotificationBatcher.class.getName());
+
+    /**
+     * Messages with the same key can share a provider call
+     */
+    private record BatchKey(NotificationType type, NotificationPriority priority, String subject, String message) {
+    }
+
+    /**
+     * Recipients collected so far for one key
+     */
+    private static final class PendingBatch {
+        private final List<String> recipients = new ArrayList<>();
+    }
+
+    private final Function<NotificationType, ChannelDispatcher> dispatchers;
+    private final long lingerMillis;
+
+    private final ConcurrentMap<BatchKey, PendingBatch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+
+    // Batches whose send failed after close, kept for drainPending
+    private final Queue<Notification> undispatched = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create a batcher
+     *
+     * @param dispatchers Looks up the dispatcher for a channel
+     * @param lingerMillis How long a partial batch waits for more recipients, in milliseconds
+     */
+    public NotificationBatcher(Function<NotificationType, ChannelDispatcher> dispatchers, long lingerMillis) {
+        this.dispatchers = dispatchers;
+        this.lingerMillis = lingerMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add one recipient to the batch for a message
+     *
+     * @param type The channel
+     * @param priority The priority class
+     * @param subject The subject or title
+     * @param message The message body
+     * @param recipient The recipient
+     */
+    public void submit(NotificationType type, NotificationPriority priority, String subject, String message,
+                       String recipient) {
+        BatchKey key = new BatchKey(type, priority, subject, message);
+        int limit = maxBatchSize(type);
+        List<List<String>> full = new ArrayList<>(1);
+
+        batches.compute(key, (k, batch) -> {
+            if (batch == null) {
+                PendingBatch created = new PendingBatch();
+                try {
+                    timer.schedule(() -> flush(k, created), lingerMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Closed: the batch waits for drainPending instead of its linger time
+                }
+                batch = created;
+            }
+            batch.recipients.add(recipient);
+            if (batch.recipients.size() >= limit) {
+                full.add(batch.recipients);
+                return null;
+            }
+            return batch;
+        });
+
+        if (!full.isEmpty()) {
+            send(key, full.get(0));
+        }
+    }
+
+    /**
+     * Send one message to many recipients.
+     * Full batches are sent directly; only the remainder waits for more recipients.
+     * Recipients are copied before this returns, so the caller may reuse the array.
+     *
+     * @param type The channel
+     * @param priority The priority class
+     * @param subject The subject or title
+     * @param message The message body
+     * @param recipients The recipients; none may be null
+     */
+    public void submitAll(NotificationType type, NotificationPriority priority, String subject, String message,
+                          String[] recipients) {
+        BatchKey key = new BatchKey(type, priority, subject, message);
+        int limit = maxBatchSize(type);
+        int fullBatches = recipients.length / limit;
+
+        for (int i = 0; i < fullBatches; i++) {
+            send(key, List.of(Arrays.copyOfRange(recipients, i * limit, (i + 1) * limit)));
+        }
+        for (int i = fullBatches * limit; i < recipients.length; i++) {
+            submit(type, priority, subject, message, recipients[i]);
+        }
+    }
+
+    /**
+     * Send every partial batch now
+     */
+    public void flushAll() {
+        for (BatchKey key : batches.keySet()) {
+            PendingBatch batch = batches.remove(key);
+            if (batch != null) {
+                send(key, batch.recipients);
+            }
+        }
+    }
+
+    /**
+     * Remove every partial batch, e.g. during a drain.
+     * When dispatching, each batch is first offered to its channel without blocking.
+     * Batches whose send failed after close are returned without being offered again.
+     *
+     * @param dispatch Whether to offer the batches to their channels
+     * @return The notifications in batches that were not dispatched, one per recipient
+     */
+    public List<Notification> drainPending(boolean dispatch) {
+        List<Notification> drained = new ArrayList<>();
+        for (BatchKey key : batches.keySet()) {
+            PendingBatch batch = batches.remove(key);
+            if (batch == null) {
+                continue;
+            }
+            if (dispatch && dispatchers.apply(key.type())
+                    .tryDispatchBatch(key.priority(), key.subject(), key.message(), batch.recipients)) {
+                continue;
+            }
+            for (String recipient : batch.recipients) {
+                drained.add(new Notification(key.type(), recipient, key.subject(), key.message(), null));
+            }
+        }
+        for (Notification notification; (notification = undispatched.poll()) != null; ) {
+            drained.add(notification);
+        }
+        return drained;
+    }
+
+    /**
+     * Get the number of partial batches waiting for more recipients
+     *
+     * @return The pending batch count
+     */
+    public int getPendingBatchCount() {
+        return batches.size();
+    }
+
+    private void flush(BatchKey key, PendingBatch batch) {
+        if (batches.remove(key, batch)) {
+            send(key, batch.recipients);
+        }
+    }
+
+    private int maxBatchSize(NotificationType type) {
+        return dispatchers.apply(type).getChannel().getLimits().maxBatchSize();
+    }
+
+    private void send(BatchKey key, List<String> recipients) {
+        boolean dispatched = dispatchers.apply(key.type())
+            .dispatchBatch(key.priority(), key.subject(), key.message(), recipients);
+        if (!dispatched && timer.isShutdown()) {
+            for (String recipient : recipients) {
+                undispatched.add(new Notification(key.type(), recipient, key.subject(), key.message(), null));
+            }
+        } else if (!dispatched) {
+            logger.warning(key.type() + " batch of " + recipients.size() + " was not dispatched");
+        }
+    }
+
+    /**
+     * Stop the linger timer without flushing, so closing never waits for channel backlog.
+     * Partial batches, and any batch a timer flush was still waiting to send, are kept
+     * until drainPending collects them.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        try {
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.pharmacy.util.notification;
+
+import java.util.List;
+
+/**
+ * Service provider interface for a notification delivery channel.
+ *
+ * A channel is registered with the NotificationManager under its type and declares its own
+ * limits; the manager builds a rate-limited dispatcher and a batcher around it, so channel
+ * implementations only deal with delivery.
+ */
+public interface NotificationChannel extends AutoCloseable {
+
+    /**
+     * Delivery limits a channel declares for itself
+     *
+     * @param maxConcurrency Maximum sends in progress at once
+     * @param maxBatchSize Maximum recipients per bulk call
+     * @param ratePerSecond Sustained recipients per second
+     * @param burst Recipients that may be sent at once after an idle period, at least the batch size
+     */
+    record Limits(int maxConcurrency, int maxBatchSize, double ratePerSecond, int burst) {
+
+        public Limits {
+            if (maxConcurrency <= 0 || maxBatchSize <= 0 || ratePerSecond <= 0 || burst <= 0) {
+                throw new IllegalArgumentException("Channel limits must be positive");
+            }
+            // A full batch is charged one token per recipient and must fit in the bucket
+            if (burst < maxBatchSize) {
+                throw new IllegalArgumentException("Channel burst must be at least the batch size");
+            }
+        }
+    }
+
+    /**
+     * Get the type this channel delivers
+     *
+     * @return The channel type
+     */
+    NotificationType getType();
+
+    /**
+     * Get the limits for this channel
+     *
+     * @return The channel limits
+     */
+    Limits getLimits();
+
+    /**
+     * Deliver a single notification
+     *
+     * @param notification The notification
+     * @throws Exception if delivery fails
+     */
+    void send(Notification notification) throws Exception;
+
+    /**
+     * Deliver one message to many recipients.
+     * The default sends to each recipient in turn; channels with a bulk API override it.
+     *
+     * @param subject The subject or title
+     * @param message The message body
+     * @param recipients The recipients, at most the channel's batch size
+     * @throws Exception if delivery fails
+     */
+    default void sendBatch(String subject, String message, List<String> recipients) throws Exception {
+        for (String recipient : recipients) {
+            send(new Notification(getType(), recipient, subject, message, null));
+        }
+    }
+
+    /**
+     * Release resources held by the channel
+     */
+    @Override
+    default void close() {
+    }
+}
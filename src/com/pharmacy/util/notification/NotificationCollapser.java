@@ -0,0 +1,153 @@
+package com.pharmacy.util.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collapses bursts of notifications to the same recipient about the same topic.
+ *
+ * The first notification for a recipient, channel and topic opens a window; notifications
+ * arriving before the window closes replace it, and only the latest one is sent when the
+ * window closes. A burst of order status updates therefore costs one provider call.
+ */
+public class NotificationCollapser implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(NotificationCollapser.class.getName());
+
+    /**
+     * Notifications with the same key collapse into one
+     */
+    private record CollapseKey(NotificationType type, String recipient, String topic) {
+    }
+
+    /**
+     * Latest notification for a key while its window is open
+     */
+    private static final class Pending {
+        private Notification latest;
+    }
+
+    private final Consumer<Notification> sink;
+    private final long windowMillis;
+
+    private final ConcurrentMap<CollapseKey, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final AtomicLong collapsed = new AtomicLong();
+
+    /**
+     * Create a collapser
+     *
+     * @param sink Sends a notification once its window closes
+     * @param windowMillis How long a window stays open, in milliseconds
+     */
+    public NotificationCollapser(Consumer<Notification> sink, long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Collapse window must be positive");
+        }
+        this.sink = sink;
+        this.windowMillis = windowMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-collapser");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submit a notification, replacing any pending notification for the same
+     * recipient, channel and topic
+     *
+     * @param topic What the notification is about, e.g. "order:ORD123"
+     * @param notification The notification
+     */
+    public void submit(String topic, Notification notification) {
+        CollapseKey key = new CollapseKey(notification.type(), notification.recipient(), topic);
+        pending.compute(key, (k, entry) -> {
+            if (entry == null) {
+                Pending created = new Pending();
+                timer.schedule(() -> flush(k, created), windowMillis, TimeUnit.MILLISECONDS);
+                entry = created;
+            } else {
+                collapsed.incrementAndGet();
+            }
+            entry.latest = notification;
+            return entry;
+        });
+    }
+
+    /**
+     * Send every pending notification now
+     */
+    public void flushAll() {
+        for (CollapseKey key : pending.keySet()) {
+            Pending entry = pending.remove(key);
+            if (entry != null) {
+                send(entry.latest);
+            }
+        }
+    }
+
+    /**
+     * Remove every pending notification without sending it, e.g. to persist it during a drain
+     *
+     * @return The pending notifications
+     */
+    public List<Notification> drainPending() {
+        List<Notification> drained = new ArrayList<>();
+        for (CollapseKey key : pending.keySet()) {
+            Pending entry = pending.remove(key);
+            if (entry != null) {
+                drained.add(entry.latest);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Get the number of windows currently open
+     *
+     * @return The pending notification count
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Get the number of notifications replaced by a later one and never sent
+     *
+     * @return The collapsed count
+     */
+    public long getCollapsedCount() {
+        return collapsed.get();
+    }
+
+    private void flush(CollapseKey key, Pending entry) {
+        // The removal is atomic with submit, so no later update can be lost
+        if (pending.remove(key, entry)) {
+            send(entry.latest);
+        }
+    }
+
+    private void send(Notification notification) {
+        try {
+            sink.accept(notification);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error sending collapsed " + notification.type() + " notification", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        flushAll();
+    }
+}
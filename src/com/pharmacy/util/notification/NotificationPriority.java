@@ -0,0 +1,10 @@
+package com.pharmacy.util.notification;
+
+/**
+ * Priority classes for notifications.
+ * Queued transactional notifications are always dispatched before marketing ones.
+ */
+public enum NotificationPriority {
+    TRANSACTIONAL,  // OTPs, order status, reminders
+    MARKETING       // Campaigns and other bulk sends
+}
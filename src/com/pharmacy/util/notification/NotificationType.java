@@ -0,0 +1,30 @@
+package com.pharmacy.util.notification;
+
+/**
+ * Delivery channels for notifications
+ */
+public enum NotificationType {
+    EMAIL,
+    SMS,
+    PUSH,
+    WEBHOOK,
+    IN_APP,
+    FILE;
+
+    /**
+     * Parse a channel name such as "email", "sms" or "in-app"
+     *
+     * @param name The channel name, case-insensitive
+     * @return The channel type, or null if the name is unknown
+     */
+    public static NotificationType parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
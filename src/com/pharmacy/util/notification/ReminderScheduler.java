@@ -0,0 +1,148 @@
+package com.pharmacy.util.notification;
+
+import com.pharmacy.util.IdGenerator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Schedules reminder and deferred notifications for delivery at a future time.
+ *
+ * Pending reminders are held in the delay queue of a single timer thread, so a pending
+ * reminder costs only memory and never occupies a worker thread. When a reminder is due
+ * the timer hands it to the delivery executor and returns immediately.
+ */
+public class ReminderScheduler implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ReminderScheduler.class.getName());
+
+    /**
+     * A scheduled notification
+     *
+     * @param reminderId The reminder ID
+     * @param notification The notification to send
+     * @param dueAt When the reminder is due, in epoch milliseconds
+     */
+    public record Reminder(long reminderId, Notification notification, long dueAt) {
+    }
+
+    private final ScheduledThreadPoolExecutor timer;
+    private final Executor deliveryExecutor;
+    private final Consumer<Reminder> delivery;
+
+    // Pending reminders by ID, used for cancellation and counting
+    private final ConcurrentMap<Long, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Create a reminder scheduler
+     *
+     * @param deliveryExecutor The executor due reminders are delivered on
+     * @param delivery Delivers a due reminder
+     */
+    public ReminderScheduler(Executor deliveryExecutor, Consumer<Reminder> delivery) {
+        this.deliveryExecutor = deliveryExecutor;
+        this.delivery = delivery;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "reminder-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedule a notification after a delay
+     *
+     * @param notification The notification to send
+     * @param delay The delay before the reminder is due
+     * @param unit The unit of the delay
+     * @return The scheduled reminder
+     */
+    public Reminder schedule(Notification notification, long delay, TimeUnit unit) {
+        long dueAt = System.currentTimeMillis() + unit.toMillis(delay);
+        Reminder reminder = new Reminder(IdGenerator.getInstance().nextId(), notification, dueAt);
+        schedule(reminder);
+        return reminder;
+    }
+
+    /**
+     * Schedule an existing reminder at its due time; overdue reminders fire immediately
+     *
+     * @param reminder The reminder to schedule
+     */
+    public void schedule(Reminder reminder) {
+        long delayMillis = Math.max(0, reminder.dueAt() - System.currentTimeMillis());
+        ScheduledFuture<?> future = timer.schedule(() -> fire(reminder), delayMillis, TimeUnit.MILLISECONDS);
+        pending.put(reminder.reminderId(), future);
+        if (future.isDone()) {
+            // Fired before it was registered
+            pending.remove(reminder.reminderId(), future);
+        }
+    }
+
+    /**
+     * Cancel a pending reminder
+     *
+     * @param reminderId The reminder ID
+     * @return true if the reminder was pending and is now cancelled
+     */
+    public boolean cancel(long reminderId) {
+        ScheduledFuture<?> future = pending.remove(reminderId);
+        return future != null && future.cancel(false);
+    }
+
+    /**
+     * Run a maintenance task periodically on the timer's schedule.
+     * The task is handed to the delivery executor so it never delays due reminders.
+     *
+     * @param task The task to run
+     * @param period The period between runs
+     * @param unit The unit of the period
+     */
+    public void schedulePeriodic(Runnable task, long period, TimeUnit unit) {
+        timer.scheduleAtFixedRate(() -> {
+            try {
+                deliveryExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Get the number of reminders waiting to fire
+     *
+     * @return The pending count
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void fire(Reminder reminder) {
+        pending.remove(reminder.reminderId());
+        try {
+            deliveryExecutor.execute(() -> {
+                try {
+                    delivery.accept(reminder);
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "Error delivering reminder " + reminder.reminderId(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warning("Reminder " + reminder.reminderId() + " dropped: delivery executor is shut down");
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        pending.clear();
+    }
+}
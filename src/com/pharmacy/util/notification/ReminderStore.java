@@ -0,0 +1,322 @@
+package com.pharmacy.util.notification;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Durable, append-only log of scheduled reminders backed by a memory-mapped file.
+ * It also serves as the durable queue for notifications deferred under load or at shutdown.
+ *
+ * Scheduling a reminder appends a NOTIFICATION record; delivering or cancelling it appends
+ * a COMPLETED record. SCHEDULED records from older logs, which carry no subject or data,
+ * are still replayed. On startup the log is replayed sequentially from the mapping to
+ * rebuild the set of pending reminders. Compaction rewrites only the pending reminders
+ * to a new file and atomically replaces the log.
+ *
+ * Each record is followed by an end marker, written before the record's type byte, and
+ * the type byte is written last, so a record torn by a crash is never replayed, and
+ * neither are stale bytes left behind by a longer record that was overwritten.
+ */
+public class ReminderStore implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ReminderStore.class.getName());
+
+    private static final int MAGIC = 0x524D4452; // "RMDR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte END = 0;
+    private static final byte SCHEDULED = 1;
+    private static final byte COMPLETED = 2;
+    private static final byte NOTIFICATION = 3;
+
+    // Length written for a null string
+    private static final int NULL_LENGTH = -1;
+
+    private static final int COMPLETED_SIZE = 1 + 8;
+    private static final long INITIAL_MAP_SIZE = 1L << 20;
+
+    // Compact once completed records outnumber pending ones and exceed this count
+    private static final long COMPACTION_THRESHOLD = 10_000;
+
+    private static final NotificationType[] TYPES = NotificationType.values();
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    // Read position while replaying
+    private int cursor;
+
+    private long pendingCount;
+    private long completedCount;
+
+    /**
+     * Open or create a reminder log
+     *
+     * @param path The log file path
+     * @throws IOException if the log cannot be opened or is not a reminder log
+     */
+    public ReminderStore(Path path) throws IOException {
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), INITIAL_MAP_SIZE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        int magic = buffer.getInt(0);
+        if (magic == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        } else if (magic != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a reminder log: " + path);
+        }
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Replay the log and return the reminders that are still pending.
+     * Must be called once after opening, before appending.
+     *
+     * @return The pending reminders
+     */
+    public synchronized Collection<ReminderScheduler.Reminder> replay() {
+        Map<Long, ReminderScheduler.Reminder> live = new HashMap<>();
+        long completed = 0;
+        int offset = HEADER_SIZE;
+
+        try {
+            while (offset < buffer.capacity()) {
+                byte type = buffer.get(offset);
+                if (type == SCHEDULED || type == NOTIFICATION) {
+                    long id = buffer.getLong(offset + 1);
+                    long dueAt = buffer.getLong(offset + 9);
+                    NotificationType channelType = TYPES[buffer.get(offset + 17)];
+                    cursor = offset + 18;
+                    String recipient = readString();
+                    String subject = type == NOTIFICATION ? readString() : null;
+                    String message = readString();
+                    String data = type == NOTIFICATION ? readString() : null;
+                    Notification notification = new Notification(channelType, recipient, subject, message, data);
+                    live.put(id, new ReminderScheduler.Reminder(id, notification, dueAt));
+                    offset = cursor;
+                } else if (type == COMPLETED) {
+                    if (live.remove(buffer.getLong(offset + 1)) != null) {
+                        completed++;
+                    }
+                    offset += COMPLETED_SIZE;
+                } else {
+                    break;
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            // A corrupt record ends the replay; later appends overwrite it
+            logger.warning("Reminder log " + path + " is corrupt at offset " + offset + "; truncating");
+            buffer.put(offset, END);
+        }
+
+        position = offset;
+        pendingCount = live.size();
+        completedCount = completed;
+        logger.info("Replayed " + live.size() + " pending reminders from " + path);
+        return live.values();
+    }
+
+    /**
+     * Read a length-prefixed string at the replay cursor and advance past it
+     */
+    private String readString() {
+        int length = buffer.getInt(cursor);
+        cursor += 4;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(cursor, bytes);
+        cursor += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int writeString(int offset, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(offset, NULL_LENGTH);
+            return offset + 4;
+        }
+        buffer.putInt(offset, bytes.length);
+        buffer.put(offset + 4, bytes);
+        return offset + 4 + bytes.length;
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int encodedSize(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    /**
+     * Append a scheduled reminder
+     *
+     * @param reminder The reminder
+     * @throws IOException if the log cannot be grown
+     */
+    public synchronized void appendScheduled(ReminderScheduler.Reminder reminder) throws IOException {
+        Notification notification = reminder.notification();
+        byte[] recipient = encode(notification.recipient());
+        byte[] subject = encode(notification.subject());
+        byte[] message = encode(notification.message());
+        byte[] data = encode(notification.data());
+        int size = 1 + 8 + 8 + 1 + encodedSize(recipient) + encodedSize(subject)
+                   + encodedSize(message) + encodedSize(data);
+        ensureCapacity(size);
+
+        int offset = position + 1;
+        buffer.putLong(offset, reminder.reminderId());
+        buffer.putLong(offset + 8, reminder.dueAt());
+        buffer.put(offset + 16, (byte) notification.type().ordinal());
+        offset = writeString(offset + 17, recipient);
+        offset = writeString(offset, subject);
+        offset = writeString(offset, message);
+        writeString(offset, data);
+
+        // Publish the record by writing its type byte last, once replay is sure to stop after it
+        buffer.put(position + size, END);
+        buffer.put(position, NOTIFICATION);
+        position += size;
+        pendingCount++;
+    }
+
+    /**
+     * Append a completion record for a delivered or cancelled reminder
+     *
+     * @param reminderId The reminder ID
+     * @throws IOException if the log cannot be grown
+     */
+    public synchronized void appendCompleted(long reminderId) throws IOException {
+        ensureCapacity(COMPLETED_SIZE);
+        buffer.putLong(position + 1, reminderId);
+        buffer.put(position + COMPLETED_SIZE, END);
+        buffer.put(position, COMPLETED);
+        position += COMPLETED_SIZE;
+        pendingCount = Math.max(0, pendingCount - 1);
+        completedCount++;
+    }
+
+    /**
+     * Append scheduled records for many reminders at once
+     *
+     * @param reminders The reminders to append
+     * @throws IOException if the log cannot be grown
+     */
+    public synchronized void appendAll(Collection<ReminderScheduler.Reminder> reminders) throws IOException {
+        for (ReminderScheduler.Reminder reminder : reminders) {
+            appendScheduled(reminder);
+        }
+    }
+
+    /**
+     * Grow the mapping so that the next record and a trailing end marker fit
+     */
+    private void ensureCapacity(int size) throws IOException {
+        long required = (long) position + size + 1;
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        long newSize = Math.max(buffer.capacity() * 2L, required);
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IOException("Reminder log is full; compaction required: " + path);
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+    }
+
+    /**
+     * Check whether completed records dominate the log
+     *
+     * @return true if compaction would reclaim significant space
+     */
+    public synchronized boolean needsCompaction() {
+        return completedCount > COMPACTION_THRESHOLD && completedCount > pendingCount;
+    }
+
+    /**
+     * Compact the log if completed records dominate it
+     *
+     * @throws IOException if compaction fails
+     */
+    public void compactIfNeeded() throws IOException {
+        if (needsCompaction()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the log with only the pending reminders and atomically replace it
+     *
+     * @throws IOException if compaction fails
+     */
+    public synchronized void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        List<ReminderScheduler.Reminder> pending = new ArrayList<>(replay());
+
+        Path temp = path.resolveSibling(path.getFileName() + ".compact");
+        Files.deleteIfExists(temp);
+        try (ReminderStore compacted = new ReminderStore(temp)) {
+            compacted.appendAll(pending);
+        }
+
+        buffer.force();
+        channel.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        replay();
+        logger.info("Compacted reminder log to " + pending.size() + " pending reminders in "
+                    + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Flush appended records to disk
+     */
+    public synchronized void sync() {
+        buffer.force();
+    }
+
+    /**
+     * Get the number of pending reminders recorded in the log
+     *
+     * @return The pending count
+     */
+    public synchronized long getPendingCount() {
+        return pendingCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            buffer.force();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.pharmacy.util.notification;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Channel backed by a simulated external provider, used for email, SMS and push
+ * until real provider integrations are configured.
+ * Single sends simulate one provider request; bulk sends go to the provider's bulk API.
+ */
+public class SimulatedProviderChannel implements NotificationChannel {
+
+    private static final Logger logger = Logger.getLogger(SimulatedProviderChannel.class.getName());
+
+    private final NotificationType type;
+    private final Limits limits;
+    private final long sendLatencyMillis;
+    private final LocalNotificationProvider provider;
+
+    /**
+     * Create a simulated provider channel
+     *
+     * @param type The channel type
+     * @param limits The provider's limits
+     * @param sendLatencyMillis Simulated latency of a single send, in milliseconds
+     * @param provider The provider stub bulk sends go to
+     */
+    public SimulatedProviderChannel(NotificationType type, Limits limits, long sendLatencyMillis,
+                                    LocalNotificationProvider provider) {
+        this.type = type;
+        this.limits = limits;
+        this.sendLatencyMillis = sendLatencyMillis;
+        this.provider = provider;
+    }
+
+    @Override
+    public NotificationType getType() {
+        return type;
+    }
+
+    @Override
+    public Limits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public void send(Notification notification) throws InterruptedException {
+        // In a real implementation, this would call the provider's API
+        // For now, we'll just log that the notification would be sent
+        if (notification.subject() != null) {
+            logger.info("Sending " + type + " to " + notification.recipient() + " with subject: " + notification.subject());
+        } else {
+            logger.info("Sending " + type + " to " + notification.recipient() + ": " + notification.message());
+        }
+        // Simulate the provider round trip
+        Thread.sleep(sendLatencyMillis);
+        logger.info(type + " sent to " + notification.recipient());
+    }
+
+    @Override
+    public void sendBatch(String subject, String message, List<String> recipients) throws InterruptedException {
+        provider.sendBatch(type, subject, message, recipients);
+    }
+}
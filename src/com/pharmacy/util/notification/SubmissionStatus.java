@@ -0,0 +1,10 @@
+package com.pharmacy.util.notification;
+
+/**
+ * Outcome of submitting work to the notification system
+ */
+public enum SubmissionStatus {
+    ACCEPTED,  // Queued for delivery now
+    DEFERRED,  // Persisted to the durable queue and delivered later
+    REJECTED   // Not queued; the caller decides whether to retry
+}
@@ -0,0 +1,89 @@
+package com.pharmacy.util.notification;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.logging.Logger;
+
+/**
+ * Delivers notifications as JSON POST requests to the recipient URL
+ */
+public class WebhookChannel implements NotificationChannel {
+
+    private static final Logger logger = Logger.getLogger(WebhookChannel.class.getName());
+
+    private final Limits limits;
+    private final Duration timeout;
+    private final HttpClient client;
+
+    /**
+     * Create a webhook channel
+     *
+     * @param limits The channel limits
+     * @param timeout Timeout for each request
+     */
+    public WebhookChannel(Limits limits, Duration timeout) {
+        this.limits = limits;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    @Override
+    public NotificationType getType() {
+        return NotificationType.WEBHOOK;
+    }
+
+    @Override
+    public Limits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public void send(Notification notification) throws IOException, InterruptedException {
+        String body = "{\"subject\":" + quote(notification.subject())
+                      + ",\"message\":" + quote(notification.message())
+                      + ",\"data\":" + quote(notification.data()) + "}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(notification.recipient()))
+            .timeout(timeout)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Webhook " + notification.recipient() + " returned HTTP " + response.statusCode());
+        }
+        logger.info("Webhook delivered to " + notification.recipient());
+    }
+
+    /**
+     * Encode a string as a JSON string literal
+     */
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
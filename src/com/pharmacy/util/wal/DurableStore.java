@@ -0,0 +1,467 @@
+package com.pharmacy.util.wal;
+
+import com.pharmacy.util.codec.BinaryReader;
+import com.pharmacy.util.codec.BinaryWriter;
+import com.pharmacy.util.codec.Codec;
+import com.pharmacy.util.codec.RecordReader;
+import com.pharmacy.util.codec.RecordWriter;
+import com.pharmacy.util.io.AtomicFile;
+import com.pharmacy.util.io.ChecksummedInputStream;
+import com.pharmacy.util.io.ChecksummedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Crash-safe keyed store of records, held in memory and persisted through a
+ * {@link WriteAheadLog} plus periodic snapshots.
+ *
+ * Every {@link #put} and {@link #remove} logs the full new state of one key and returns
+ * once it is durable. The in-memory change is made under the same lock as the log append,
+ * so both see one order, and is undone if the log fails to make it durable. Concurrent writers share fsyncs through the log's group commit, so
+ * durable throughput grows with the number of writers instead of costing one full
+ * rewrite per change.
+ *
+ * A snapshot rolls the log to a new segment, writes every record to a checksummed
+ * {@link AtomicFile} replacing the previous snapshot, and only then deletes the log
+ * segments it covers. Recovery loads the snapshot and replays the remaining log on
+ * top. Log records are whole-value puts and removes, so replaying one that the snapshot
+ * already reflects leaves the same state, and snapshots never need to stop writers.
+ *
+ * @param <T> The record type
+ */
+public final class DurableStore<T> implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(DurableStore.class.getName());
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final String name;
+    private final Codec<T> codec;
+    private final Function<T, String> keyOf;
+    private final Path snapshotPath;
+    private final WriteAheadLog log;
+
+    private final Map<String, T> records = new ConcurrentHashMap<>();
+
+    // Serializes log appends with the map updates they describe, so both see one order
+    private final Object writeLock = new Object();
+    private final Object snapshotLock = new Object();
+
+    private final ScheduledExecutorService snapshotTimer;
+    private final long snapshotMinRecords;
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+
+    /**
+     * Open a store, recovering its contents from the snapshot and log
+     *
+     * @param directory The directory holding the snapshot and log segments
+     * @param name The store name, used as the file prefix
+     * @param codec The codec for the records
+     * @param keyOf Extracts a record's key
+     * @param snapshotIntervalMillis How often to check whether a snapshot is due, or 0 to only
+     *                               snapshot when {@link #snapshot} is called
+     * @param snapshotMinRecords How many log records must accumulate before a periodic snapshot
+     * @throws IOException if recovery fails
+     */
+    public DurableStore(Path directory, String name, Codec<T> codec, Function<T, String> keyOf,
+                        long snapshotIntervalMillis, long snapshotMinRecords) throws IOException {
+        this.name = name;
+        this.codec = codec;
+        this.keyOf = keyOf;
+        this.snapshotPath = directory.resolve(name + ".snapshot");
+        this.snapshotMinRecords = snapshotMinRecords;
+        this.log = new WriteAheadLog(directory, name);
+
+        long start = System.currentTimeMillis();
+        if (Files.exists(snapshotPath)) {
+            try (RecordReader<T> reader = new RecordReader<>(ChecksummedInputStream.open(snapshotPath), codec)) {
+                for (T record = reader.read(); record != null; record = reader.read()) {
+                    records.put(keyOf.apply(record), record);
+                }
+            }
+        }
+        recordsSinceSnapshot.set(log.replay(this::apply));
+        logger.info("Recovered " + records.size() + " records for store " + name + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+
+        if (snapshotIntervalMillis > 0) {
+            snapshotTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "durable-store-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotTimer.scheduleWithFixedDelay(this::snapshotIfDue, snapshotIntervalMillis,
+                                                 snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            snapshotTimer = null;
+        }
+    }
+
+    private void apply(WriteAheadLog.Record record) throws IOException {
+        if (record.type() == PUT) {
+            T value = decode(record.payload());
+            records.put(keyOf.apply(value), value);
+        } else if (record.type() == REMOVE) {
+            records.remove(new String(record.payload(), StandardCharsets.UTF_8));
+        } else {
+            throw new IOException("Unknown record type " + record.type() + " in store " + name);
+        }
+    }
+
+    /**
+     * Insert or replace a record and wait until the change is durable.
+     * The record is encoded when this is called, so later changes to the object are not
+     * persisted until it is put again.
+     *
+     * @param record The record
+     * @throws IOException if the change cannot be made durable
+     */
+    public void put(T record) throws IOException {
+        put(record, false);
+    }
+
+    /**
+     * Replace a record only if its key already has one, and wait until the change is durable.
+     * The check and the change are atomic with respect to other writes.
+     *
+     * @param record The record
+     * @return true if the record was replaced, false if its key had no record
+     * @throws IOException if the change cannot be made durable
+     */
+    public boolean replace(T record) throws IOException {
+        return put(record, true);
+    }
+
+    private boolean put(T record, boolean onlyExisting) throws IOException {
+        String key = keyOf.apply(record);
+        byte[] payload = encode(record);
+        long lsn;
+        T previous;
+        synchronized (writeLock) {
+            if (onlyExisting && !records.containsKey(key)) {
+                return false;
+            }
+            lsn = log.append(PUT, payload);
+            previous = records.put(key, record);
+        }
+        try {
+            log.awaitDurable(lsn);
+        } catch (IOException e) {
+            synchronized (writeLock) {
+                undoPut(key, record, previous);
+            }
+            throw e;
+        }
+        recordsSinceSnapshot.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remove a record and wait until the change is durable
+     *
+     * @param key The record's key
+     * @return The removed record, or null if there was none
+     * @throws IOException if the change cannot be made durable
+     */
+    public T remove(String key) throws IOException {
+        long lsn;
+        T removed;
+        synchronized (writeLock) {
+            if (!records.containsKey(key)) {
+                return null;
+            }
+            lsn = log.append(REMOVE, key.getBytes(StandardCharsets.UTF_8));
+            removed = records.remove(key);
+        }
+        try {
+            log.awaitDurable(lsn);
+        } catch (IOException e) {
+            synchronized (writeLock) {
+                undoRemoveAll(List.of(removed));
+            }
+            throw e;
+        }
+        recordsSinceSnapshot.incrementAndGet();
+        return removed;
+    }
+
+    /**
+     * Insert or replace many records and wait once until all the changes are durable.
+     * The records are logged back to back under one lock, so the whole batch usually
+     * shares a single fsync instead of waiting for one per record.
+     *
+     * @param batch The records
+     * @throws IOException if the changes cannot be made durable
+     */
+    public void putAll(Collection<? extends T> batch) throws IOException {
+        putAll(batch, false);
+    }
+
+    /**
+     * Replace many records, skipping those whose key has no record, and wait once until
+     * all the changes are durable
+     *
+     * @param batch The records
+     * @return The records that were replaced
+     * @throws IOException if the changes cannot be made durable
+     */
+    public List<T> replaceAll(Collection<? extends T> batch) throws IOException {
+        return putAll(batch, true);
+    }
+
+    private List<T> putAll(Collection<? extends T> batch, boolean onlyExisting) throws IOException {
+        if (batch.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Encode outside the lock, as put does
+        String[] keys = new String[batch.size()];
+        byte[][] payloads = new byte[batch.size()][];
+        int i = 0;
+        for (T record : batch) {
+            keys[i] = keyOf.apply(record);
+            payloads[i++] = encode(record);
+        }
+        List<T> values = new ArrayList<>(batch);
+
+        // Keys, records and replaced records of the puts made, in log order
+        List<String> putKeys = new ArrayList<>(keys.length);
+        List<T> putValues = new ArrayList<>(keys.length);
+        List<T> previous = new ArrayList<>(keys.length);
+        long lsn = -1;
+        synchronized (writeLock) {
+            try {
+                for (i = 0; i < keys.length; i++) {
+                    if (onlyExisting && !records.containsKey(keys[i])) {
+                        continue;
+                    }
+                    lsn = log.append(PUT, payloads[i]);
+                    putKeys.add(keys[i]);
+                    putValues.add(values.get(i));
+                    previous.add(records.put(keys[i], values.get(i)));
+                }
+            } catch (IOException e) {
+                undoPutAll(putKeys, putValues, previous);
+                throw e;
+            }
+        }
+        if (lsn < 0) {
+            return putValues;
+        }
+        try {
+            log.awaitDurable(lsn);
+        } catch (IOException e) {
+            synchronized (writeLock) {
+                undoPutAll(putKeys, putValues, previous);
+            }
+            throw e;
+        }
+        recordsSinceSnapshot.addAndGet(putValues.size());
+        return putValues;
+    }
+
+    /**
+     * Remove many records and wait once until all the changes are durable
+     *
+     * @param keys The records' keys
+     * @return The removed records; keys without a record are skipped
+     * @throws IOException if the changes cannot be made durable
+     */
+    public List<T> removeAll(Collection<String> keys) throws IOException {
+        List<T> removed = new ArrayList<>();
+        long lsn = -1;
+        synchronized (writeLock) {
+            try {
+                for (String key : keys) {
+                    if (records.containsKey(key)) {
+                        lsn = log.append(REMOVE, key.getBytes(StandardCharsets.UTF_8));
+                        removed.add(records.remove(key));
+                    }
+                }
+            } catch (IOException e) {
+                undoRemoveAll(removed);
+                throw e;
+            }
+        }
+        if (lsn >= 0) {
+            try {
+                log.awaitDurable(lsn);
+            } catch (IOException e) {
+                synchronized (writeLock) {
+                    undoRemoveAll(removed);
+                }
+                throw e;
+            }
+            recordsSinceSnapshot.addAndGet(removed.size());
+        }
+        return removed;
+    }
+
+    /**
+     * Undo a put whose log record failed to become durable, unless a later write already
+     * replaced the record; the caller holds the write lock
+     */
+    private void undoPut(String key, T record, T previous) {
+        if (previous == null) {
+            records.remove(key, record);
+        } else {
+            records.replace(key, record, previous);
+        }
+    }
+
+    /**
+     * Undo the puts of a batch, newest first so a key put twice ends up at its value before
+     * the batch; the caller holds the write lock
+     */
+    private void undoPutAll(List<String> keys, List<T> values, List<T> previous) {
+        for (int i = previous.size() - 1; i >= 0; i--) {
+            undoPut(keys.get(i), values.get(i), previous.get(i));
+        }
+    }
+
+    /**
+     * Put back records whose removal failed to become durable, unless a later write already
+     * added the key again; the caller holds the write lock
+     */
+    private void undoRemoveAll(List<T> removed) {
+        for (T record : removed) {
+            records.putIfAbsent(keyOf.apply(record), record);
+        }
+    }
+
+    /**
+     * Get a record by key
+     *
+     * @param key The key
+     * @return The record, or null if there is none
+     */
+    public T get(String key) {
+        return records.get(key);
+    }
+
+    /**
+     * Check whether a key has a record
+     *
+     * @param key The key
+     * @return true if the key has a record
+     */
+    public boolean containsKey(String key) {
+        return records.containsKey(key);
+    }
+
+    /**
+     * Get a live, read-only view of all records
+     *
+     * @return The records
+     */
+    public Collection<T> values() {
+        return Collections.unmodifiableCollection(records.values());
+    }
+
+    /**
+     * Get the number of records
+     *
+     * @return The record count
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Write a snapshot of all records and delete the log segments it replaces
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long start = System.currentTimeMillis();
+            long loggedBefore = recordsSinceSnapshot.get();
+            long rolledAt;
+            synchronized (writeLock) {
+                // No write is between its log append and its map update while rolling, so
+                // every record in the old segments is already visible to the snapshot
+                rolledAt = log.roll();
+            }
+
+            int written = 0;
+            try (AtomicFile file = new AtomicFile(snapshotPath)) {
+                try (RecordWriter<T> writer = new RecordWriter<>(
+                        new ChecksummedOutputStream(file.openOutputStream()), codec)) {
+                    for (T record : records.values()) {
+                        writer.write(record);
+                        written++;
+                    }
+                }
+                file.commit();
+            }
+
+            int deleted = log.deleteSegmentsBefore(rolledAt);
+            recordsSinceSnapshot.addAndGet(-loggedBefore);
+            logger.info("Snapshot of store " + name + " wrote " + written + " records and removed "
+                        + deleted + " log segments in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private void snapshotIfDue() {
+        if (recordsSinceSnapshot.get() < snapshotMinRecords) {
+            return;
+        }
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.SEVERE, "Snapshot of store " + name + " failed", e);
+        }
+    }
+
+    /**
+     * Get the write-ahead log, e.g. to read its sync count
+     *
+     * @return The log
+     */
+    public WriteAheadLog getLog() {
+        return log;
+    }
+
+    private byte[] encode(T record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (BinaryWriter writer = new BinaryWriter(bytes)) {
+            writer.writeVarInt(codec.getVersion());
+            codec.write(writer, record);
+        }
+        return bytes.toByteArray();
+    }
+
+    private T decode(byte[] payload) throws IOException {
+        try (InputStream in = new ByteArrayInputStream(payload); BinaryReader reader = new BinaryReader(in)) {
+            return codec.read(reader, reader.readVarInt());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (snapshotTimer != null) {
+            snapshotTimer.shutdownNow();
+        }
+        synchronized (snapshotLock) {
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.pharmacy.util.wal;
+
+import com.pharmacy.util.io.AtomicFile;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only write-ahead log with group commit.
+ *
+ * {@link #append} only copies a record into an in-memory batch and assigns it a log
+ * sequence number (LSN). {@link #awaitDurable} then makes it durable: the first waiting
+ * thread becomes the leader, writes the whole batch with one {@link FileChannel#write}
+ * and one {@link FileChannel#force}, and wakes every writer the batch covered. Records
+ * appended while a leader is syncing form the next batch, so under concurrency many
+ * writers share each fsync.
+ *
+ * The log is split into segment files named by the LSN of their first record.
+ * {@link #roll} starts a new segment, and {@link #deleteSegmentsBefore} removes segments
+ * made obsolete by a snapshot. Each record carries a CRC32C; replay stops at the first
+ * torn or corrupt record of a segment and truncates the segment there.
+ *
+ * After a write or sync fails the log refuses further work, since it can no longer tell
+ * which records reached the disk.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+
+    // Record framing: payload length, CRC32C of the rest, LSN, type, payload
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 1;
+
+    // Larger payloads are treated as corruption during replay
+    private static final int MAX_PAYLOAD_SIZE = 64 << 20;
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    /**
+     * A record read back during replay
+     *
+     * @param lsn The log sequence number
+     * @param type The record type chosen by the writer
+     * @param payload The record payload
+     */
+    public record Record(long lsn, byte type, byte[] payload) {
+    }
+
+    /**
+     * Receives records during replay
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        /**
+         * Apply one replayed record
+         *
+         * @param record The record
+         * @throws IOException if the record cannot be applied; replay stops
+         */
+        void accept(Record record) throws IOException;
+    }
+
+    private final Path directory;
+    private final String name;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchSynced = lock.newCondition();
+
+    private FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private long nextLsn = 1;
+    private long pendingLastLsn;
+    private long durableLsn;
+    private boolean flushing;
+    private IOException failure;
+
+    private long syncCount;
+
+    /**
+     * Open a log. Call {@link #replay} before appending.
+     *
+     * @param directory The directory holding the segments
+     * @param name The log name, used as the segment file prefix
+     * @throws IOException if the directory cannot be created
+     */
+    public WriteAheadLog(Path directory, String name) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Replay every record in LSN order. New appends continue in the last segment, so
+     * reopening a log does not leave behind a segment per run.
+     *
+     * @param handler Receives each record
+     * @return The number of records replayed
+     * @throws IOException if a segment cannot be read or the handler fails
+     */
+    public long replay(RecordHandler handler) throws IOException {
+        long replayed = 0;
+        lock.lock();
+        try {
+            List<Path> segments = listSegments();
+            for (Path segment : segments) {
+                // LSNs continue from the segment's name even if earlier segments were deleted
+                nextLsn = Math.max(nextLsn, firstLsn(segment));
+                replayed += replaySegment(segment, handler);
+            }
+            durableLsn = nextLsn - 1;
+            pendingLastLsn = durableLsn;
+            // Replay truncated any torn tail, so the last segment can take new records
+            openSegment(segments.isEmpty() ? segmentPath(nextLsn) : segments.get(segments.size() - 1));
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Replayed " + replayed + " records from log " + name);
+        return replayed;
+    }
+
+    private long replaySegment(Path segment, RecordHandler handler) throws IOException {
+        long replayed = 0;
+        long offset = 0;
+        CRC32C crc = new CRC32C();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(segment), 64 * 1024)) {
+            DataInputStream data = new DataInputStream(in);
+            while (true) {
+                Record record;
+                try {
+                    record = readRecord(data, crc);
+                } catch (EOFException e) {
+                    truncate(segment, offset, "torn record");
+                    return replayed;
+                } catch (IOException e) {
+                    truncate(segment, offset, e.getMessage());
+                    return replayed;
+                }
+                if (record == null) {
+                    return replayed;
+                }
+                handler.accept(record);
+                nextLsn = record.lsn() + 1;
+                offset += RECORD_HEADER_SIZE + record.payload().length;
+                replayed++;
+            }
+        }
+    }
+
+    /**
+     * Read and verify one record
+     *
+     * @return The record, or null at a clean end of segment
+     */
+    private Record readRecord(DataInputStream data, CRC32C crc) throws IOException {
+        int length;
+        try {
+            length = data.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int checksum = data.readInt();
+        long lsn = data.readLong();
+        byte type = data.readByte();
+        if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+            throw new IOException("record with bad length " + length);
+        }
+        byte[] payload = new byte[length];
+        data.readFully(payload);
+
+        crc.reset();
+        crc.update(ByteBuffer.allocate(9).putLong(lsn).put(type).array());
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum || lsn < nextLsn) {
+            throw new IOException("record with bad checksum or sequence at LSN " + lsn);
+        }
+        return new Record(lsn, type, payload);
+    }
+
+    private void truncate(Path segment, long offset, String reason) throws IOException {
+        logger.warning("Log segment " + segment.getFileName() + " ends with a " + reason
+                       + " at offset " + offset + "; truncating");
+        try (FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            file.truncate(offset);
+            file.force(true);
+        }
+    }
+
+    /**
+     * Add a record to the current batch. The record is not durable until
+     * {@link #awaitDurable} returns for its LSN.
+     *
+     * @param type The record type
+     * @param payload The record payload
+     * @return The record's LSN
+     * @throws IOException if the log has failed or is closed
+     */
+    public long append(byte type, byte[] payload) throws IOException {
+        CRC32C crc = new CRC32C();
+        lock.lock();
+        try {
+            checkUsable();
+            long lsn = nextLsn++;
+            ByteBuffer header = ByteBuffer.allocate(9).putLong(lsn).put(type);
+            crc.update(header.array());
+            crc.update(payload);
+
+            ensurePendingCapacity(RECORD_HEADER_SIZE + payload.length);
+            pending.putInt(payload.length);
+            pending.putInt((int) crc.getValue());
+            pending.putLong(lsn);
+            pending.put(type);
+            pending.put(payload);
+            pendingLastLsn = lsn;
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a record is durable, syncing the current batch if no other thread is
+     *
+     * @param lsn The record's LSN
+     * @throws IOException if writing or syncing the log fails
+     */
+    public void awaitDurable(long lsn) throws IOException {
+        lock.lock();
+        try {
+            while (durableLsn < lsn) {
+                checkUsable();
+                if (flushing) {
+                    batchSynced.awaitUninterruptibly();
+                } else {
+                    flushBatch();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a record and wait until it is durable
+     *
+     * @param type The record type
+     * @param payload The record payload
+     * @return The record's LSN
+     * @throws IOException if the record cannot be made durable
+     */
+    public long write(byte type, byte[] payload) throws IOException {
+        long lsn = append(type, payload);
+        awaitDurable(lsn);
+        return lsn;
+    }
+
+    /**
+     * Write and sync the pending batch as the leader. Called with the lock held;
+     * the lock is released during the write and sync so other writers can append.
+     */
+    private void flushBatch() throws IOException {
+        ByteBuffer batch = pending;
+        long batchLastLsn = pendingLastLsn;
+        FileChannel target = channel;
+        pending = spare;
+        flushing = true;
+        lock.unlock();
+        IOException error = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                target.write(batch);
+            }
+            target.force(false);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+            batch.clear();
+            spare = batch;
+            flushing = false;
+            if (error != null) {
+                failure = error;
+            } else {
+                durableLsn = batchLastLsn;
+                syncCount++;
+            }
+            batchSynced.signalAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Sync every appended record and wait for any leader to finish, so the segment can be
+     * closed. Called with the lock held.
+     */
+    private void syncAll() throws IOException {
+        while (flushing || durableLsn < pendingLastLsn) {
+            checkUsable();
+            if (flushing) {
+                batchSynced.awaitUninterruptibly();
+            } else {
+                flushBatch();
+            }
+        }
+    }
+
+    private void ensurePendingCapacity(int size) {
+        if (pending.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("Log " + name + " failed earlier and is read-only", failure);
+        }
+        if (channel == null) {
+            throw new IOException("Log " + name + " is not open");
+        }
+    }
+
+    /**
+     * Make all appended records durable and start a new segment
+     *
+     * @return The LSN the new segment starts at; every earlier record is in older segments
+     * @throws IOException if the batch cannot be synced or the segment cannot be created
+     */
+    public long roll() throws IOException {
+        lock.lock();
+        try {
+            syncAll();
+            channel.close();
+            openSegment(segmentPath(nextLsn));
+            return nextLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete segments whose records all have LSNs below a bound, e.g. after a snapshot
+     * has captured their effects
+     *
+     * @param lsn The bound, usually returned by {@link #roll}
+     * @return The number of segments deleted
+     * @throws IOException if a segment cannot be deleted
+     */
+    public int deleteSegmentsBefore(long lsn) throws IOException {
+        List<Path> segments = listSegments();
+        int deleted = 0;
+        // A segment's records end where the next segment begins
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstLsn(segments.get(i + 1)) <= lsn) {
+                Files.deleteIfExists(segments.get(i));
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            AtomicFile.syncDirectory(directory);
+        }
+        return deleted;
+    }
+
+    private void openSegment(Path segment) throws IOException {
+        boolean created = !Files.exists(segment);
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.APPEND);
+        if (created) {
+            // Syncing records only covers their data; a crash could still lose the new file itself
+            AtomicFile.syncDirectory(directory);
+        }
+    }
+
+    private Path segmentPath(long firstLsn) {
+        return directory.resolve(String.format("%s-%020d%s", name, firstLsn, SEGMENT_SUFFIX));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        // Zero-padded LSNs sort in log order
+        segments.sort(null);
+        return segments;
+    }
+
+    private long firstLsn(Path segment) {
+        String file = segment.getFileName().toString();
+        return Long.parseLong(file.substring(name.length() + 1, file.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Get the highest LSN known to be durable
+     *
+     * @return The durable LSN
+     */
+    public long getDurableLsn() {
+        lock.lock();
+        try {
+            return durableLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of fsyncs performed, for comparing with the number of records written
+     *
+     * @return The sync count
+     */
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            if (failure == null) {
+                syncAll();
+            }
+            channel.close();
+            channel = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}